@@ -0,0 +1,613 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores tuples in a B+
+ * tree, sorted on one of their fields, so that the tuples with a key or in
+ * a range of keys are found by reading one page per level of the tree.
+ * <p>
+ * Page 0 of the file is a {@link BTreeRootPtrPage}.  The tuples are kept
+ * in {@link BTreeLeafPage}s, linked to their siblings, above which
+ * {@link BTreeInternalPage}s hold the keys between them.  Pages freed by
+ * merges are recorded in {@link BTreeHeaderPage}s and reused.  A new file
+ * starts out with an empty leaf as its root.
+ * <p>
+ * Pages are read and changed through the BufferPool: lookups take shared
+ * locks on the way down, and an insert or delete takes exclusive locks on
+ * the pages it changes.  A full leaf is split in two, which may split its
+ * parent and so on up to the root; a leaf or internal page less than half
+ * full takes entries from a sibling, or is merged with it.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements IndexFile, PageFile {
+
+    private final File m_file;
+    private final TupleDesc m_td;
+    private final int m_keyField;
+
+    private final PageChannel m_pages;
+
+    private volatile boolean m_initialized;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this
+     *   B+ tree file
+     * @param keyField the field the tuples are sorted on
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("bad key field " + keyField);
+        m_file = f;
+        m_keyField = keyField;
+        m_td = td;
+        m_pages = new PageChannel(f);
+    }
+
+    /** @return the File backing this BTreeFile on disk */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of
+     * its file's absolute name, like HeapFile.
+     */
+    public int getId() {
+        return m_file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the index of the field the tuples are sorted on */
+    public int keyField() {
+        return m_keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId))
+            throw new IllegalArgumentException("not a B+ tree page: " + pid);
+        byte[] b = new byte[BufferPool.getPageSize()];
+        try {
+            ensureInitialized();
+            m_pages.read(pid.pageNumber(), b);
+            return BTreePage.createPage((BTreePageId) pid, b, m_keyField);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        m_pages.write(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see PageFile.java for javadocs
+    public void force() throws IOException {
+        m_pages.force();
+    }
+
+    /**
+     * Closes the file.  It is reopened if it is accessed again.
+     */
+    public void close() throws IOException {
+        m_pages.close();
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and free pages.
+     */
+    public int numPages() {
+        return (int) (m_file.length() / BufferPool.getPageSize());
+    }
+
+    // an empty file gets a root pointer page and an empty root leaf
+    private void ensureInitialized() throws IOException {
+        if (m_initialized)
+            return;
+        synchronized (this) {
+            if (m_file.length() == 0)
+                initialize();
+            m_initialized = true;
+        }
+    }
+
+    private void initialize() throws IOException {
+        byte[] rootPtr = BTreePage.createEmptyPageData(BTreePage.ROOT_PTR);
+        ByteBuffer.wrap(rootPtr, 1, 5).putInt(1).put((byte) BTreePage.LEAF);
+        m_pages.write(0, rootPtr);
+        m_pages.write(1, BTreePage.createEmptyPageData(BTreePage.LEAF));
+    }
+
+    /**
+     * Fetches a page through the BufferPool, unless the current operation
+     * has changed it already, in which case its changed version is in
+     * dirty.
+     *
+     * @param dirty the pages the operation has changed, or null
+     */
+    private BTreePage getPage(TransactionId tid, Map<PageId, Page> dirty, int pgNo,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        BTreePageId pid = new BTreePageId(getId(), pgNo);
+        if (dirty != null) {
+            Page p = dirty.get(pid);
+            if (p != null)
+                return (BTreePage) p;
+        }
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    private BTreeRootPtrPage getRootPtr(TransactionId tid, Map<PageId, Page> dirty,
+            Permissions perm) throws DbException, TransactionAbortedException, IOException {
+        ensureInitialized();
+        return (BTreeRootPtrPage) getPage(tid, dirty, 0, perm);
+    }
+
+    /**
+     * Finds the leftmost leaf that may hold the specified key, taking
+     * shared locks on the internal pages on the way.
+     *
+     * @param key the key, or null for the leftmost leaf of the tree
+     * @param perm the permissions to fetch the leaf with
+     */
+    BTreeLeafPage findLeaf(TransactionId tid, Map<PageId, Page> dirty, Field key,
+            Permissions perm) throws DbException, TransactionAbortedException, IOException {
+        BTreeRootPtrPage rootPtr = getRootPtr(tid, dirty, Permissions.READ_ONLY);
+        int pgNo = rootPtr.getRoot();
+        int category = rootPtr.getRootCategory();
+        while (category == BTreePage.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirty, pgNo, Permissions.READ_ONLY);
+            pgNo = p.getChild(p.findChild(key));
+            category = p.getChildCategory();
+        }
+        return (BTreeLeafPage) getPage(tid, dirty, pgNo, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        Field key = t.getField(m_keyField);
+        BTreeLeafPage leaf = findLeaf(tid, dirty, key, Permissions.READ_WRITE);
+        if (leaf.getNumEmptySlots() == 0)
+            leaf = splitLeaf(tid, dirty, leaf, key);
+        leaf.insertTuple(t);
+        dirty.put(leaf.getId(), leaf);
+        return new ArrayList<Page>(dirty.values());
+    }
+
+    /**
+     * Splits a full leaf, moving its upper half to a new leaf to its
+     * right, and adds the new leaf to the parent.
+     *
+     * @return the leaf the specified key goes into
+     */
+    private BTreeLeafPage splitLeaf(TransactionId tid, Map<PageId, Page> dirty,
+            BTreeLeafPage leaf, Field key)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, dirty, BTreePage.LEAF);
+        leaf.split(right);
+
+        int next = leaf.getRightSibling();
+        if (next != 0) {
+            BTreeLeafPage nextPage = (BTreeLeafPage) getPage(tid, dirty, next, Permissions.READ_WRITE);
+            nextPage.setLeftSibling(right.getId().pageNumber());
+            dirty.put(nextPage.getId(), nextPage);
+        }
+        right.setRightSibling(next);
+        right.setLeftSibling(leaf.getId().pageNumber());
+        leaf.setRightSibling(right.getId().pageNumber());
+
+        Field separator = right.getKey(0);
+        BTreeInternalPage parent = parentWithRoom(tid, dirty, leaf.getParent(),
+                leaf.getId().pageNumber(), BTreePage.LEAF);
+        parent.insertAfter(leaf.getId().pageNumber(), separator, right.getId().pageNumber());
+        leaf.setParent(parent.getId().pageNumber());
+        right.setParent(parent.getId().pageNumber());
+        dirty.put(leaf.getId(), leaf);
+        dirty.put(right.getId(), right);
+        dirty.put(parent.getId(), parent);
+
+        return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, separator) ? right : leaf;
+    }
+
+    /**
+     * Returns the parent of the specified page, with room for another
+     * key, splitting it if it is full.  A root gets a new parent, which
+     * becomes the root.
+     *
+     * @param parentNo the parent's page number, 0 if child is the root
+     * @param child the page number of the child
+     * @param childCategory the kind of the child
+     * @return the internal page that is the child's parent afterwards
+     */
+    private BTreeInternalPage parentWithRoom(TransactionId tid, Map<PageId, Page> dirty,
+            int parentNo, int child, int childCategory)
+            throws DbException, IOException, TransactionAbortedException {
+        if (parentNo == 0) {
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid, dirty, BTreePage.INTERNAL);
+            root.init(childCategory, child);
+            BTreeRootPtrPage rootPtr = getRootPtr(tid, dirty, Permissions.READ_WRITE);
+            rootPtr.setRoot(root.getId().pageNumber(), BTreePage.INTERNAL);
+            dirty.put(rootPtr.getId(), rootPtr);
+            dirty.put(root.getId(), root);
+            return root;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirty, parentNo,
+                Permissions.READ_WRITE);
+        if (parent.getNumKeys() < parent.getMaxKeys())
+            return parent;
+        return splitInternal(tid, dirty, parent, child);
+    }
+
+    /**
+     * Splits a full internal page, moving its upper half to a new page to
+     * its right and the key between the halves up to the parent.
+     *
+     * @return the page that holds the specified child afterwards
+     */
+    private BTreeInternalPage splitInternal(TransactionId tid, Map<PageId, Page> dirty,
+            BTreeInternalPage page, int child)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) newPage(tid, dirty, BTreePage.INTERNAL);
+        Field middle = page.split(right);
+        for (int moved : right.getChildren())
+            setParent(tid, dirty, moved, right.getId().pageNumber());
+
+        int pageNo = page.getId().pageNumber();
+        BTreeInternalPage parent = parentWithRoom(tid, dirty, page.getParent(), pageNo,
+                BTreePage.INTERNAL);
+        parent.insertAfter(pageNo, middle, right.getId().pageNumber());
+        page.setParent(parent.getId().pageNumber());
+        right.setParent(parent.getId().pageNumber());
+        dirty.put(page.getId(), page);
+        dirty.put(right.getId(), right);
+        dirty.put(parent.getId(), parent);
+
+        return right.indexOfChild(child) >= 0 ? right : page;
+    }
+
+    private void setParent(TransactionId tid, Map<PageId, Page> dirty, int pgNo, int parent)
+            throws DbException, TransactionAbortedException {
+        BTreePage p = getPage(tid, dirty, pgNo, Permissions.READ_WRITE);
+        if (p instanceof BTreeLeafPage)
+            ((BTreeLeafPage) p).setParent(parent);
+        else
+            ((BTreeInternalPage) p).setParent(parent);
+        dirty.put(p.getId(), p);
+    }
+
+    /**
+     * Deletes the specified tuple.  A tuple without a record id is looked
+     * up by its key and deleted if the file holds a tuple with the same
+     * fields, so callers need not read a tuple before deleting it.
+     *
+     * @see DbFile#deleteTuple
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid != null && (rid.getPageId().getTableId() != getId()
+                || !(rid.getPageId() instanceof BTreePageId)))
+            throw new DbException("tuple is not a member of this file");
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        BTreePage p = rid == null ? null
+            : getPage(tid, dirty, rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        BTreeLeafPage leaf = null;
+        if (p instanceof BTreeLeafPage && ((BTreeLeafPage) p).indexOf(t) >= 0) {
+            leaf = (BTreeLeafPage) p;
+        } else {
+            // a split or a merge has moved the tuple since it was read, or
+            // it was never read and is found by its fields
+            Field key = t.getField(m_keyField);
+            for (leaf = findLeaf(tid, dirty, key, Permissions.READ_WRITE);
+                    leaf != null && leaf.indexOf(t) < 0;
+                    leaf = nextLeafWith(tid, dirty, leaf, key))
+                ;
+            if (leaf == null)
+                throw new DbException("tuple is not a member of this file");
+        }
+        leaf.deleteTuple(t);
+        dirty.put(leaf.getId(), leaf);
+        if (leaf.getParent() != 0 && leaf.getNumTuples() < leaf.getMaxTuples() / 2)
+            rebalanceLeaf(tid, dirty, leaf);
+        return new ArrayList<Page>(dirty.values());
+    }
+
+    // the right sibling of a leaf if it may hold the specified key too
+    private BTreeLeafPage nextLeafWith(TransactionId tid, Map<PageId, Page> dirty,
+            BTreeLeafPage leaf, Field key) throws DbException, TransactionAbortedException {
+        int n = leaf.getNumTuples();
+        if (leaf.getRightSibling() == 0
+                || (n > 0 && key.compare(Predicate.Op.LESS_THAN, leaf.getKey(n - 1))))
+            return null;
+        return (BTreeLeafPage) getPage(tid, dirty, leaf.getRightSibling(), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Fills a leaf that is less than half full from a sibling with the
+     * same parent, or merges the two if the sibling has no tuples to
+     * spare.
+     */
+    private void rebalanceLeaf(TransactionId tid, Map<PageId, Page> dirty, BTreeLeafPage leaf)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirty, leaf.getParent(),
+                Permissions.READ_WRITE);
+        int i = parent.indexOfChild(leaf.getId().pageNumber());
+        int min = leaf.getMaxTuples() / 2;
+        if (i > 0) {
+            BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirty, parent.getChild(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumTuples() > min) {
+                while (left.getNumTuples() > leaf.getNumTuples() + 1)
+                    leaf.insertTuple(left.removeLast());
+                parent.setKey(i - 1, leaf.getKey(0));
+                dirty.put(left.getId(), left);
+                dirty.put(parent.getId(), parent);
+            } else {
+                mergeLeaves(tid, dirty, left, leaf, parent, i - 1);
+            }
+        } else {
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirty, parent.getChild(1),
+                    Permissions.READ_WRITE);
+            if (right.getNumTuples() > min) {
+                while (right.getNumTuples() > leaf.getNumTuples() + 1)
+                    leaf.insertTuple(right.removeFirst());
+                parent.setKey(0, right.getKey(0));
+                dirty.put(right.getId(), right);
+                dirty.put(parent.getId(), parent);
+            } else {
+                mergeLeaves(tid, dirty, leaf, right, parent, 0);
+            }
+        }
+    }
+
+    /**
+     * Moves the tuples of a leaf into its left sibling, removes it from
+     * their parent and frees it.
+     *
+     * @param separator the position of the key between the two in parent
+     */
+    private void mergeLeaves(TransactionId tid, Map<PageId, Page> dirty, BTreeLeafPage left,
+            BTreeLeafPage right, BTreeInternalPage parent, int separator)
+            throws DbException, IOException, TransactionAbortedException {
+        left.merge(right);
+        int next = right.getRightSibling();
+        if (next != 0) {
+            BTreeLeafPage nextPage = (BTreeLeafPage) getPage(tid, dirty, next, Permissions.READ_WRITE);
+            nextPage.setLeftSibling(left.getId().pageNumber());
+            dirty.put(nextPage.getId(), nextPage);
+        }
+        left.setRightSibling(next);
+        parent.remove(separator);
+        dirty.put(left.getId(), left);
+        dirty.put(right.getId(), right);
+        dirty.put(parent.getId(), parent);
+        freePage(tid, dirty, right.getId().pageNumber());
+        rebalanceInternal(tid, dirty, parent);
+    }
+
+    /**
+     * Fills an internal page that is less than half full from a sibling
+     * with the same parent, or merges the two if the sibling has no keys
+     * to spare.  A root without keys is replaced by its only child.
+     */
+    private void rebalanceInternal(TransactionId tid, Map<PageId, Page> dirty,
+            BTreeInternalPage page) throws DbException, IOException, TransactionAbortedException {
+        if (page.getParent() == 0) {
+            if (page.getNumKeys() == 0) {
+                int child = page.getChild(0);
+                BTreeRootPtrPage rootPtr = getRootPtr(tid, dirty, Permissions.READ_WRITE);
+                rootPtr.setRoot(child, page.getChildCategory());
+                dirty.put(rootPtr.getId(), rootPtr);
+                setParent(tid, dirty, child, 0);
+                freePage(tid, dirty, page.getId().pageNumber());
+            }
+            return;
+        }
+        int min = page.getMaxKeys() / 2;
+        if (page.getNumKeys() >= min)
+            return;
+
+        int pageNo = page.getId().pageNumber();
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirty, page.getParent(),
+                Permissions.READ_WRITE);
+        int i = parent.indexOfChild(pageNo);
+        dirty.put(page.getId(), page);
+        dirty.put(parent.getId(), parent);
+        if (i > 0) {
+            BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirty, parent.getChild(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumKeys() > min) {
+                // rotate keys through the parent
+                while (left.getNumKeys() > page.getNumKeys() + 1) {
+                    int n = left.getNumKeys();
+                    int moved = left.getChild(n);
+                    page.addFirst(parent.getKey(i - 1), moved);
+                    parent.setKey(i - 1, left.getKey(n - 1));
+                    left.removeLast();
+                    setParent(tid, dirty, moved, pageNo);
+                }
+                dirty.put(left.getId(), left);
+            } else {
+                mergeInternal(tid, dirty, left, page, parent, i - 1);
+            }
+        } else {
+            BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirty, parent.getChild(1),
+                    Permissions.READ_WRITE);
+            if (right.getNumKeys() > min) {
+                while (right.getNumKeys() > page.getNumKeys() + 1) {
+                    int moved = right.getChild(0);
+                    page.addLast(parent.getKey(0), moved);
+                    parent.setKey(0, right.getKey(0));
+                    right.removeFirst();
+                    setParent(tid, dirty, moved, pageNo);
+                }
+                dirty.put(right.getId(), right);
+            } else {
+                mergeInternal(tid, dirty, page, right, parent, 0);
+            }
+        }
+    }
+
+    /**
+     * Moves the keys and children of an internal page into its left
+     * sibling, pulling down the key between them, removes it from their
+     * parent and frees it.
+     */
+    private void mergeInternal(TransactionId tid, Map<PageId, Page> dirty,
+            BTreeInternalPage left, BTreeInternalPage right, BTreeInternalPage parent,
+            int separator) throws DbException, IOException, TransactionAbortedException {
+        List<Integer> moved = right.getChildren();
+        left.merge(parent.getKey(separator), right);
+        for (int child : moved)
+            setParent(tid, dirty, child, left.getId().pageNumber());
+        parent.remove(separator);
+        dirty.put(left.getId(), left);
+        dirty.put(right.getId(), right);
+        dirty.put(parent.getId(), parent);
+        freePage(tid, dirty, right.getId().pageNumber());
+        rebalanceInternal(tid, dirty, parent);
+    }
+
+    /**
+     * Returns an empty page of the specified kind, reusing a free page if
+     * there is one and appending a page to the file otherwise.
+     */
+    private BTreePage newPage(TransactionId tid, Map<PageId, Page> dirty, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = -1;
+        BTreeRootPtrPage rootPtr = getRootPtr(tid, dirty, Permissions.READ_ONLY);
+        int base = 0;
+        for (int h = rootPtr.getHeader(); h != 0 && pgNo < 0; ) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirty, h, Permissions.READ_ONLY);
+            int slot = header.firstFree();
+            if (slot >= 0) {
+                header = (BTreeHeaderPage) getPage(tid, dirty, h, Permissions.READ_WRITE);
+                // someone may have taken it while we upgraded our lock
+                if (header.isFree(slot)) {
+                    header.setFree(slot, false);
+                    dirty.put(header.getId(), header);
+                    pgNo = base + slot;
+                }
+                continue;
+            }
+            base += BTreeHeaderPage.getNumSlots();
+            h = header.getNext();
+        }
+        if (pgNo < 0)
+            return appendPage(tid, dirty, category);
+
+        BTreePageId pid = new BTreePageId(getId(), pgNo);
+        // lock the page, then replace whatever it held; an abort has to
+        // restore what it held when the transaction began
+        BTreePage old = getPage(tid, dirty, pgNo, Permissions.READ_WRITE);
+        BTreePage p = BTreePage.createPage(pid, BTreePage.createEmptyPageData(category), m_keyField);
+        p.setBeforeImage(old);
+        dirty.put(pid, p);
+        return p;
+    }
+
+    // appends an empty page of the specified kind to the file
+    private BTreePage appendPage(TransactionId tid, Map<PageId, Page> dirty, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId pid;
+        synchronized (this) {
+            pid = new BTreePageId(getId(), numPages());
+            m_pages.write(pid.pageNumber(), BTreePage.createEmptyPageData(category));
+        }
+        BTreePage p = (BTreePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        dirty.put(pid, p);
+        return p;
+    }
+
+    /** Records a page as free in the header pages, adding them as needed. */
+    private void freePage(TransactionId tid, Map<PageId, Page> dirty, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtr(tid, dirty, Permissions.READ_ONLY);
+        if (rootPtr.getHeader() == 0) {
+            rootPtr = getRootPtr(tid, dirty, Permissions.READ_WRITE);
+            if (rootPtr.getHeader() == 0) {
+                rootPtr.setHeader(appendPage(tid, dirty, BTreePage.HEADER).getId().pageNumber());
+                dirty.put(rootPtr.getId(), rootPtr);
+            }
+        }
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirty, rootPtr.getHeader(),
+                Permissions.READ_WRITE);
+        for (int i = pgNo / BTreeHeaderPage.getNumSlots(); i > 0; i--) {
+            if (header.getNext() == 0) {
+                header.setNext(appendPage(tid, dirty, BTreePage.HEADER).getId().pageNumber());
+                dirty.put(header.getId(), header);
+            }
+            header = (BTreeHeaderPage) getPage(tid, dirty, header.getNext(), Permissions.READ_WRITE);
+        }
+        header.setFree(pgNo % BTreeHeaderPage.getNumSlots(), true);
+        dirty.put(header.getId(), header);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, this, null, true, null, true);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy a predicate,
+     * in key order.  Only the leaves that may hold such tuples are read,
+     * except for NOT_EQUALS and LIKE, which read every leaf.
+     *
+     * @param op the comparison to apply to each key
+     * @param key the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        switch (op) {
+        case EQUALS:
+            return rangeIterator(tid, key, true, key, true);
+        case GREATER_THAN:
+            return rangeIterator(tid, key, false, null, true);
+        case GREATER_THAN_OR_EQ:
+            return rangeIterator(tid, key, true, null, true);
+        case LESS_THAN:
+            return rangeIterator(tid, null, true, key, false);
+        case LESS_THAN_OR_EQ:
+            return rangeIterator(tid, null, true, key, true);
+        default:
+            return new BTreeFileIterator(tid, this, null, true, null, true,
+                    new Predicate(m_keyField, op, key));
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys are in the specified
+     * range, in key order.
+     *
+     * @param low the lowest key, or null if the range has no lower bound
+     * @param lowInclusive true if tuples with key low are in the range
+     * @param high the highest key, or null if the range has no upper bound
+     * @param highInclusive true if tuples with key high are in the range
+     */
+    public DbFileIterator rangeIterator(TransactionId tid, Field low, boolean lowInclusive,
+            Field high, boolean highInclusive) {
+        return new BTreeFileIterator(tid, this, low, lowInclusive, high, highInclusive);
+    }
+
+    /** @return the leaf to the right of the specified one, or null */
+    BTreeLeafPage rightSibling(TransactionId tid, BTreeLeafPage leaf)
+            throws DbException, TransactionAbortedException {
+        int next = leaf.getRightSibling();
+        return next == 0 ? null
+            : (BTreeLeafPage) getPage(tid, null, next, Permissions.READ_ONLY);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * BTreeFileIterator returns the tuples of a BTreeFile whose keys are in a
+ * range, in key order.  It finds the leftmost leaf that may hold the
+ * lowest key and follows the leaves' right siblings from there until a
+ * key is past the highest one.  Leaves are fetched with shared locks.
+ */
+public class BTreeFileIterator implements DbFileIterator {
+
+    private final TransactionId m_tid;
+    private final BTreeFile m_file;
+    private final Field m_low;
+    private final boolean m_lowInclusive;
+    private final Field m_high;
+    private final boolean m_highInclusive;
+    // applied to the tuples in the range, or null
+    private final Predicate m_filter;
+
+    private BTreeLeafPage m_leaf;
+    private int m_pos;
+    private Tuple m_next;
+    private boolean m_open;
+
+    /**
+     * @param low the lowest key, or null if the range has no lower bound
+     * @param lowInclusive true if tuples with key low are in the range
+     * @param high the highest key, or null if the range has no upper bound
+     * @param highInclusive true if tuples with key high are in the range
+     */
+    public BTreeFileIterator(TransactionId tid, BTreeFile file, Field low, boolean lowInclusive,
+            Field high, boolean highInclusive) {
+        this(tid, file, low, lowInclusive, high, highInclusive, null);
+    }
+
+    /**
+     * Creates an iterator that also leaves out the tuples in the range
+     * that do not satisfy a predicate.
+     */
+    public BTreeFileIterator(TransactionId tid, BTreeFile file, Field low, boolean lowInclusive,
+            Field high, boolean highInclusive, Predicate filter) {
+        m_tid = tid;
+        m_file = file;
+        m_low = low;
+        m_lowInclusive = lowInclusive;
+        m_high = high;
+        m_highInclusive = highInclusive;
+        m_filter = filter;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        try {
+            m_leaf = m_file.findLeaf(m_tid, null, m_low, Permissions.READ_ONLY);
+        } catch (IOException e) {
+            throw new DbException("could not read " + m_file.getFile() + ": " + e.getMessage());
+        }
+        m_pos = 0;
+        m_next = null;
+        m_open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!m_open)
+            return false;
+        if (m_next == null)
+            m_next = fetchNext();
+        return m_next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = m_next;
+        m_next = null;
+        return t;
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_leaf != null) {
+            if (m_pos >= m_leaf.getNumTuples()) {
+                m_leaf = m_file.rightSibling(m_tid, m_leaf);
+                m_pos = 0;
+                continue;
+            }
+            Field key = m_leaf.getKey(m_pos);
+            if (m_low != null && key.compare(m_lowInclusive ? Predicate.Op.LESS_THAN
+                    : Predicate.Op.LESS_THAN_OR_EQ, m_low)) {
+                m_pos++;
+                continue;
+            }
+            if (m_high != null && key.compare(m_highInclusive ? Predicate.Op.GREATER_THAN
+                    : Predicate.Op.GREATER_THAN_OR_EQ, m_high)) {
+                m_leaf = null;
+                break;
+            }
+            Tuple t = m_leaf.getTuple(m_pos++);
+            if (m_filter == null || m_filter.filter(t))
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        m_leaf = null;
+        m_next = null;
+        m_open = false;
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage tracks which pages of a BTreeFile are free.  The header
+ * pages form a list starting at the root pointer page; the i-th header
+ * page has a bit for each of the {@link #getNumSlots} pages starting at
+ * page i * getNumSlots(), set while that page is free.  Pages that were
+ * never freed have their bits cleared, so a new header page is empty.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int m_next;
+    private final byte[] m_free;
+
+    BTreeHeaderPage(BTreePageId id, DataInputStream in) throws IOException {
+        super(id, -1);
+        m_next = in.readInt();
+        m_free = new byte[getNumSlots() / 8];
+        in.readFully(m_free);
+    }
+
+    /** @return the number of pages a header page keeps track of */
+    public static int getNumSlots() {
+        // the kind byte and the next pointer come first
+        return (BufferPool.getPageSize() - 1 - 4) / 8 * 8;
+    }
+
+    public int getCategory() {
+        return HEADER;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_next);
+        out.write(m_free);
+    }
+
+    /** @return the page number of the next header page, 0 if none */
+    public synchronized int getNext() {
+        return m_next;
+    }
+
+    public synchronized void setNext(int next) {
+        m_next = next;
+    }
+
+    /** @return the first free slot, or -1 if there is none */
+    public synchronized int firstFree() {
+        for (int i = 0; i < m_free.length; i++) {
+            if (m_free[i] == 0)
+                continue;
+            for (int b = 0; b < 8; b++) {
+                if ((m_free[i] & (1 << b)) != 0)
+                    return i * 8 + b;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized boolean isFree(int slot) {
+        return (m_free[slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    public synchronized void setFree(int slot, boolean free) {
+        if (free)
+            m_free[slot / 8] |= (byte) (1 << (slot % 8));
+        else
+            m_free[slot / 8] &= (byte) ~(1 << (slot % 8));
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeInternalPage holds the keys of an internal node of a BTreeFile and
+ * the page numbers of its children: child i holds the keys up to key i,
+ * and child i + 1 the keys from key i on.  All children are of the same
+ * kind, either internal or leaf pages.
+ * <p>
+ * The page is the page number of its parent (0 for the root), the kind
+ * of its children, the integer number of children, their page numbers and
+ * then the keys, one fewer than the children.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type m_keyType;
+    private int m_parent;
+    private int m_childCategory;
+    private final ArrayList<Integer> m_children = new ArrayList<Integer>();
+    private final ArrayList<Field> m_keys = new ArrayList<Field>();
+
+    BTreeInternalPage(BTreePageId id, DataInputStream in, int keyField) throws IOException {
+        super(id, keyField);
+        m_keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(keyField);
+        m_parent = in.readInt();
+        m_childCategory = in.readUnsignedByte();
+        int n = in.readInt();
+        if (n < 0 || n > getMaxKeys() + 1)
+            throw new IOException("internal page " + id.pageNumber() + " has " + n + " children");
+        for (int i = 0; i < n; i++)
+            m_children.add(in.readInt());
+        try {
+            for (int i = 0; i < n - 1; i++)
+                m_keys.add(m_keyType.parse(in));
+        } catch (ParseException e) {
+            throw new IOException("bad key on internal page " + id.pageNumber());
+        }
+    }
+
+    public int getCategory() {
+        return INTERNAL;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_parent);
+        out.writeByte(m_childCategory);
+        out.writeInt(m_children.size());
+        for (int child : m_children)
+            out.writeInt(child);
+        for (Field key : m_keys)
+            key.serialize(out);
+    }
+
+    /** @return the most keys a page holds */
+    public int getMaxKeys() {
+        // kind, parent, child kind and child count, and one more child
+        // than keys
+        int fixed = 1 + 4 + 1 + 4 + 4;
+        return (BufferPool.getPageSize() - fixed) / (m_keyType.getLen() + 4);
+    }
+
+    public synchronized int getParent() {
+        return m_parent;
+    }
+
+    public synchronized void setParent(int parent) {
+        m_parent = parent;
+    }
+
+    public synchronized int getChildCategory() {
+        return m_childCategory;
+    }
+
+    public synchronized int getNumKeys() {
+        return m_keys.size();
+    }
+
+    public synchronized Field getKey(int i) {
+        return m_keys.get(i);
+    }
+
+    public synchronized void setKey(int i, Field key) {
+        m_keys.set(i, key);
+    }
+
+    public synchronized int getChild(int i) {
+        return m_children.get(i);
+    }
+
+    /** @return the page numbers of the children, in key order */
+    public synchronized List<Integer> getChildren() {
+        return new ArrayList<Integer>(m_children);
+    }
+
+    /** @return the position of the specified child, or -1 */
+    public synchronized int indexOfChild(int child) {
+        return m_children.indexOf(child);
+    }
+
+    /**
+     * @return the position of the leftmost child that may hold the
+     *   specified key, or of the first child if key is null
+     */
+    public synchronized int findChild(Field key) {
+        if (key == null)
+            return 0;
+        for (int i = 0; i < m_keys.size(); i++) {
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, m_keys.get(i)))
+                return i;
+        }
+        return m_keys.size();
+    }
+
+    /** Makes an empty page the root above the specified child. */
+    public synchronized void init(int childCategory, int child) {
+        if (!m_children.isEmpty())
+            throw new IllegalStateException("internal page " + pid.pageNumber() + " is not empty");
+        m_childCategory = childCategory;
+        m_children.add(child);
+    }
+
+    /**
+     * Adds a key and, to its right, a new child next to an existing
+     * child.
+     */
+    public synchronized void insertAfter(int child, Field key, int newChild) throws DbException {
+        int i = m_children.indexOf(child);
+        if (i < 0)
+            throw new DbException("page " + child + " is not a child of page " + pid.pageNumber());
+        if (m_keys.size() >= getMaxKeys())
+            throw new DbException("internal page " + pid.pageNumber() + " is full");
+        m_keys.add(i, key);
+        m_children.add(i + 1, newChild);
+    }
+
+    /** Removes key i and the child to its right. */
+    public synchronized void remove(int i) {
+        m_keys.remove(i);
+        m_children.remove(i + 1);
+    }
+
+    /** Adds a key and a child before the first ones. */
+    public synchronized void addFirst(Field key, int child) {
+        m_keys.add(0, key);
+        m_children.add(0, child);
+    }
+
+    /** Adds a key and a child after the last ones. */
+    public synchronized void addLast(Field key, int child) {
+        m_keys.add(key);
+        m_children.add(child);
+    }
+
+    /** Removes the first key and the first child. */
+    public synchronized void removeFirst() {
+        m_keys.remove(0);
+        m_children.remove(0);
+    }
+
+    /** Removes the last key and the last child. */
+    public synchronized void removeLast() {
+        m_keys.remove(m_keys.size() - 1);
+        m_children.remove(m_children.size() - 1);
+    }
+
+    /**
+     * Moves the upper half of this page's keys and children to an empty
+     * page.
+     *
+     * @return the key between the halves, which neither page keeps
+     */
+    public synchronized Field split(BTreeInternalPage right) {
+        synchronized (right) {
+            int mid = m_keys.size() / 2;
+            Field middle = m_keys.get(mid);
+            right.m_childCategory = m_childCategory;
+            right.m_keys.addAll(m_keys.subList(mid + 1, m_keys.size()));
+            right.m_children.addAll(m_children.subList(mid + 1, m_children.size()));
+            m_keys.subList(mid, m_keys.size()).clear();
+            m_children.subList(mid + 1, m_children.size()).clear();
+            return middle;
+        }
+    }
+
+    /**
+     * Moves the keys and children of the page to the right of this one
+     * here, with the key between the two pages in their parent.
+     */
+    public synchronized void merge(Field separator, BTreeInternalPage right) {
+        synchronized (right) {
+            m_keys.add(separator);
+            m_keys.addAll(right.m_keys);
+            m_children.addAll(right.m_children);
+            right.m_keys.clear();
+            right.m_children.clear();
+        }
+    }
+}
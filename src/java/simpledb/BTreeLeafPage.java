@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds tuples of a BTreeFile, sorted by key.  Tuples with
+ * equal keys are kept in the order they were inserted.  The record id of
+ * a tuple is its position on the page, so it changes when tuples before
+ * it are inserted or deleted; {@link #deleteTuple} looks for the tuple if
+ * it has moved.
+ * <p>
+ * The page is the page numbers of its parent (0 for the root), its left
+ * and its right sibling (0 for none), the integer number of tuples and
+ * the tuples.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final TupleDesc m_td;
+    private int m_parent;
+    private int m_left;
+    private int m_right;
+    private final ArrayList<Tuple> m_tuples = new ArrayList<Tuple>();
+
+    BTreeLeafPage(BTreePageId id, DataInputStream in, int keyField) throws IOException {
+        super(id, keyField);
+        m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+        m_parent = in.readInt();
+        m_left = in.readInt();
+        m_right = in.readInt();
+        int n = in.readInt();
+        if (n < 0 || n > getMaxTuples())
+            throw new IOException("leaf page " + id.pageNumber() + " has " + n + " tuples");
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(m_td);
+                for (int j = 0; j < m_td.numFields(); j++)
+                    t.setField(j, m_td.getFieldType(j).parse(in));
+                m_tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad tuple on leaf page " + id.pageNumber());
+        }
+    }
+
+    public int getCategory() {
+        return LEAF;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_parent);
+        out.writeInt(m_left);
+        out.writeInt(m_right);
+        out.writeInt(m_tuples.size());
+        for (Tuple t : m_tuples) {
+            for (int j = 0; j < m_td.numFields(); j++)
+                t.getField(j).serialize(out);
+        }
+    }
+
+    /** @return the most tuples a page holds */
+    public int getMaxTuples() {
+        // kind, parent, siblings and tuple count
+        int fixed = 1 + 4 + 4 + 4 + 4;
+        return (BufferPool.getPageSize() - fixed) / m_td.getSize();
+    }
+
+    public synchronized int getParent() {
+        return m_parent;
+    }
+
+    public synchronized void setParent(int parent) {
+        m_parent = parent;
+    }
+
+    /** @return the page number of the left sibling, 0 if none */
+    public synchronized int getLeftSibling() {
+        return m_left;
+    }
+
+    public synchronized void setLeftSibling(int left) {
+        m_left = left;
+    }
+
+    /** @return the page number of the right sibling, 0 if none */
+    public synchronized int getRightSibling() {
+        return m_right;
+    }
+
+    public synchronized void setRightSibling(int right) {
+        m_right = right;
+    }
+
+    public synchronized int getNumTuples() {
+        return m_tuples.size();
+    }
+
+    public synchronized int getNumEmptySlots() {
+        return getMaxTuples() - m_tuples.size();
+    }
+
+    /** @return a copy of tuple i, with its record id set */
+    public synchronized Tuple getTuple(int i) {
+        Tuple src = m_tuples.get(i);
+        Tuple t = new Tuple(m_td);
+        for (int j = 0; j < m_td.numFields(); j++)
+            t.setField(j, src.getField(j));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the key of tuple i */
+    public synchronized Field getKey(int i) {
+        return m_tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * Adds a tuple after the tuples whose keys are not greater than its
+     * own, and sets its record id.
+     *
+     * @throws DbException if the page is full or the tuple does not fit
+     *   the table
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        if (m_tuples.size() >= getMaxTuples())
+            throw new DbException("leaf page " + pid.pageNumber() + " is full");
+        Field key = t.getField(keyField);
+        int i = m_tuples.size();
+        while (i > 0 && key.compare(Predicate.Op.LESS_THAN, m_tuples.get(i - 1).getField(keyField)))
+            i--;
+        Tuple copy = new Tuple(m_td);
+        for (int j = 0; j < m_td.numFields(); j++)
+            copy.setField(j, t.getField(j));
+        m_tuples.add(i, copy);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Removes the specified tuple, see {@link #indexOf}.
+     *
+     * @throws DbException if the page does not hold the tuple
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        int i = indexOf(t);
+        if (i < 0)
+            throw new DbException("tuple is not on leaf page " + pid.pageNumber());
+        m_tuples.remove(i);
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the position of the specified tuple: the one at its record
+     *   id's position if it is still there, or else the first equal tuple;
+     *   -1 if the page does not hold the tuple
+     */
+    public synchronized int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int i = rid != null && pid.equals(rid.getPageId()) ? rid.tupleno() : -1;
+        if (i >= 0 && i < m_tuples.size() && sameFields(m_tuples.get(i), t))
+            return i;
+        for (int k = 0; k < m_tuples.size(); k++) {
+            if (sameFields(m_tuples.get(k), t))
+                return k;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < m_td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Removes and returns the first tuple. */
+    public synchronized Tuple removeFirst() {
+        return m_tuples.remove(0);
+    }
+
+    /** Removes and returns the last tuple. */
+    public synchronized Tuple removeLast() {
+        return m_tuples.remove(m_tuples.size() - 1);
+    }
+
+    /** Moves the upper half of this page's tuples to an empty page. */
+    public synchronized void split(BTreeLeafPage right) {
+        synchronized (right) {
+            int mid = m_tuples.size() / 2;
+            right.m_tuples.addAll(m_tuples.subList(mid, m_tuples.size()));
+            m_tuples.subList(mid, m_tuples.size()).clear();
+        }
+    }
+
+    /** Moves the tuples of the page to the right of this one here. */
+    public synchronized void merge(BTreeLeafPage right) {
+        synchronized (right) {
+            m_tuples.addAll(right.m_tuples);
+            right.m_tuples.clear();
+        }
+    }
+}
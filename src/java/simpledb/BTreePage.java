@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage is the base of the pages of a BTreeFile.  Every page is
+ * BufferPool.PAGE_SIZE bytes long and starts with a byte telling which
+ * kind of page it is, so a page number may be reused for another kind of
+ * page once it has been freed:
+ * <ul>
+ * <li> {@link #ROOT_PTR}: page 0, locating the root and the header pages
+ * <li> {@link #INTERNAL}: keys and the pages of the keys between them
+ * <li> {@link #LEAF}: tuples, sorted by key
+ * <li> {@link #HEADER}: which pages are free
+ * </ul>
+ * Pages are decoded when they are read and encoded again by
+ * {@link #getPageData}; the rest of the page after the encoded contents
+ * is zero.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    public static final int ROOT_PTR = 0;
+    public static final int INTERNAL = 1;
+    public static final int LEAF = 2;
+    public static final int HEADER = 3;
+
+    protected final BTreePageId pid;
+    protected final int keyField;
+
+    private volatile TransactionId m_dirtier;
+
+    private byte[] m_oldData; // protected by this
+
+    protected BTreePage(BTreePageId id, int keyField) {
+        this.pid = id;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Builds the page of the kind data's first byte names.
+     *
+     * @param keyField the field the BTreeFile is keyed on
+     * @throws IOException if the kind of page is unknown
+     */
+    public static BTreePage createPage(BTreePageId id, byte[] data, int keyField)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int category = in.readUnsignedByte();
+        BTreePage p;
+        switch (category) {
+        case ROOT_PTR:
+            p = new BTreeRootPtrPage(id, in);
+            break;
+        case INTERNAL:
+            p = new BTreeInternalPage(id, in, keyField);
+            break;
+        case LEAF:
+            p = new BTreeLeafPage(id, in, keyField);
+            break;
+        case HEADER:
+            p = new BTreeHeaderPage(id, in);
+            break;
+        default:
+            throw new IOException("page " + id.pageNumber() + " has unknown kind " + category);
+        }
+        // the page was just decoded from these bytes
+        p.m_oldData = data;
+        return p;
+    }
+
+    /**
+     * @return the data of an empty page of the specified kind; an empty
+     *   root pointer page has no root
+     */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    /** @return the kind of this page */
+    public abstract int getCategory();
+
+    /** Writes the contents of the page after its kind byte. */
+    protected abstract void write(DataOutputStream out) throws IOException;
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(getCategory());
+            write(out);
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        if (bytes.size() > BufferPool.getPageSize())
+            throw new IllegalStateException("page " + pid.pageNumber() + " overflows");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        System.arraycopy(bytes.toByteArray(), 0, data, 0, bytes.size());
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtier;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        byte[] old;
+        synchronized (this) {
+            old = m_oldData;
+        }
+        try {
+            return createPage(pid, old, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (this) {
+            m_oldData = data;
+        }
+    }
+
+    /** Makes the before image of another page this page's before image. */
+    void setBeforeImage(BTreePage other) {
+        byte[] data;
+        synchronized (other) {
+            data = other.m_oldData;
+        }
+        synchronized (this) {
+            m_oldData = data;
+        }
+    }
+}
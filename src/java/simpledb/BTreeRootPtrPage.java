@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of a BTreeFile.  It holds the number and the
+ * kind of the root page and the number of the first header page, 0 if
+ * there is none.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int m_root;
+    private int m_rootCategory;
+    private int m_header;
+
+    BTreeRootPtrPage(BTreePageId id, DataInputStream in) throws IOException {
+        super(id, -1);
+        m_root = in.readInt();
+        m_rootCategory = in.readUnsignedByte();
+        m_header = in.readInt();
+    }
+
+    public int getCategory() {
+        return ROOT_PTR;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_root);
+        out.writeByte(m_rootCategory);
+        out.writeInt(m_header);
+    }
+
+    /** @return the page number of the root, 0 if the tree has none */
+    public synchronized int getRoot() {
+        return m_root;
+    }
+
+    /** @return the kind of the root page */
+    public synchronized int getRootCategory() {
+        return m_rootCategory;
+    }
+
+    public synchronized void setRoot(int root, int category) {
+        m_root = root;
+        m_rootCategory = category;
+    }
+
+    /** @return the page number of the first header page, 0 if none */
+    public synchronized int getHeader() {
+        return m_header;
+    }
+
+    public synchronized void setHeader(int header) {
+        m_header = header;
+    }
+}
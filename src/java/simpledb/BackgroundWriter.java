@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BackgroundWriter trickles dirty pages of a BufferPool to disk on a
+ * daemon thread, so that evictions find clean pages to replace and rarely
+ * have to write one back themselves.
+ * <p>
+ * Every interval the writer looks at the fraction of the pool that is
+ * dirty.  Below the low ratio it does nothing; from there up to the high
+ * ratio it writes back up to {@link #getPagesPerRound} pages per round, and
+ * above the high ratio it writes back every dirty page.  Pages are written
+ * in the order they are stored on disk, and adjacent pages of a HeapFile
+ * are written together (see {@link BufferPool#flushAllPages}).  A pool
+ * that had to write back a page to evict it wakes the writer early.
+ * <p>
+ * After each round the writer forces the data files that were written to,
+ * so that fuzzy checkpoints let the log be truncated (see
+ * {@link LogFile#logCheckpoint}).
+ * <p>
+ * The Database starts the writer of its buffer pool; the writer of a
+ * pool created on its own is off until {@link #start} is called.
+ *
+ * @see BufferPool#getBackgroundWriter
+ */
+public class BackgroundWriter {
+
+    /** Dirty ratio below which nothing is written. */
+    public static final double DEFAULT_LOW_RATIO = 0.1;
+
+    /** Dirty ratio above which every dirty page is written each round. */
+    public static final double DEFAULT_HIGH_RATIO = 0.5;
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    public static final int DEFAULT_PAGES_PER_ROUND = 64;
+
+    private final BufferPool m_pool;
+
+    private volatile double m_lowRatio = DEFAULT_LOW_RATIO;
+    private volatile double m_highRatio = DEFAULT_HIGH_RATIO;
+    private volatile long m_interval = DEFAULT_INTERVAL_MILLIS;
+    private volatile int m_pagesPerRound = DEFAULT_PAGES_PER_ROUND;
+
+    // guarded by this
+    private Thread m_thread;
+    private boolean m_woken;
+    private long m_pagesWritten;
+    private long m_startNanos;
+    private long m_runNanos;
+
+    BackgroundWriter(BufferPool pool) {
+        m_pool = pool;
+    }
+
+    /**
+     * Sets the dirty ratios at which the writer starts writing pages back
+     * and at which it writes back all of them.
+     *
+     * @throws IllegalArgumentException unless 0 <= low <= high <= 1
+     */
+    public void setDirtyRatios(double low, double high) {
+        if (low < 0 || low > high || high > 1)
+            throw new IllegalArgumentException("bad dirty ratios " + low + ", " + high);
+        m_lowRatio = low;
+        m_highRatio = high;
+    }
+
+    public double getLowRatio() {
+        return m_lowRatio;
+    }
+
+    public double getHighRatio() {
+        return m_highRatio;
+    }
+
+    /** Sets how long the writer sleeps between rounds. */
+    public void setInterval(long millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("bad interval " + millis);
+        m_interval = millis;
+    }
+
+    public long getInterval() {
+        return m_interval;
+    }
+
+    /** Sets how many pages a round writes between the two ratios. */
+    public void setPagesPerRound(int pages) {
+        if (pages <= 0)
+            throw new IllegalArgumentException("bad page count " + pages);
+        m_pagesPerRound = pages;
+    }
+
+    public int getPagesPerRound() {
+        return m_pagesPerRound;
+    }
+
+    /** Starts the writer thread if it is not running. */
+    public synchronized void start() {
+        if (m_thread != null)
+            return;
+        m_thread = new Thread("simpledb-background-writer") {
+            public void run() {
+                loop(this);
+            }
+        };
+        m_thread.setDaemon(true);
+        m_startNanos = System.nanoTime();
+        m_thread.start();
+    }
+
+    /** Stops the writer thread and waits for its current round to end. */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = m_thread;
+            if (t == null)
+                return;
+            m_thread = null;
+            m_runNanos += System.nanoTime() - m_startNanos;
+            notifyAll();
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return m_thread != null;
+    }
+
+    /** Makes the writer start its next round now. */
+    public synchronized void wakeUp() {
+        if (m_thread != null) {
+            m_woken = true;
+            notifyAll();
+        }
+    }
+
+    /** @return the number of pages the writer has written back */
+    public synchronized long getPagesWritten() {
+        return m_pagesWritten;
+    }
+
+    /** @return pages written back per second the writer has been running */
+    public synchronized double getFlushRate() {
+        long nanos = m_runNanos;
+        if (m_thread != null)
+            nanos += System.nanoTime() - m_startNanos;
+        return nanos == 0 ? 0 : m_pagesWritten / (nanos / 1e9);
+    }
+
+    private void loop(Thread self) {
+        while (true) {
+            synchronized (this) {
+                if (m_thread != self)
+                    return;
+                if (!m_woken) {
+                    try {
+                        wait(m_interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                m_woken = false;
+                if (m_thread != self)
+                    return;
+            }
+            round();
+        }
+    }
+
+    private void round() {
+        double ratio = m_pool.getDirtyRatio();
+        try {
+            if (ratio > 0 && ratio >= m_lowRatio) {
+                int max = ratio >= m_highRatio ? Integer.MAX_VALUE : m_pagesPerRound;
+                int written = m_pool.writeDirtyPages(max);
+                synchronized (this) {
+                    m_pagesWritten += written;
+                }
+            }
+            m_pool.syncDataFiles();
+        } catch (IOException e) {
+            // the pages stay dirty; they are tried again next round
+            Debug.log("background writer: %s", e.getMessage());
+        }
+    }
+}
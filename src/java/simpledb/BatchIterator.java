@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by iterators that can hand out their tuples
+ * a batch at a time, in column-oriented form, instead of one Tuple per
+ * call.  It complements DbIterator and DbFileIterator: an implementation is
+ * opened, rewound and closed through those interfaces, and calls to
+ * nextBatch() and next() may be interleaved, each continuing where the
+ * other left off.
+ *
+ * @see TupleBatch
+ * @see DbIteratorBatchAdapter
+ */
+public interface BatchIterator {
+
+    /**
+     * Returns the next batch of tuples.  The returned batch is owned by the
+     * iterator and is reused: its contents are only valid until the next
+     * call to nextBatch(), rewind() or close().  A returned batch always
+     * holds at least one row, with all rows selected.
+     *
+     * @return the next batch, or null if there are no more tuples or the
+     *   iterator is not open
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
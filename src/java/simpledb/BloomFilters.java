@@ -0,0 +1,372 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BloomFilters keeps, for each group of PAGES_PER_GROUP consecutive pages
+ * of a HeapFile, a Bloom filter of the values of each of some of the
+ * table's fields, so that scans with an equality predicate on such a field
+ * can skip the groups that cannot hold a matching tuple.  Unlike a ZoneMap
+ * this helps with values that are spread out, such as names or ids in no
+ * particular order.
+ * <p>
+ * A group's filters may hold values that are no longer in the group, but
+ * never miss one that is, so skipping a group is always safe:
+ * <ul>
+ * <li> an insert adds its values to the filters of its group at once, and
+ *   an abort leaves them there;
+ * <li> a delete leaves the filters as they are, which only costs false
+ *   positives;
+ * <li> a group whose filters are not known yet is never skipped, and gets
+ *   them when a scan reads all of its pages while no transaction is
+ *   changing them.  The last group of a table gets them that way only
+ *   once it is full, since pages might be appended to it meanwhile.
+ * </ul>
+ * The filters are built by HeapFileEncoder and kept in a {@link SideFile},
+ * the table's file name followed by ".bf", with a record per group.  As
+ * with a ZoneMap, the records of the groups whose filters changed are
+ * written whenever the table's file is forced, and the side file is marked
+ * stale before the table's pages are written with changes the records on
+ * disk do not cover.
+ *
+ * @see HeapFile#setBloomFilters
+ * @see HeapFileEncoder#convert(File, File, int, int, Type[], char, int[])
+ */
+public class BloomFilters {
+
+    /** The number of consecutive pages each filter covers. */
+    public static final int PAGES_PER_GROUP = 8;
+    // about 1% false positives for a full group
+    private static final int BITS_PER_TUPLE = 10;
+    private static final int HASHES = 7;
+
+    private static final int MAGIC = 0x424c4f4d;
+
+    private final SideFile m_side;
+    // the fields that have filters
+    private final int[] m_fields;
+    // the number of longs in each filter
+    private final int m_words;
+    // per group, the bits of the filter of each field in m_fields, or null
+    // if unknown
+    private final ArrayList<long[][]> m_groups = new ArrayList<long[][]>();
+
+    private final AtomicLong m_skipped = new AtomicLong();
+    private final AtomicLong m_falsePositives = new AtomicLong();
+
+    /**
+     * Loads the filters of a table from its side file, if it has one that
+     * can be trusted and covers the same fields; otherwise no group has
+     * filters yet.
+     *
+     * @param fields the fields to keep filters of
+     * @throws IllegalArgumentException if a field is not in td
+     */
+    BloomFilters(File dataFile, TupleDesc td, int[] fields) {
+        for (int f : fields) {
+            if (f < 0 || f >= td.numFields())
+                throw new IllegalArgumentException("no field " + f + " in " + td);
+        }
+        m_fields = fields.clone();
+        int tuplesPerPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        int bits = PAGES_PER_GROUP * tuplesPerPage * BITS_PER_TUPLE;
+        m_words = (bits + 63) / 64;
+        ByteBuffer format = ByteBuffer.allocate(4 * (4 + m_fields.length));
+        format.putInt(PAGES_PER_GROUP).putInt(m_words).putInt(HASHES).putInt(m_fields.length);
+        for (int f : m_fields)
+            format.putInt(f);
+        m_side = new SideFile(sideFile(dataFile), MAGIC, format.array(),
+                1 + 8 * m_fields.length * m_words);
+        try {
+            load();
+        } catch (IOException e) {
+            Debug.log("bloom filters %s are unreadable, starting over: %s", sideFile(dataFile),
+                    e.getMessage());
+            m_groups.clear();
+        }
+    }
+
+    /** @return the side file of the specified table file */
+    static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".bf");
+    }
+
+    /** Deletes the side file of the specified table file, if it has one. */
+    static void discard(File dataFile) {
+        SideFile.delete(sideFile(dataFile));
+    }
+
+    private void load() throws IOException {
+        List<byte[]> records = m_side.load();
+        if (records == null)
+            return;
+        for (byte[] record : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            long[][] filters = null;
+            if (in.readBoolean()) {
+                filters = new long[m_fields.length][m_words];
+                for (long[] bits : filters) {
+                    for (int w = 0; w < m_words; w++)
+                        bits[w] = in.readLong();
+                }
+            }
+            m_groups.add(filters);
+        }
+    }
+
+    /**
+     * Writes the filters that changed since the last save to the side file
+     * and forces it.
+     */
+    public void save() throws IOException {
+        m_side.save(new SideFile.Records() {
+            public void write(int group, DataOutput out) throws IOException {
+                long[][] filters;
+                synchronized (BloomFilters.this) {
+                    filters = filters(group);
+                    if (filters != null) {
+                        long[][] copy = new long[filters.length][];
+                        for (int i = 0; i < filters.length; i++)
+                            copy[i] = filters[i].clone();
+                        filters = copy;
+                    }
+                }
+                out.writeBoolean(filters != null);
+                for (int i = 0; i < m_fields.length; i++) {
+                    for (int w = 0; w < m_words; w++)
+                        out.writeLong(filters == null ? 0 : filters[i][w]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks the side file stale if some filters changed since the last
+     * save.  Called before pages of the table are written.
+     */
+    void markStale() throws IOException {
+        m_side.markStale();
+    }
+
+    /** @return a copy of the fields that have filters */
+    public int[] getFields() {
+        return m_fields.clone();
+    }
+
+    // the position of a field in m_fields, or -1
+    private int column(int field) {
+        for (int i = 0; i < m_fields.length; i++) {
+            if (m_fields[i] == field)
+                return i;
+        }
+        return -1;
+    }
+
+    private long[][] filters(int group) {
+        return group < m_groups.size() ? m_groups.get(group) : null;
+    }
+
+    /** @return true if the specified group of pages has filters */
+    public synchronized boolean isKnown(int group) {
+        return filters(group) != null;
+    }
+
+    /**
+     * Records that the specified page, just added to the table, is empty.
+     * A page that starts a group gives the group empty filters.
+     */
+    synchronized void addEmpty(int pgNo) {
+        if (pgNo % PAGES_PER_GROUP != 0)
+            return;
+        setFilters(pgNo / PAGES_PER_GROUP, new long[m_fields.length][m_words]);
+    }
+
+    private void setFilters(int group, long[][] filters) {
+        while (m_groups.size() <= group)
+            m_groups.add(null);
+        m_groups.set(group, filters);
+        m_side.changed(group);
+    }
+
+    /** Adds the values of a tuple added to the specified page. */
+    synchronized void include(int pgNo, Tuple t) {
+        int group = pgNo / PAGES_PER_GROUP;
+        long[][] filters = filters(group);
+        if (filters == null)
+            return;
+        for (int i = 0; i < m_fields.length; i++)
+            add(group, filters[i], t.getField(m_fields[i]));
+    }
+
+    /**
+     * Adds the value of a field of a tuple the encoder wrote to the
+     * specified page.
+     */
+    synchronized void include(int pgNo, int field, Field value) {
+        int group = pgNo / PAGES_PER_GROUP;
+        long[][] filters = filters(group);
+        int i = column(field);
+        if (filters != null && i >= 0)
+            add(group, filters[i], value);
+    }
+
+    private void add(int group, long[] bits, Field value) {
+        long h = hash(value);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = bit(h, i);
+            long mask = 1L << bit;
+            if ((bits[bit >>> 6] & mask) == 0) {
+                m_side.changed(group);
+                bits[bit >>> 6] |= mask;
+            }
+        }
+    }
+
+    /** @return empty filters for a group a scan builds */
+    long[][] newGroup() {
+        return new long[m_fields.length][m_words];
+    }
+
+    /** Adds the values of the tuples on a page to filters from newGroup. */
+    void addPage(long[][] filters, HeapPage page) {
+        for (int slot = 0; slot < page.getNumSlots(); slot++) {
+            if (!page.isSlotUsed(slot))
+                continue;
+            for (int i = 0; i < m_fields.length; i++) {
+                long h = hash(page.getField(slot, m_fields[i]));
+                for (int k = 0; k < HASHES; k++) {
+                    int bit = bit(h, k);
+                    filters[i][bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives a group that has no filters the ones a scan built from all of
+     * its pages.  No transaction may be changing them.
+     */
+    synchronized void install(int group, long[][] filters) {
+        if (filters(group) == null)
+            setFilters(group, filters);
+    }
+
+    /** @return true if the predicate is an equality on a field with filters */
+    public boolean covers(Predicate p) {
+        return p.getOp() == Predicate.Op.EQUALS && column(p.getField()) >= 0;
+    }
+
+    /**
+     * @return false if no tuple in the specified group has the specified
+     *   value in the specified field
+     */
+    public synchronized boolean mightContain(int group, int field, Field value) {
+        long[][] filters = filters(group);
+        int i = column(field);
+        if (filters == null || i < 0)
+            return true;
+        long[] bits = filters[i];
+        long h = hash(value);
+        for (int k = 0; k < HASHES; k++) {
+            int bit = bit(h, k);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // the k-th bit of a filter a value with hash h sets, by double hashing
+    private int bit(long h, int k) {
+        return (((int) h + k * (int) (h >>> 32)) & Integer.MAX_VALUE) % (m_words * 64);
+    }
+
+    // a 64 bit hash of a field's value: FNV-1a over the characters of a
+    // string, then the murmur3 finalizer
+    static long hash(Field value) {
+        long h;
+        if (value instanceof IntField) {
+            h = ((IntField) value).getValue();
+        } else {
+            String s = ((StringField) value).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Counts a group a scan skipped. */
+    void skipped() {
+        m_skipped.incrementAndGet();
+    }
+
+    /** Counts a group a scan read because of a false positive. */
+    void falsePositive() {
+        m_falsePositives.incrementAndGet();
+    }
+
+    /** @return the number of groups scans have skipped */
+    public long getGroupsSkipped() {
+        return m_skipped.get();
+    }
+
+    /**
+     * @return the number of groups scans read because their filter held
+     *   the value they looked for, but none of their tuples did
+     */
+    public long getFalsePositives() {
+        return m_falsePositives.get();
+    }
+
+    /**
+     * @return the fraction of the probes for a value a group did not hold
+     *   that the group's filter answered wrongly, or 0 if there were none
+     */
+    public double getObservedFalsePositiveRate() {
+        long fp = m_falsePositives.get();
+        long negatives = fp + m_skipped.get();
+        return negatives == 0 ? 0 : (double) fp / negatives;
+    }
+
+    /**
+     * @return the false positive rate the filters are expected to have
+     *   given how many of their bits are set, averaged over the filters,
+     *   or 0 if there are none
+     */
+    public synchronized double getEstimatedFalsePositiveRate() {
+        double sum = 0;
+        int n = 0;
+        for (long[][] filters : m_groups) {
+            if (filters == null)
+                continue;
+            for (long[] bits : filters) {
+                int set = 0;
+                for (long w : bits)
+                    set += Long.bitCount(w);
+                sum += Math.pow((double) set / (m_words * 64), HASHES);
+                n++;
+            }
+        }
+        return n == 0 ? 0 : sum / n;
+    }
+
+    /** @return the number of bytes the filters take up in memory */
+    public synchronized long getMemoryUsage() {
+        long bytes = 0;
+        for (long[][] filters : m_groups) {
+            if (filters != null)
+                bytes += (long) filters.length * m_words * 8;
+        }
+        return bytes;
+    }
+}
@@ -4,7 +4,13 @@ import java.io.*;
 
 import java.util.*;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,7 +20,29 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
- * 
+ * <p>
+ * The pool is split into partitions by the hash of the PageId.  Each
+ * partition has its own share of the frames, its own eviction policy and
+ * its own latch (its monitor), which is only taken to load, evict or
+ * remove a page; cached pages are found without any latch.  Flushing a
+ * page latches only its frame.  So threads working on pages of different
+ * partitions never wait for each other inside the pool.
+ * <p>
+ * A page is read from disk without holding the partition latch.  The
+ * thread that misses first reserves a frame whose page is still being
+ * read; threads that ask for the page meanwhile wait for that read instead
+ * of starting their own, so each page is read once and only one Page
+ * object exists for it.
+ * <p>
+ * Dirty pages may be written back before their transaction completes
+ * (STEAL): an UPDATE record with the page's before image is logged and
+ * the log forced first, so an abort can restore the page from the log.
+ * Write-backs are done by the {@link BackgroundWriter}, by
+ * commits, and by evictions that find no clean page to replace.  Pages of
+ * a HeapFile that are next to each other on disk are written with a
+ * single gathered write.  The LogFile is never called with a partition
+ * latch held.
+ *
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
@@ -22,35 +50,346 @@ public class BufferPool {
     public static final int PAGE_SIZE = 4096;
 
     private static int pageSize = PAGE_SIZE;
-    
-    private int m_numpages;
-    
-    private ConcurrentHashMap<PageId, Page> ccmap;
-    
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** The largest number of partitions a pool gets by default. */
+    public static final int MAX_PARTITIONS = 16;
+
+    // by default a pool gets one partition per this many pages, so small
+    // pools keep a single replacement order over all their pages
+    private static final int PAGES_PER_PARTITION = 32;
+
+    // the most pages written back with one gathered write
+    private static final int MAX_WRITE_RUN = 32;
+
+    // orders frames by table and then by page number, i.e. by file offset
+    private static final Comparator<Frame> FILE_ORDER = new Comparator<Frame>() {
+        public int compare(Frame a, Frame b) {
+            PageId pa = a.m_page.getId();
+            PageId pb = b.m_page.getId();
+            if (pa.getTableId() != pb.getTableId())
+                return pa.getTableId() < pb.getTableId() ? -1 : 1;
+            return pa.pageNumber() - pb.pageNumber();
+        }
+    };
+
+    /** A frame of the pool, holding one page. */
+    private static class Frame {
+        // null while the page is being read
+        volatile Page m_page;
+        // the copy an insert or delete replaced m_page with; its pinners
+        // unpin the frame with it
+        volatile Page m_replaced;
+        // the read of the page; null if the frame was created with its page
+        final FutureTask<Page> m_load;
+        // the scan ring that loaded the page, until someone else uses it
+        volatile BufferRing m_ring;
+        // number of pins; -1 once the frame has left the pool
+        final AtomicInteger m_pins = new AtomicInteger();
+        // held while the page is written back
+        final ReentrantLock m_latch = new ReentrantLock();
+
+        Frame(Page page, BufferRing ring) {
+            m_page = page;
+            m_load = null;
+            m_ring = ring;
+        }
+
+        /** Creates a frame whose page is read by running m_load. */
+        Frame(final PageId pid, BufferRing ring) {
+            m_load = new FutureTask<Page>(new Callable<Page>() {
+                public Page call() throws DbException {
+                    Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    if (p == null)
+                        throw new DbException("could not read page " + pid.pageNumber());
+                    return p;
+                }
+            });
+            m_ring = ring;
+        }
+
+        /**
+         * @return the page, waiting for it to be read if necessary
+         * @throws DbException if reading the page failed
+         */
+        Page page() throws DbException {
+            Page p = m_page;
+            if (p != null)
+                return p;
+            try {
+                return m_load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for a page to be read");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DbException)
+                    throw (DbException) cause;
+                throw new DbException("could not read page: " + cause);
+            }
+        }
+
+        /** @return the page's dirtier, or null if it is clean or being read */
+        TransactionId dirtier() {
+            Page p = m_page;
+            return p == null ? null : p.isDirty();
+        }
+
+        /** @return false if the frame has left the pool */
+        boolean pin() {
+            while (true) {
+                int n = m_pins.get();
+                if (n < 0)
+                    return false;
+                if (m_pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        void unpin() {
+            while (true) {
+                int n = m_pins.get();
+                if (n <= 0 || m_pins.compareAndSet(n, n - 1))
+                    return;
+            }
+        }
+
+        /** Takes the frame out of the pool if nobody has it pinned. */
+        boolean retire() {
+            return m_pins.compareAndSet(0, -1);
+        }
+    }
+
+    /**
+     * One independently latched part of the pool.  Methods that change the
+     * set of frames must be called with the partition's monitor held.
+     */
+    private class Partition {
+        final int m_capacity;
+        final ConcurrentHashMap<PageId, Frame> m_frames = new ConcurrentHashMap<PageId, Frame>();
+        final EvictionPolicy m_policy;
+
+        final AtomicLong m_hits = new AtomicLong();
+        final AtomicLong m_misses = new AtomicLong();
+        final AtomicLong m_evictions = new AtomicLong();
+        final AtomicLong m_prefetches = new AtomicLong();
+
+        // a page being written back is marked clean before it reaches the
+        // disk, so it is only evictable once its latch has been released
+        final EvictionPolicy.VictimFilter m_clean = new EvictionPolicy.VictimFilter() {
+            public boolean canEvict(PageId pid) {
+                Frame f = m_frames.get(pid);
+                return f == null || (f.m_pins.get() == 0 && f.m_page != null
+                        && f.m_page.isDirty() == null && !f.m_latch.isLocked());
+            }
+        };
+
+        final EvictionPolicy.VictimFilter m_unpinned = new EvictionPolicy.VictimFilter() {
+            public boolean canEvict(PageId pid) {
+                Frame f = m_frames.get(pid);
+                return f == null || (f.m_pins.get() == 0 && f.m_page != null);
+            }
+        };
+
+        Partition(int capacity, EvictionPolicy.Kind policy) {
+            m_capacity = capacity;
+            m_policy = policy.create(capacity);
+        }
+
+        void hit(PageId pid, Frame f, BufferRing ring) {
+            m_hits.incrementAndGet();
+            if (ring == null) {
+                if (f.m_ring != null)
+                    f.m_ring = null;
+                m_policy.pageAccessed(pid);
+            }
+        }
+
+        /**
+         * Reads the specified page into this partition unless it is there
+         * already.  The frame is reserved under the latch and the page is
+         * read after the latch has been released.
+         *
+         * @return the new frame, or null if the page was cached or is
+         *   being read by another thread
+         */
+        Frame loadIfAbsent(PageId pid, BufferRing ring, boolean pin, boolean prefetch)
+            throws DbException {
+            if (ring != null)
+                dropFromRing(ring.add(pid), ring);
+            Frame f;
+            while (true) {
+                Frame dirty;
+                synchronized (this) {
+                    if (m_frames.containsKey(pid))
+                        return null;
+                    dirty = makeRoom();
+                    if (dirty == null) {
+                        (prefetch ? m_prefetches : m_misses).incrementAndGet();
+                        f = new Frame(pid, ring);
+                        if (pin)
+                            f.m_pins.set(1);
+                        insert(pid, f);
+                        break;
+                    }
+                }
+                writeBackVictim(dirty);
+            }
+
+            f.m_load.run();
+            Page loaded;
+            try {
+                loaded = f.page();
+            } catch (DbException e) {
+                // let the next request try again
+                synchronized (this) {
+                    remove(pid, f);
+                }
+                throw e;
+            }
+            // an insert may have put its copy of the page in the frame
+            f.m_latch.lock();
+            try {
+                if (f.m_page == null) {
+                    f.m_page = loaded;
+                }
+            } finally {
+                f.m_latch.unlock();
+            }
+            return f;
+        }
+
+        void insert(PageId pid, Frame f) {
+            m_frames.put(pid, f);
+            m_policy.pageLoaded(pid);
+        }
+
+        void remove(PageId pid, Frame f) {
+            if (m_frames.remove(pid, f)) {
+                f.m_pins.set(-1);
+                m_policy.pageRemoved(pid);
+            }
+        }
+
+        /**
+         * Evicts clean pages until there is room for one more frame.  If
+         * every unpinned page is dirty, returns the one the eviction policy
+         * chose instead; the caller must release the latch, write it back
+         * and try again.
+         *
+         * @return null if there is room now, else a dirty page to write back
+         * @throws DbException if every page is pinned
+         */
+        Frame makeRoom() throws DbException {
+            while (m_frames.size() >= m_capacity) {
+                if (evictClean())
+                    continue;
+                PageId victim = m_policy.chooseVictim(m_unpinned);
+                if (victim == null)
+                    throw new DbException("all pages in the buffer pool are pinned");
+                Frame f = m_frames.get(victim);
+                if (f != null)
+                    return f;
+                m_policy.pageRemoved(victim);
+            }
+            return null;
+        }
+
+        /**
+         * Evicts a clean, unpinned page from this partition.
+         *
+         * @return false if there is no such page
+         */
+        boolean evictClean() {
+            while (true) {
+                PageId victim = m_policy.chooseVictim(m_clean);
+                if (victim == null)
+                    return false;
+                Frame f = m_frames.get(victim);
+                if (f == null) {
+                    m_policy.pageRemoved(victim);
+                } else if (f.retire()) {
+                    m_frames.remove(victim);
+                    m_policy.pageRemoved(victim);
+                    m_evictions.incrementAndGet();
+                    return true;
+                }
+                // otherwise the page was pinned after it was chosen; try again
+            }
+        }
+    }
+
+    private final int m_numpages;
+
+    private final Partition[] m_partitions;
+
+    private final LockManager m_lockManager = new LockManager();
+
+    private final BackgroundWriter m_writer = new BackgroundWriter(this);
+
+    private final AtomicLong m_pagesWritten = new AtomicLong();
+    private final AtomicLong m_writeCalls = new AtomicLong();
+    private final AtomicLong m_victimWrites = new AtomicLong();
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing them
+     * with the CLOCK algorithm.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, EvictionPolicy.Kind.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with one
+     * partition per 32 pages up to {@link #MAX_PARTITIONS}.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement algorithm used by evictPage
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind policy) {
+        this(numPages, policy, Math.max(1, Math.min(MAX_PARTITIONS, numPages / PAGES_PER_PARTITION)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the
+     * specified number of partitions.  The pages are divided evenly
+     * between the partitions, and each partition replaces its own pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement algorithm of each partition
+     * @param partitions the number of partitions, at most numPages
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind policy, int partitions) {
+        if (partitions <= 0 || partitions > numPages)
+            throw new IllegalArgumentException("cannot split " + numPages + " pages into "
+                    + partitions + " partitions");
         m_numpages = numPages;
-        ccmap = new ConcurrentHashMap<PageId, Page>();
+        m_partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            int capacity = numPages / partitions + (i < numPages % partitions ? 1 : 0);
+            m_partitions[i] = new Partition(capacity, policy);
+        }
     }
-    
+
     public static int getPageSize() {
       return pageSize;
     }
-    
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
     	BufferPool.pageSize = pageSize;
     }
 
+    private Partition partitionFor(PageId pid) {
+        return m_partitions[(pid.hashCode() & 0x7fffffff) % m_partitions.length];
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -68,16 +407,213 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	Page cur_page = ccmap.get(pid);
-    	if(cur_page == null){
-    		if(m_numpages <=ccmap.size()){
-    			throw new DbException("ccmap is full!");
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan.  Behaves
+     * like {@link #getPage(TransactionId, PageId, Permissions)}, except that
+     * a page that has to be read from disk occupies one of the ring's frames
+     * and the page it displaces from the ring is dropped from the pool, so
+     * the scan does not disturb the rest of the pool's working set.  Hits
+     * through a ring do not count as references for the eviction policy.
+     *
+     * @param ring the scan's private ring, or null for a normal access
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return fetch(tid, pid, perm, ring, false);
+    }
+
+    /**
+     * Retrieves the specified page like
+     * {@link #getPage(TransactionId, PageId, Permissions, BufferRing)} and
+     * pins it: the page is not evicted until every pin on it has been
+     * released with {@link #unpinPage}.
+     */
+    public  Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return fetch(tid, pid, perm, ring, true);
+    }
+
+    /**
+     * Releases a pin taken by {@link #pinPage}.
+     *
+     * @param page the page pinPage returned
+     */
+    public void unpinPage(Page page) {
+        Frame f = partitionFor(page.getId()).m_frames.get(page.getId());
+        if (f != null && (f.m_page == page || f.m_replaced == page)) {
+            f.unpin();
+        }
+    }
+
+    private Page fetch(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean pin)
+        throws TransactionAbortedException, DbException {
+    	if(tid != null){
+    		m_lockManager.acquire(tid, pid, perm);
+    	}
+    	Partition part = partitionFor(pid);
+    	while(true){
+    		Frame f = part.m_frames.get(pid);
+    		if(f == null){
+    			f = part.loadIfAbsent(pid, ring, pin, false);
+    			if(f != null){
+    				return f.m_page;
+    			}
+    		}
+    		else if(!pin || f.pin()){
+    			Page page;
+    			try{
+    				page = f.page();
+    			}catch(DbException e){
+    				if(pin){
+    					f.unpin();
+    				}
+    				throw e;
+    			}
+    			part.hit(pid, f, ring);
+    			return page;
     		}
-    		Catalog cur_catalog = Database.getCatalog();
-    		cur_page = cur_catalog.getDatabaseFile(pid.getTableId()).readPage(pid);
-    		ccmap.put(pid, cur_page);
+    		// the frame was evicted or replaced meanwhile; look again
     	}
-    	return cur_page;
+    }
+
+    /**
+     * Drops a page a scan ring no longer needs, if it still belongs to the
+     * ring and nobody has pinned or dirtied it.
+     */
+    private void dropFromRing(PageId displaced, BufferRing ring) {
+        if (displaced == null) {
+            return;
+        }
+        Partition part = partitionFor(displaced);
+        synchronized (part) {
+            Frame f = part.m_frames.get(displaced);
+            if (f == null || f.m_ring != ring) {
+                return;
+            }
+            f.m_ring = null;
+            if (f.m_page != null && f.m_page.isDirty() == null && f.retire()) {
+                part.m_frames.remove(displaced);
+                part.m_policy.pageRemoved(displaced);
+                part.m_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Loads the specified page into the pool ahead of a reader that is
+     * expected to ask for it soon.  Does nothing if the page is cached
+     * already.  No locks are acquired; the reader still calls getPage,
+     * which counts as a hit if the page arrived in time.
+     *
+     * @param ring the ring the reader's pages go through, or null
+     * @see ReadAhead
+     */
+    void prefetchPage(PageId pid, BufferRing ring) throws DbException {
+        Partition part = partitionFor(pid);
+        if (!part.m_frames.containsKey(pid)) {
+            part.loadIfAbsent(pid, ring, false, true);
+        }
+    }
+
+    /** @return true if the specified page is currently in the pool */
+    boolean isCached(PageId pid) {
+        return partitionFor(pid).m_frames.containsKey(pid);
+    }
+
+    /** @return the maximum number of pages this buffer pool holds */
+    public int getNumPages() {
+        return m_numpages;
+    }
+
+    /** @return the number of independently latched partitions */
+    public int getNumPartitions() {
+        return m_partitions.length;
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        long n = 0;
+        for (Partition p : m_partitions)
+            n += p.m_hits.get();
+        return n;
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        long n = 0;
+        for (Partition p : m_partitions)
+            n += p.m_misses.get();
+        return n;
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        long n = 0;
+        for (Partition p : m_partitions)
+            n += p.m_evictions.get();
+        return n;
+    }
+
+    /** @return the number of pages loaded by read-ahead */
+    public long getPrefetchCount() {
+        long n = 0;
+        for (Partition p : m_partitions)
+            n += p.m_prefetches.get();
+        return n;
+    }
+
+    /** @return the number of pages written back to disk */
+    public long getPagesWritten() {
+        return m_pagesWritten.get();
+    }
+
+    /**
+     * @return the number of writes that wrote pages back; smaller than
+     *   getPagesWritten() when adjacent pages were written together
+     */
+    public long getWriteCalls() {
+        return m_writeCalls.get();
+    }
+
+    /**
+     * @return the number of times a page had to be written back because
+     *   eviction found no clean page to replace
+     */
+    public long getVictimWriteCount() {
+        return m_victimWrites.get();
+    }
+
+    /** Reset all counters of this pool to zero. */
+    public void resetStats() {
+        for (Partition p : m_partitions) {
+            p.m_hits.set(0);
+            p.m_misses.set(0);
+            p.m_evictions.set(0);
+            p.m_prefetches.set(0);
+        }
+        m_pagesWritten.set(0);
+        m_writeCalls.set(0);
+        m_victimWrites.set(0);
+    }
+
+    /** @return the writer that trickles dirty pages of this pool to disk */
+    public BackgroundWriter getBackgroundWriter() {
+        return m_writer;
+    }
+
+    /** @return the fraction of this pool's pages that are dirty */
+    public double getDirtyRatio() {
+        int dirty = 0;
+        for (Partition part : m_partitions) {
+            for (Frame f : part.m_frames.values()) {
+                if (f.dirtier() != null)
+                    dirty++;
+            }
+        }
+        return (double) dirty / m_numpages;
     }
 
     /**
@@ -90,8 +626,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        m_lockManager.release(tid, pid);
     }
 
     /**
@@ -100,15 +635,20 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return m_lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Return true if the specified transaction has an exclusive lock on the
+     * specified page
+     */
+    boolean holdsExclusive(TransactionId tid, PageId p) {
+        return m_lockManager.holdsExclusive(tid, p);
     }
 
     /**
@@ -120,19 +660,94 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                commit(tid);
+            } else {
+                abort(tid);
+            }
+        } finally {
+            m_lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Forces the pages of a committing transaction to disk and logs the
+     * commit.  The committed pages become the before images of the next
+     * transaction that changes them.
+     */
+    private void commit(TransactionId tid) throws IOException {
+        flushPages(tid);
+        LogFile log = Database.getLogFile();
+        if (log.isLive(tid)) {
+            log.logCommit(tid);
+        }
+        for (PageId pid : m_lockManager.lockedPages(tid)) {
+            Frame f = partitionFor(pid).m_frames.get(pid);
+            if (f != null && f.m_page != null && m_lockManager.holdsExclusive(tid, pid)) {
+                f.m_page.setBeforeImage();
+                if (f.m_page instanceof HeapPage) {
+                    summarize((HeapPage) f.m_page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the zone map summary of a page a committing transaction
+     * changed, so that deletes narrow it.
+     */
+    private void summarize(HeapPage page) {
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        ZoneMap zoneMap = file instanceof HeapFile ? ((HeapFile) file).getZoneMap() : null;
+        if (zoneMap != null) {
+            zoneMap.update(page);
+        }
+    }
+
+    /**
+     * Drops the pages the specified transaction may have changed, so that
+     * the next reader gets them from disk.  If any of its changes were
+     * written back already, the log rolls them back.
+     */
+    private void abort(TransactionId tid) throws IOException {
+        List<Frame> dropped = new ArrayList<Frame>();
+        for (PageId pid : m_lockManager.lockedPages(tid)) {
+            if (!m_lockManager.holdsExclusive(tid, pid)) {
+                continue;
+            }
+            Partition part = partitionFor(pid);
+            synchronized (part) {
+                Frame f = part.m_frames.get(pid);
+                if (f != null) {
+                    part.remove(pid, f);
+                    dropped.add(f);
+                }
+            }
+        }
+        // wait for write-backs of these pages that are under way, so that
+        // they are logged before the log is rolled back
+        for (Frame f : dropped) {
+            f.m_latch.lock();
+            f.m_latch.unlock();
+        }
+        LogFile log = Database.getLogFile();
+        if (log.isLive(tid)) {
+            log.logAbort(tid);
+        }
     }
 
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
-     * acquire a write lock on the page the tuple is added to and any other 
-     * pages that are updated (Lock acquisition is not needed for lab2). 
+     * acquire a write lock on the page the tuple is added to and any other
+     * pages that are updated (Lock acquisition is not needed for lab2).
      * May block if the lock(s) cannot be acquired.
-     * 
+     *
      * Marks any pages that were dirtied by the operation as dirty by calling
-     * their markDirty bit, and updates cached versions of any pages that have 
-     * been dirtied so that future requests see up-to-date pages. 
+     * their markDirty bit, and updates cached versions of any pages that have
+     * been dirtied so that future requests see up-to-date pages.
+     *
+     * Adds an entry for the tuple to each secondary index on the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -140,8 +755,11 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, file.insertTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtied(tid, index.getFile().insertTuple(tid, index.entry(t)));
+        }
     }
 
     /**
@@ -150,27 +768,178 @@ public class BufferPool {
      * other pages that are updated. May block if the lock(s) cannot be acquired.
      *
      * Marks any pages that were dirtied by the operation as dirty by calling
-     * their markDirty bit, and updates cached versions of any pages that have 
-     * been dirtied so that future requests see up-to-date pages. 
+     * their markDirty bit, and updates cached versions of any pages that have
+     * been dirtied so that future requests see up-to-date pages.
+     *
+     * Removes the tuple's entry from each secondary index on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple has no record id");
+        }
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        // the entries name the tuple's record id, which the delete clears
+        List<Tuple> entries = new ArrayList<Tuple>(indexes.size());
+        for (SecondaryIndex index : indexes) {
+            entries.add(index.entry(t));
+        }
+        cacheDirtied(tid, file.deleteTuple(tid, t));
+        for (int i = 0; i < indexes.size(); i++) {
+            cacheDirtied(tid, indexes.get(i).getFile().deleteTuple(tid, entries.get(i)));
+        }
+    }
+
+    /**
+     * Marks the pages an insert or delete changed as dirtied by tid and
+     * makes sure they are the versions cached in the pool.  A frame that
+     * holds another copy of a page is pinned and gets the changed copy
+     * under its latch, so it is not taken from under a reader or a
+     * write-back.
+     */
+    private void cacheDirtied(TransactionId tid, List<Page> pages)
+        throws DbException, IOException {
+        for (Page p : pages) {
+            p.markDirty(true, tid);
+            PageId pid = p.getId();
+            Partition part = partitionFor(pid);
+            Frame f = part.m_frames.get(pid);
+            if (f != null && f.m_page == p) {
+                continue;
+            }
+            while (true) {
+                Frame dirty = null;
+                synchronized (part) {
+                    f = part.m_frames.get(pid);
+                    if (f != null && f.m_page == p) {
+                        break;
+                    }
+                    if (f == null) {
+                        dirty = part.makeRoom();
+                        if (dirty == null) {
+                            part.insert(pid, new Frame(p, null));
+                            break;
+                        }
+                    } else if (!f.pin()) {
+                        // the frame has just left the pool
+                        continue;
+                    }
+                }
+                if (dirty != null) {
+                    writeBackVictim(dirty);
+                    continue;
+                }
+                try {
+                    // the page may still be being read into the frame
+                    Page old = f.page();
+                    f.m_latch.lock();
+                    try {
+                        f.m_replaced = old;
+                        f.m_page = p;
+                    } finally {
+                        f.m_latch.unlock();
+                    }
+                } finally {
+                    f.unpin();
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes back a dirty page eviction has chosen because no clean page
+     * was left, and wakes the background writer, which should have kept
+     * clean pages available.
+     */
+    private void writeBackVictim(Frame f) throws DbException {
+        m_victimWrites.incrementAndGet();
+        m_writer.wakeUp();
+        try {
+            flush(f);
+        } catch (IOException e) {
+            throw new DbException("could not write back page " + f.m_page.getId() + ": " + e);
+        }
+    }
+
+    /**
+     * Flush all dirty pages to disk, and force the files they were
+     * written to.
+     */
+    public void flushAllPages() throws IOException {
+        writeSorted(dirtyFrames(), Integer.MAX_VALUE);
+        syncDataFiles();
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * Forces the files of pages whose logged writes may not have reached
+     * the disk, so that checkpoints no longer have to keep the log from
+     * those writes on.  Called by the background writer.
      */
-    public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    void syncDataFiles() throws IOException {
+        LogFile log = Database.getLogFile();
+        Map<PageId, Long> writes = log.unsyncedWrites();
+        if (writes.isEmpty()) {
+            return;
+        }
+        Set<Integer> tables = new HashSet<Integer>();
+        for (PageId pid : writes.keySet()) {
+            // a write logged before the snapshot may still be under way
+            Frame f = partitionFor(pid).m_frames.get(pid);
+            if (f != null) {
+                f.m_latch.lock();
+                f.m_latch.unlock();
+            }
+            tables.add(pid.getTableId());
+        }
+        Set<Integer> synced = new HashSet<Integer>();
+        for (int tableId : tables) {
+            if (forceFile(Database.getCatalog().getDatabaseFile(tableId))) {
+                synced.add(tableId);
+            }
+        }
+        log.writesSynced(writes, synced);
+    }
 
+    /**
+     * Forces the pages written to the specified file to disk.
+     *
+     * @return false if the file cannot be forced
+     */
+    static boolean forceFile(DbFile file) throws IOException {
+        if (file instanceof PageFile) {
+            ((PageFile) file).force();
+            return true;
+        }
+        return false;
+    }
+
+    /** @return the frames of all dirty pages, in no particular order */
+    private List<Frame> dirtyFrames() {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (Partition part : m_partitions) {
+            for (Frame f : part.m_frames.values()) {
+                if (f.dirtier() != null) {
+                    frames.add(f);
+                }
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Writes back up to max dirty pages, in the order they are stored on
+     * disk.  Called by the background writer.
+     *
+     * @return the number of pages written
+     */
+    int writeDirtyPages(int max) throws IOException {
+        return writeSorted(dirtyFrames(), max);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -178,34 +947,170 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+    public void discardPage(PageId pid) {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Frame f = part.m_frames.get(pid);
+            if (f != null) {
+                part.remove(pid, f);
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    private  void flushPage(PageId pid) throws IOException {
+        Frame f = partitionFor(pid).m_frames.get(pid);
+        if (f != null) {
+            flush(f);
+        }
+    }
+
+    /**
+     * Writes the page held by the specified frame back to disk if it is
+     * dirty.
+     */
+    private void flush(Frame f) throws IOException {
+        writeRun(Collections.singletonList(f));
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public  void flushPages(TransactionId tid) throws IOException {
+        // a transaction can only have dirtied pages it holds an exclusive
+        // lock on.  Clean ones are included too: the background writer may
+        // be writing them, and writeRun waits for it.
+        List<Frame> frames = new ArrayList<Frame>();
+        for (PageId pid : m_lockManager.lockedPages(tid)) {
+            Frame f = partitionFor(pid).m_frames.get(pid);
+            if (f != null && f.m_page != null && m_lockManager.holdsExclusive(tid, pid)) {
+                frames.add(f);
+            }
+        }
+        writeSorted(frames, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sorts the specified frames into file order and writes back the dirty
+     * pages among the first max of them, coalescing pages that are next to
+     * each other in the same file.
+     *
+     * @return the number of pages written
+     */
+    private int writeSorted(List<Frame> frames, int max) throws IOException {
+        Collections.sort(frames, FILE_ORDER);
+        if (frames.size() > max) {
+            frames = frames.subList(0, max);
+        }
+        int written = 0;
+        int start = 0;
+        for (int i = 1; i <= frames.size(); i++) {
+            if (i == frames.size() || i - start == MAX_WRITE_RUN
+                    || !adjacent(frames.get(i - 1), frames.get(i))) {
+                written += writeRun(frames.subList(start, i));
+                start = i;
+            }
+        }
+        return written;
+    }
+
+    private static boolean adjacent(Frame a, Frame b) {
+        PageId pa = a.m_page.getId();
+        PageId pb = b.m_page.getId();
+        return pa.getTableId() == pb.getTableId() && pb.pageNumber() == pa.pageNumber() + 1;
+    }
+
+    /**
+     * Writes back the dirty pages among the specified frames, which must be
+     * in file order.  The frames are latched for the whole write, so a
+     * page is written by one thread at a time and is not evicted before
+     * it is on disk.
+     * <p>
+     * Each page is marked clean before its image is taken: a change made
+     * while it is written dirties it again.  An UPDATE record with the
+     * page's before image is logged for the transaction that dirtied it,
+     * and the log is forced before any page is written.
+     *
+     * @return the number of pages written
+     */
+    private int writeRun(List<Frame> run) throws IOException {
+        for (Frame f : run) {
+            f.m_latch.lock();
+        }
+        try {
+            LogFile log = Database.getLogFile();
+            List<Page> pages = new ArrayList<Page>();
+            List<TransactionId> dirtiers = new ArrayList<TransactionId>();
+            List<byte[]> data = new ArrayList<byte[]>();
+            for (Frame f : run) {
+                TransactionId dirtier = f.dirtier();
+                // frames dropped by an abort have left the pool
+                if (dirtier == null || f.m_pins.get() < 0) {
+                    continue;
+                }
+                Page p = f.m_page;
+                p.markDirty(false, null);
+                synchronized (log) {
+                    if (!log.isLive(dirtier)) {
+                        log.logXactionBegin(dirtier);
+                    }
+                    log.logWrite(dirtier, p.getBeforeImage(), p);
+                }
+                pages.add(p);
+                dirtiers.add(dirtier);
+                data.add(p.getPageData());
+            }
+            if (pages.isEmpty()) {
+                return 0;
+            }
+            try {
+                log.forceWrites();
+                write(pages, data);
+            } catch (IOException e) {
+                for (int i = 0; i < pages.size(); i++) {
+                    pages.get(i).markDirty(true, dirtiers.get(i));
+                }
+                throw e;
+            }
+            m_pagesWritten.addAndGet(pages.size());
+            return pages.size();
+        } finally {
+            for (Frame f : run) {
+                f.m_latch.unlock();
+            }
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Writes the specified page images, in file order, with one gathered
+     * write per group of adjacent HeapFile pages.
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private void write(List<Page> pages, List<byte[]> data) throws IOException {
+        int start = 0;
+        for (int i = 1; i <= pages.size(); i++) {
+            PageId first = pages.get(start).getId();
+            if (i < pages.size()) {
+                PageId next = pages.get(i).getId();
+                if (next.getTableId() == first.getTableId()
+                        && next.pageNumber() == first.pageNumber() + (i - start)) {
+                    continue;
+                }
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writePages(first.pageNumber(),
+                        data.subList(start, i).toArray(new byte[i - start][]));
+                m_writeCalls.incrementAndGet();
+            } else {
+                for (int j = start; j < i; j++) {
+                    file.writePage(pages.get(j));
+                    m_writeCalls.incrementAndGet();
+                }
+            }
+            start = i;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * BufferRing is a small private set of buffer pool frames used by a
+ * sequential scan (the "buffer access strategy" of PostgreSQL).  Pages read
+ * on behalf of the ring are recycled by the ring itself once it is full,
+ * so a large scan streams through a handful of frames instead of pushing
+ * every other page out of the BufferPool.
+ * <p>
+ * A page loaded through a ring that is later requested by a normal
+ * getPage call is adopted by the pool and no longer recycled by the ring.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Ring size used by scans that do not ask for a specific size. */
+    public static final int DEFAULT_SIZE = 8;
+
+    private final PageId[] m_slots;
+    private int m_next;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param size the number of frames the ring may occupy; must be positive
+     */
+    public BufferRing(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("ring size must be positive");
+        m_slots = new PageId[size];
+        m_next = 0;
+    }
+
+    /** @return the number of frames the ring may occupy */
+    public int size() {
+        return m_slots.length;
+    }
+
+    /**
+     * Records that the specified page was loaded through this ring.
+     *
+     * @return the page that previously occupied the reused slot, which the
+     *   caller should recycle, or null if the ring was not full yet
+     */
+    synchronized PageId add(PageId pid) {
+        PageId displaced = m_slots[m_next];
+        m_slots[m_next] = pid;
+        m_next = (m_next + 1) % m_slots.length;
+        return displaced;
+    }
+}
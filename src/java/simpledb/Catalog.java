@@ -38,6 +38,9 @@ public class Catalog {
 	private HashMap<Table, DbFile> m_tfiles;
     //map file to table (by file ID Integer)
 	private HashMap<Integer, Table> m_ftables;
+    //map table ID to the secondary indexes on its fields; read by
+    //inserts and deletes without a lock
+    private ConcurrentHashMap<Integer, List<SecondaryIndex>> m_indexes;
 	
 	/**
      * Constructor.
@@ -46,6 +49,7 @@ public class Catalog {
     public Catalog() {
         m_tfiles = new HashMap<Table, DbFile>();
         m_ftables = new HashMap<Integer, Table>();
+        m_indexes = new ConcurrentHashMap<Integer, List<SecondaryIndex>>();
     }
 
 
@@ -90,7 +94,7 @@ public class Catalog {
     public int getTableId(String name) throws NoSuchElementException {
     	for (Table key : m_tfiles.keySet())
     	{
-    		if(key.m_name == name)
+    		if(key.m_name.equals(name))
     		{
     			return m_tfiles.get(key).getId();
     		}
@@ -151,15 +155,64 @@ public class Catalog {
     	throw new NoSuchElementException( "DbFile with ID " + id + "does not exist");
     }
     
+    /**
+     * Add a secondary index to the catalog.  The index's file is added as a
+     * table named after the index, so its pages can be read through the
+     * BufferPool.  If the field already has an index, it is replaced by
+     * this one.  The index must already hold an entry for each tuple of the
+     * table, see {@link SecondaryIndex#build}.
+     */
+    public synchronized void addIndex(SecondaryIndex index) {
+        assert(index != null);
+        addTable(index.getFile(), index.getName());
+        List<SecondaryIndex> indexes = new ArrayList<SecondaryIndex>(getIndexes(index.getTableId()));
+        SecondaryIndex old = getIndex(index.getTableId(), index.getField());
+        if (old != null)
+            indexes.remove(old);
+        indexes.add(index);
+        // readers may hold the old list, so it is replaced instead of changed
+        m_indexes.put(index.getTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * @return the secondary indexes on fields of the specified table, an
+     *   empty list if there are none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> indexes = m_indexes.get(tableid);
+        return indexes == null ? Collections.<SecondaryIndex>emptyList() : indexes;
+    }
+
+    /**
+     * @return the secondary index on the specified field of a table, or
+     *   null if the field has none
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
     	m_tfiles.clear();
     	m_ftables.clear();
+        m_indexes.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The tables keep zone maps, see {@link HeapFile#setZoneMapped}, and
+     * Bloom filters of the fields annotated "bloom", see
+     * {@link HeapFile#setBloomFilters}.
+     * Besides tables, the file may define secondary indexes with lines of the
+     * format "index name on table (field)", after the line of their table.
+     * The line may end with "using hash" for a HashFile index instead of a
+     * BTreeFile.  An index is stored in name.idx next to the tables, and is
+     * built from its table the first time it is loaded.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -169,6 +222,8 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
+                if (loadIndex(line, baseFolder))
+                    continue;
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -177,6 +232,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> bloomFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -188,11 +244,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("bloom"))
+                            bloomFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -201,6 +259,13 @@ public class Catalog {
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                tabHf.setZoneMapped(true);
+                if (!bloomFields.isEmpty()) {
+                    int[] fieldsAr = new int[bloomFields.size()];
+                    for (int i = 0; i < fieldsAr.length; i++)
+                        fieldsAr[i] = bloomFields.get(i);
+                    tabHf.setBloomFilters(fieldsAr);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -210,7 +275,50 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Adds the index a catalog line defines, building it if its file is new.
+     * @return false if the line does not define an index
+     */
+    private boolean loadIndex(String line, String baseFolder) throws IOException {
+        //assume line is of the format index name on table (field) [using btree|hash]
+        String[] els = line.substring(0, line.indexOf("(")).trim().split("\\s+");
+        if (els.length != 4 || !els[0].equals("index") || !els[2].equals("on"))
+            return false;
+        String name = els[1];
+        int tableid = getTableId(els[3]);
+        TupleDesc td = getTupleDesc(tableid);
+        int field = td.fieldNameToIndex(line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim());
+        String using = line.substring(line.indexOf(")") + 1).trim();
+        File f = new File(baseFolder + "/" + name + ".idx");
+        boolean isNew = f.length() == 0;
+        IndexFile file;
+        if (using.equals("") || using.equals("using btree"))
+            file = new BTreeFile(f, 0, SecondaryIndex.entryDesc(td, field));
+        else if (using.equals("using hash"))
+            file = new HashFile(f, 0, SecondaryIndex.entryDesc(td, field));
+        else
+            throw new NoSuchElementException("unknown index kind " + using);
+        SecondaryIndex index = new SecondaryIndex(name, tableid, field, file);
+        addIndex(index);
+        if (isNew) {
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (DbException e) {
+                throw new IOException("could not build index " + name + ": " + e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException("could not build index " + name + ": " + e.getMessage());
+            }
         }
+        System.out.println("Added index : " + index);
+        return true;
     }
 }
 
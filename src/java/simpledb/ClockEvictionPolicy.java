@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement.  Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on every hit.  The clock
+ * hand sweeps the array, clearing reference bits, and picks the first page
+ * whose bit is already clear.  Hits and loads are O(1).
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private PageId[] m_frames;
+    private boolean[] m_referenced;
+    private final HashMap<PageId, Integer> m_index;
+    private final ArrayList<Integer> m_free;
+    private int m_hand;
+
+    /**
+     * @param capacity the number of pages the BufferPool can hold
+     */
+    public ClockEvictionPolicy(int capacity) {
+        int n = Math.max(1, capacity);
+        m_frames = new PageId[n];
+        m_referenced = new boolean[n];
+        m_index = new HashMap<PageId, Integer>();
+        m_free = new ArrayList<Integer>();
+        for (int i = n - 1; i >= 0; i--)
+            m_free.add(i);
+        m_hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = m_index.get(pid);
+        if (slot == null) {
+            if (m_free.isEmpty())
+                grow();
+            slot = m_free.remove(m_free.size() - 1);
+            m_frames[slot] = pid;
+            m_index.put(pid, slot);
+        }
+        m_referenced[slot] = true;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = m_index.get(pid);
+        if (slot != null)
+            m_referenced[slot] = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = m_index.remove(pid);
+        if (slot != null) {
+            m_frames[slot] = null;
+            m_referenced[slot] = false;
+            m_free.add(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(VictimFilter filter) {
+        // two full sweeps: the first may only clear reference bits
+        for (int steps = 0; steps < 2 * m_frames.length; steps++) {
+            int slot = m_hand;
+            m_hand = (m_hand + 1) % m_frames.length;
+            PageId pid = m_frames[slot];
+            if (pid == null)
+                continue;
+            if (m_referenced[slot]) {
+                m_referenced[slot] = false;
+                continue;
+            }
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    // the pool may briefly overshoot its capacity while loads race
+    private void grow() {
+        int n = m_frames.length;
+        m_frames = Arrays.copyOf(m_frames, n * 2);
+        m_referenced = Arrays.copyOf(m_referenced, n * 2);
+        for (int i = n * 2 - 1; i >= n; i--)
+            m_free.add(i);
+    }
+}
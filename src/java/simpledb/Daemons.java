@@ -0,0 +1,32 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemons creates the background thread pools of the database.  Their
+ * threads are daemons, so they do not keep the JVM running, and are named
+ * after the pool so they can be told apart in a thread dump.
+ */
+class Daemons {
+
+    private Daemons() {
+    }
+
+    /**
+     * Returns a cached thread pool of daemon threads named
+     * "simpledb-<i>name</i>-<i>n</i>".  Threads are created as tasks need
+     * them and exit after they have been idle for a while.
+     */
+    static ExecutorService newPool(final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-" + name + "-" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+}
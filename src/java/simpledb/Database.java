@@ -33,6 +33,7 @@ public class Database {
         }
         _logfile = tmp;
         // startControllerThread();
+        _bufferpool.getBackgroundWriter().start();
     }
 
     /** Return the log file of the static Database instance */
@@ -55,11 +56,20 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the specified
+     * one and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
+        _instance.get()._bufferpool.getBackgroundWriter().stop();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -70,12 +80,13 @@ public class Database {
             e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
+        pool.getBackgroundWriter().start();
         return _instance.get()._bufferpool;
     }
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._bufferpool.getBackgroundWriter().stop();
     }
 
 }
@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * Serves batches from any DbIterator by pulling its tuples one at a time,
+ * so batch consumers can sit on top of operators that only implement the
+ * tuple-at-a-time interface.  The wrapped iterator is opened and closed by
+ * its owner as usual.
+ */
+public class DbIteratorBatchAdapter implements BatchIterator {
+
+    private final DbIterator m_child;
+    private final TupleBatch m_batch;
+
+    /**
+     * @param child the iterator to pull tuples from
+     * @param capacity the maximum number of rows per batch
+     */
+    public DbIteratorBatchAdapter(DbIterator child, int capacity) {
+        m_child = child;
+        m_batch = new TupleBatch(child.getTupleDesc(), capacity);
+    }
+
+    public DbIteratorBatchAdapter(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        m_batch.clear();
+        while (!m_batch.isFull() && m_child.hasNext())
+            m_batch.addTuple(m_child.next());
+        return m_batch.size() == 0 ? null : m_batch;
+    }
+}
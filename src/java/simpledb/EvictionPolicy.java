@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should give up
+ * when it needs room for a new one.  The BufferPool reports every page it
+ * loads, hits and drops; the policy keeps whatever bookkeeping it needs and
+ * proposes a victim on request.
+ * <p>
+ * Implementations must be safe to call from several threads at once, since
+ * buffer pool hits are not serialized.
+ *
+ * @see BufferPool#evictPage
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Lets the BufferPool veto candidates (e.g. dirty pages) while the
+     * policy walks its victim order.
+     */
+    public interface VictimFilter {
+        /** @return true if the specified page may be evicted right now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /** The page replacement algorithms a BufferPool can be built with. */
+    public enum Kind {
+        CLOCK {
+            @Override
+            public EvictionPolicy create(int capacity) {
+                return new ClockEvictionPolicy(capacity);
+            }
+        }, LRU_K {
+            @Override
+            public EvictionPolicy create(int capacity) {
+                return new LruKEvictionPolicy(capacity, LruKEvictionPolicy.DEFAULT_K);
+            }
+        }, TWO_Q {
+            @Override
+            public EvictionPolicy create(int capacity) {
+                return new TwoQueueEvictionPolicy(capacity);
+            }
+        };
+
+        /**
+         * @return a new, empty policy for a pool holding up to capacity pages
+         */
+        public abstract EvictionPolicy create(int capacity);
+    }
+
+    /** Called after the specified page has been read into the pool. */
+    public void pageLoaded(PageId pid);
+
+    /** Called on every buffer pool hit on the specified page. */
+    public void pageAccessed(PageId pid);
+
+    /** Called after the specified page has left the pool. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Proposes the next page to evict.  The page is not removed from the
+     * policy; the caller reports that with {@link #pageRemoved} once the
+     * page is actually gone.
+     *
+     * @param filter candidates rejected by the filter are skipped
+     * @return the victim, or null if no resident page passes the filter
+     */
+    public PageId chooseVictim(VictimFilter filter);
+}
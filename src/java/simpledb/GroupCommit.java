@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * GroupCommit forces the log once for a batch of commits.
+ * <p>
+ * A committing transaction appends its COMMIT record, takes a ticket, and
+ * waits in {@link #await} until a force that started after its record was
+ * written has finished.  The BufferPool does the same with the UPDATE
+ * records of the pages it is about to write back.  One flusher thread does
+ * the forcing: each force covers every record appended before it began,
+ * so requests that arrive while a force is under way are made durable
+ * together by the next one.  With a delay set, the flusher waits that long after the first
+ * commit of a batch before forcing, to let the batch grow.
+ * <p>
+ * The flusher starts with the first commit and exits after it has been
+ * idle for a while.
+ */
+class GroupCommit {
+
+    // how long an idle flusher waits for work before it exits
+    private static final long IDLE_MILLIS = 1000;
+
+    private final LogFile m_log;
+
+    // all guarded by this
+    private long m_requested;
+    private long m_durable;
+    private long m_failedThrough;
+    private IOException m_failure;
+    private long m_delayNanos;
+    private Thread m_thread;
+    private long m_forces;
+
+    GroupCommit(LogFile log) {
+        m_log = log;
+    }
+
+    /** Sets how long the flusher waits for a batch to grow. */
+    synchronized void setDelay(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("bad delay " + micros);
+        m_delayNanos = micros * 1000;
+    }
+
+    synchronized long getDelay() {
+        return m_delayNanos / 1000;
+    }
+
+    /** @return the number of times the flusher has forced the log */
+    synchronized long getForceCount() {
+        return m_forces;
+    }
+
+    /**
+     * Waits until the records written before the specified ticket was
+     * taken are on disk.
+     *
+     * @throws IOException if forcing the log failed
+     */
+    synchronized void await(long ticket) throws IOException {
+        if (ticket > m_requested) {
+            m_requested = ticket;
+            if (m_thread == null) {
+                m_thread = new Thread("simpledb-group-commit") {
+                    public void run() {
+                        flushLoop();
+                    }
+                };
+                m_thread.setDaemon(true);
+                m_thread.start();
+            }
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (m_durable < ticket) {
+            if (ticket <= m_failedThrough)
+                throw new IOException("could not force the log: " + m_failure.getMessage());
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // the commit record is written; the caller has to learn
+                // whether it is durable
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long delay;
+            synchronized (this) {
+                if (settled() >= m_requested) {
+                    try {
+                        wait(IDLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        // exit below if there is nothing to do
+                    }
+                    if (settled() >= m_requested) {
+                        m_thread = null;
+                        return;
+                    }
+                }
+                delay = m_delayNanos;
+            }
+            if (delay > 0) {
+                long end = System.nanoTime() + delay;
+                long left;
+                while ((left = end - System.nanoTime()) > 0) {
+                    try {
+                        Thread.sleep(left / 1000000, (int) (left % 1000000));
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            flush();
+        }
+    }
+
+    // the last ticket that is durable or has failed; guarded by this
+    private long settled() {
+        return Math.max(m_durable, m_failedThrough);
+    }
+
+    /** Forces every record written so far and wakes the waiters. */
+    private void flush() {
+        long target = 0;
+        try {
+            while (true) {
+                FileChannel ch;
+                synchronized (m_log) {
+                    target = m_log.forceRequests();
+                    ch = m_log.channel();
+                }
+                try {
+                    ch.force(true);
+                    break;
+                } catch (ClosedChannelException e) {
+                    // the log was truncated into a new file; force that one
+                }
+            }
+            synchronized (this) {
+                m_forces++;
+                if (target > m_durable)
+                    m_durable = target;
+                notifyAll();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                m_failure = e;
+                m_failedThrough = target;
+                notifyAll();
+            }
+        }
+    }
+}
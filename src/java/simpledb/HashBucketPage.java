@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashBucketPage holds tuples of a HashFile whose keys hash to the same
+ * bucket.  A bucket is a primary page, which the directory points to, and
+ * the overflow pages chained after it when its tuples cannot be split
+ * between two buckets.  Like in a BTreeLeafPage, the record id of a tuple
+ * is its position on the page.
+ * <p>
+ * The page is the local depth of the bucket, the page number of the next
+ * page of the bucket (0 for none), the integer number of tuples and the
+ * tuples.
+ */
+public class HashBucketPage extends HashPage {
+
+    private final TupleDesc m_td;
+    private int m_depth;
+    private int m_next;
+    private final ArrayList<Tuple> m_tuples = new ArrayList<Tuple>();
+
+    HashBucketPage(HashPageId id, DataInputStream in, int keyField) throws IOException {
+        super(id, keyField);
+        m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+        m_depth = in.readInt();
+        m_next = in.readInt();
+        int n = in.readInt();
+        if (n < 0 || n > getMaxTuples())
+            throw new IOException("bucket page " + id.pageNumber() + " has " + n + " tuples");
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(m_td);
+                for (int j = 0; j < m_td.numFields(); j++)
+                    t.setField(j, m_td.getFieldType(j).parse(in));
+                m_tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad tuple on bucket page " + id.pageNumber());
+        }
+    }
+
+    public int getCategory() {
+        return BUCKET;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_depth);
+        out.writeInt(m_next);
+        out.writeInt(m_tuples.size());
+        for (Tuple t : m_tuples) {
+            for (int j = 0; j < m_td.numFields(); j++)
+                t.getField(j).serialize(out);
+        }
+    }
+
+    /** @return the most tuples a page holds */
+    public int getMaxTuples() {
+        // kind, depth, next page and tuple count
+        int fixed = 1 + 4 + 4 + 4;
+        return (BufferPool.getPageSize() - fixed) / m_td.getSize();
+    }
+
+    /**
+     * @return the local depth of the bucket, the number of bits of a hash
+     *   value that all its keys share
+     */
+    public synchronized int getLocalDepth() {
+        return m_depth;
+    }
+
+    public synchronized void setLocalDepth(int depth) {
+        m_depth = depth;
+    }
+
+    /** @return the page number of the next page of the bucket, 0 if none */
+    public synchronized int getNext() {
+        return m_next;
+    }
+
+    public synchronized void setNext(int next) {
+        m_next = next;
+    }
+
+    public synchronized int getNumTuples() {
+        return m_tuples.size();
+    }
+
+    public synchronized int getNumEmptySlots() {
+        return getMaxTuples() - m_tuples.size();
+    }
+
+    /** @return a copy of tuple i, with its record id set */
+    public synchronized Tuple getTuple(int i) {
+        Tuple src = m_tuples.get(i);
+        Tuple t = new Tuple(m_td);
+        for (int j = 0; j < m_td.numFields(); j++)
+            t.setField(j, src.getField(j));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the key of tuple i */
+    public synchronized Field getKey(int i) {
+        return m_tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * Adds a tuple to the end of the page and sets its record id.
+     *
+     * @throws DbException if the page is full or the tuple does not fit
+     *   the table
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        if (m_tuples.size() >= getMaxTuples())
+            throw new DbException("bucket page " + pid.pageNumber() + " is full");
+        Tuple copy = new Tuple(m_td);
+        for (int j = 0; j < m_td.numFields(); j++)
+            copy.setField(j, t.getField(j));
+        m_tuples.add(copy);
+        t.setRecordId(new RecordId(pid, m_tuples.size() - 1));
+    }
+
+    /**
+     * Removes the specified tuple, see {@link #indexOf}.
+     *
+     * @throws DbException if the page does not hold the tuple
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        int i = indexOf(t);
+        if (i < 0)
+            throw new DbException("tuple is not on bucket page " + pid.pageNumber());
+        m_tuples.remove(i);
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the position of the specified tuple: the one at its record
+     *   id's position if it is still there, or else the first equal tuple;
+     *   -1 if the page does not hold the tuple
+     */
+    public synchronized int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int i = rid != null && pid.equals(rid.getPageId()) ? rid.tupleno() : -1;
+        if (i >= 0 && i < m_tuples.size() && sameFields(m_tuples.get(i), t))
+            return i;
+        for (int k = 0; k < m_tuples.size(); k++) {
+            if (sameFields(m_tuples.get(k), t))
+                return k;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < m_td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Removes and returns all the tuples of the page. */
+    public synchronized List<Tuple> removeAll() {
+        List<Tuple> tuples = new ArrayList<Tuple>(m_tuples);
+        m_tuples.clear();
+        return tuples;
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage holds a part of the directory of a HashFile: the page
+ * numbers of the buckets of a run of hash values.
+ *
+ * @see HashHeaderPage
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] m_entries;
+
+    HashDirectoryPage(HashPageId id, DataInputStream in) throws IOException {
+        super(id, -1);
+        m_entries = new int[getNumEntries()];
+        for (int i = 0; i < m_entries.length; i++)
+            m_entries[i] = in.readInt();
+    }
+
+    public int getCategory() {
+        return DIRECTORY;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        for (int e : m_entries)
+            out.writeInt(e);
+    }
+
+    /** @return the number of entries a directory page holds */
+    public static int getNumEntries() {
+        return (BufferPool.getPageSize() - 1) / 4;
+    }
+
+    /** @return the page number of the bucket of entry i */
+    public synchronized int getBucket(int i) {
+        return m_entries[i];
+    }
+
+    public synchronized void setBucket(int i, int pgNo) {
+        m_entries[i] = pgNo;
+    }
+}
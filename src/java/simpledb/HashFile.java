@@ -0,0 +1,405 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores tuples in an
+ * extendible hash table on one of their fields, so that the tuples with a
+ * key are found by reading the directory page and the bucket the key
+ * hashes to.
+ * <p>
+ * Page 0 of the file is a {@link HashHeaderPage} holding the global depth
+ * d of the directory, whose 2^d entries are kept in {@link
+ * HashDirectoryPage}s.  The low d bits of a key's hash value pick the
+ * entry that points to the key's {@link HashBucketPage}.  A bucket of
+ * local depth l &lt; d is pointed to by the 2^(d-l) entries that share
+ * its low l bits.  When a bucket fills up it is split in two on bit l of
+ * the hash values, doubling the directory first if l = d.  A bucket whose
+ * tuples all have the same hash value cannot be split, and gets overflow
+ * pages chained after it instead; so does any bucket once the directory
+ * has as many entries as the header page can locate.  Buckets are not
+ * merged when tuples are deleted.
+ * <p>
+ * Pages are read and changed through the BufferPool: lookups take shared
+ * locks, and an insert or delete takes exclusive locks on the pages it
+ * changes.
+ *
+ * @see HashPage
+ */
+public class HashFile implements IndexFile, PageFile {
+
+    private final File m_file;
+    private final TupleDesc m_td;
+    private final int m_keyField;
+
+    private final PageChannel m_pages;
+
+    private volatile boolean m_initialized;
+
+    /**
+     * Constructs a hash file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this
+     *   hash file
+     * @param keyField the field the tuples are hashed on
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("bad key field " + keyField);
+        m_file = f;
+        m_keyField = keyField;
+        m_td = td;
+        m_pages = new PageChannel(f);
+    }
+
+    /** @return the File backing this HashFile on disk */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, the hash code of
+     * its file's absolute name, like HeapFile.
+     */
+    public int getId() {
+        return m_file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the index of the field the tuples are hashed on */
+    public int keyField() {
+        return m_keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HashPageId))
+            throw new IllegalArgumentException("not a hash page: " + pid);
+        byte[] b = new byte[BufferPool.getPageSize()];
+        try {
+            ensureInitialized();
+            m_pages.read(pid.pageNumber(), b);
+            return HashPage.createPage((HashPageId) pid, b, m_keyField);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        m_pages.write(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see PageFile.java for javadocs
+    public void force() throws IOException {
+        m_pages.force();
+    }
+
+    /**
+     * Closes the file.  It is reopened if it is accessed again.
+     */
+    public void close() throws IOException {
+        m_pages.close();
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, including the header
+     * and directory pages.
+     */
+    public int numPages() {
+        return (int) (m_file.length() / BufferPool.getPageSize());
+    }
+
+    // an empty file gets a directory of one entry and an empty bucket
+    private void ensureInitialized() throws IOException {
+        if (m_initialized)
+            return;
+        synchronized (this) {
+            if (m_file.length() == 0)
+                initialize();
+            m_initialized = true;
+        }
+    }
+
+    private void initialize() throws IOException {
+        byte[] header = HashPage.createEmptyPageData(HashPage.HEADER);
+        ByteBuffer.wrap(header, 1, 12).putInt(0).putInt(1).putInt(1);
+        m_pages.write(0, header);
+        byte[] dir = HashPage.createEmptyPageData(HashPage.DIRECTORY);
+        ByteBuffer.wrap(dir, 1, 4).putInt(2);
+        m_pages.write(1, dir);
+        m_pages.write(2, HashPage.createEmptyPageData(HashPage.BUCKET));
+    }
+
+    /**
+     * @return the hash value of a key; the bits of the field's hash code
+     *   are mixed, so that the low bits the directory uses depend on all
+     *   of them
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Fetches a page through the BufferPool, unless the current operation
+     * has changed it already, in which case its changed version is in
+     * dirty.
+     *
+     * @param dirty the pages the operation has changed, or null
+     */
+    HashPage getPage(TransactionId tid, Map<PageId, Page> dirty, int pgNo,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        HashPageId pid = new HashPageId(getId(), pgNo);
+        if (dirty != null) {
+            Page p = dirty.get(pid);
+            if (p != null)
+                return (HashPage) p;
+        }
+        return (HashPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    private HashHeaderPage getHeader(TransactionId tid, Map<PageId, Page> dirty,
+            Permissions perm) throws DbException, TransactionAbortedException, IOException {
+        ensureInitialized();
+        return (HashHeaderPage) getPage(tid, dirty, 0, perm);
+    }
+
+    // the directory page that holds the specified entry
+    private HashDirectoryPage getDirectoryPage(TransactionId tid, Map<PageId, Page> dirty,
+            HashHeaderPage header, int entry, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        int pgNo = header.getDirectoryPage(entry / HashDirectoryPage.getNumEntries());
+        return (HashDirectoryPage) getPage(tid, dirty, pgNo, perm);
+    }
+
+    /**
+     * Finds the first page of the bucket the specified key hashes to,
+     * taking shared locks on the header and the directory page.
+     *
+     * @param perm the permissions to fetch the bucket with
+     */
+    HashBucketPage findBucket(TransactionId tid, Map<PageId, Page> dirty, Field key,
+            Permissions perm) throws DbException, TransactionAbortedException, IOException {
+        HashHeaderPage header = getHeader(tid, dirty, Permissions.READ_ONLY);
+        int entry = hash(key) & ((1 << header.getDepth()) - 1);
+        HashDirectoryPage dir = getDirectoryPage(tid, dirty, header, entry, Permissions.READ_ONLY);
+        int pgNo = dir.getBucket(entry % HashDirectoryPage.getNumEntries());
+        return (HashBucketPage) getPage(tid, dirty, pgNo, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        int h = hash(t.getField(m_keyField));
+        while (true) {
+            HashHeaderPage header = getHeader(tid, dirty, Permissions.READ_ONLY);
+            HashBucketPage bucket = findBucket(tid, dirty, t.getField(m_keyField),
+                    Permissions.READ_WRITE);
+            HashBucketPage p = bucket;
+            boolean sameHash = true;
+            while (true) {
+                if (p.getNumEmptySlots() > 0) {
+                    p.insertTuple(t);
+                    dirty.put(p.getId(), p);
+                    return new ArrayList<Page>(dirty.values());
+                }
+                for (int i = 0; i < p.getNumTuples() && sameHash; i++)
+                    sameHash = hash(p.getKey(i)) == h;
+                if (p.getNext() == 0)
+                    break;
+                p = (HashBucketPage) getPage(tid, dirty, p.getNext(), Permissions.READ_WRITE);
+            }
+            // a split cannot separate tuples with the same hash value
+            if (sameHash || !canSplit(header, bucket)) {
+                HashBucketPage overflow = appendBucket(tid, dirty, bucket.getLocalDepth());
+                p.setNext(overflow.getId().pageNumber());
+                dirty.put(p.getId(), p);
+                overflow.insertTuple(t);
+                return new ArrayList<Page>(dirty.values());
+            }
+            split(tid, dirty, bucket, h);
+        }
+    }
+
+    private static boolean canSplit(HashHeaderPage header, HashBucketPage bucket) {
+        int depth = header.getDepth();
+        if (bucket.getLocalDepth() < depth)
+            return true;
+        long maxEntries = (long) HashHeaderPage.getMaxDirectoryPages()
+            * HashDirectoryPage.getNumEntries();
+        return depth < 30 && (2L << depth) <= maxEntries;
+    }
+
+    /**
+     * Splits a full bucket in two on the next bit of its tuples' hash
+     * values, doubling the directory first if the bucket's local depth is
+     * the global depth.
+     *
+     * @param h the hash value of a key in the bucket
+     */
+    private void split(TransactionId tid, Map<PageId, Page> dirty, HashBucketPage bucket, int h)
+            throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getLocalDepth();
+        HashHeaderPage header = getHeader(tid, dirty, Permissions.READ_ONLY);
+        if (depth == header.getDepth()) {
+            header = getHeader(tid, dirty, Permissions.READ_WRITE);
+            doubleDirectory(tid, dirty, header);
+        }
+        HashBucketPage sibling = appendBucket(tid, dirty, depth + 1);
+
+        List<Tuple> tuples = bucket.removeAll();
+        List<HashBucketPage> spare = new ArrayList<HashBucketPage>();
+        for (int next = bucket.getNext(); next != 0; ) {
+            HashBucketPage p = (HashBucketPage) getPage(tid, dirty, next, Permissions.READ_WRITE);
+            tuples.addAll(p.removeAll());
+            spare.add(p);
+            next = p.getNext();
+        }
+        bucket.setNext(0);
+        bucket.setLocalDepth(depth + 1);
+        dirty.put(bucket.getId(), bucket);
+
+        // the last page of each half, which overflow pages are added after
+        HashBucketPage[] tails = new HashBucketPage[] { bucket, sibling };
+        for (Tuple t : tuples) {
+            int half = (hash(t.getField(m_keyField)) >>> depth) & 1;
+            if (tails[half].getNumEmptySlots() == 0)
+                tails[half] = chain(tid, dirty, tails[half], spare, depth + 1);
+            tails[half].insertTuple(t);
+        }
+        // overflow pages left over stay at the end of the bucket, empty
+        while (!spare.isEmpty())
+            tails[0] = chain(tid, dirty, tails[0], spare, depth + 1);
+
+        // the entries with the bucket's low bits and the new bit set now
+        // point to the sibling
+        int low = h & ((1 << depth) - 1);
+        int sibPgNo = sibling.getId().pageNumber();
+        for (int e = low | (1 << depth); e < (1 << header.getDepth()); e += 2 << depth) {
+            HashDirectoryPage dir = getDirectoryPage(tid, dirty, header, e, Permissions.READ_WRITE);
+            dir.setBucket(e % HashDirectoryPage.getNumEntries(), sibPgNo);
+            dirty.put(dir.getId(), dir);
+        }
+    }
+
+    // adds a spare or a new overflow page after the specified page
+    private HashBucketPage chain(TransactionId tid, Map<PageId, Page> dirty, HashBucketPage tail,
+            List<HashBucketPage> spare, int depth)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage p;
+        if (spare.isEmpty()) {
+            p = appendBucket(tid, dirty, depth);
+        } else {
+            p = spare.remove(0);
+            p.setNext(0);
+            p.setLocalDepth(depth);
+            dirty.put(p.getId(), p);
+        }
+        tail.setNext(p.getId().pageNumber());
+        dirty.put(tail.getId(), tail);
+        return p;
+    }
+
+    // copies entries 0 .. 2^d-1 of the directory to entries 2^d .. 2^(d+1)-1
+    private void doubleDirectory(TransactionId tid, Map<PageId, Page> dirty,
+            HashHeaderPage header) throws DbException, IOException, TransactionAbortedException {
+        int size = 1 << header.getDepth();
+        int perPage = HashDirectoryPage.getNumEntries();
+        while (header.getNumDirectoryPages() * perPage < 2 * size)
+            header.addDirectoryPage(appendPage(tid, dirty, HashPage.DIRECTORY).getId().pageNumber());
+        HashDirectoryPage src = null;
+        HashDirectoryPage dst = null;
+        for (int e = 0; e < size; e++) {
+            if (src == null || e % perPage == 0)
+                src = getDirectoryPage(tid, dirty, header, e, Permissions.READ_ONLY);
+            if (dst == null || (e + size) % perPage == 0) {
+                dst = getDirectoryPage(tid, dirty, header, e + size, Permissions.READ_WRITE);
+                dirty.put(dst.getId(), dst);
+            }
+            dst.setBucket((e + size) % perPage, src.getBucket(e % perPage));
+        }
+        header.setDepth(header.getDepth() + 1);
+        dirty.put(header.getId(), header);
+    }
+
+    private HashBucketPage appendBucket(TransactionId tid, Map<PageId, Page> dirty, int depth)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage p = (HashBucketPage) appendPage(tid, dirty, HashPage.BUCKET);
+        p.setLocalDepth(depth);
+        return p;
+    }
+
+    // appends an empty page of the specified kind to the file
+    private HashPage appendPage(TransactionId tid, Map<PageId, Page> dirty, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId pid;
+        synchronized (this) {
+            pid = new HashPageId(getId(), numPages());
+            m_pages.write(pid.pageNumber(), HashPage.createEmptyPageData(category));
+        }
+        HashPage p = (HashPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        dirty.put(pid, p);
+        return p;
+    }
+
+    /**
+     * Deletes the specified tuple.  The tuple is looked for in the bucket
+     * its key hashes to, since a split may have moved it since it was
+     * read, so a tuple without a record id is deleted too if the file
+     * holds a tuple with the same fields.
+     *
+     * @see DbFile#deleteTuple
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid != null && (rid.getPageId().getTableId() != getId()
+                || !(rid.getPageId() instanceof HashPageId)))
+            throw new DbException("tuple is not a member of this file");
+        Map<PageId, Page> dirty = new LinkedHashMap<PageId, Page>();
+        HashBucketPage p = findBucket(tid, dirty, t.getField(m_keyField), Permissions.READ_WRITE);
+        while (p.indexOf(t) < 0) {
+            if (p.getNext() == 0)
+                throw new DbException("tuple is not a member of this file");
+            p = (HashBucketPage) getPage(tid, dirty, p.getNext(), Permissions.READ_WRITE);
+        }
+        p.deleteTuple(t);
+        dirty.put(p.getId(), p);
+        return new ArrayList<Page>(dirty.values());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, this, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy a predicate.
+     * For EQUALS only the bucket of the key is read; the other comparisons
+     * read every bucket.
+     *
+     * @param op the comparison to apply to each key
+     * @param key the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        if (op == Predicate.Op.EQUALS)
+            return new HashFileIterator(tid, this, key, null);
+        return new HashFileIterator(tid, this, null, new Predicate(m_keyField, op, key));
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * HashFileIterator returns the tuples of a HashFile with a key, by reading
+ * the pages of the key's bucket, or all the tuples of the file, by reading
+ * every bucket page.  Pages are fetched with shared locks.
+ */
+public class HashFileIterator implements DbFileIterator {
+
+    private final TransactionId m_tid;
+    private final HashFile m_file;
+    // the key of the tuples to return, or null for all tuples
+    private final Field m_key;
+    // applied to the tuples, or null
+    private final Predicate m_filter;
+
+    private HashBucketPage m_page;
+    private int m_pgNo;
+    private int m_numPages;
+    private int m_pos;
+    private Tuple m_next;
+    private boolean m_open;
+
+    /**
+     * @param key the key of the tuples to return, or null to return all
+     *   the tuples of the file
+     * @param filter a predicate the tuples must also satisfy, or null
+     */
+    public HashFileIterator(TransactionId tid, HashFile file, Field key, Predicate filter) {
+        m_tid = tid;
+        m_file = file;
+        m_key = key;
+        m_filter = filter;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (m_key != null) {
+            try {
+                m_page = m_file.findBucket(m_tid, null, m_key, Permissions.READ_ONLY);
+            } catch (IOException e) {
+                throw new DbException("could not read " + m_file.getFile() + ": " + e.getMessage());
+            }
+        } else {
+            m_numPages = m_file.numPages();
+            m_pgNo = 0;
+            m_page = nextBucketPage();
+        }
+        m_pos = 0;
+        m_next = null;
+        m_open = true;
+    }
+
+    // the next bucket page of the file after m_pgNo, or null
+    private HashBucketPage nextBucketPage() throws DbException, TransactionAbortedException {
+        while (++m_pgNo < m_numPages) {
+            HashPage p = m_file.getPage(m_tid, null, m_pgNo, Permissions.READ_ONLY);
+            if (p instanceof HashBucketPage)
+                return (HashBucketPage) p;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!m_open)
+            return false;
+        if (m_next == null)
+            m_next = fetchNext();
+        return m_next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = m_next;
+        m_next = null;
+        return t;
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_page != null) {
+            if (m_pos >= m_page.getNumTuples()) {
+                if (m_key == null) {
+                    m_page = nextBucketPage();
+                } else {
+                    int next = m_page.getNext();
+                    m_page = next == 0 ? null
+                        : (HashBucketPage) m_file.getPage(m_tid, null, next, Permissions.READ_ONLY);
+                }
+                m_pos = 0;
+                continue;
+            }
+            // other keys hash to the bucket too
+            if (m_key != null && !m_key.equals(m_page.getKey(m_pos))) {
+                m_pos++;
+                continue;
+            }
+            Tuple t = m_page.getTuple(m_pos++);
+            if (m_filter == null || m_filter.filter(t))
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        m_page = null;
+        m_next = null;
+        m_open = false;
+    }
+}
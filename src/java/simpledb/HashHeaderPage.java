@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashHeaderPage is page 0 of a HashFile.  It holds the global depth of
+ * the directory, the number of directory pages and their page numbers.
+ * Entry i of the directory is entry i % {@link
+ * HashDirectoryPage#getNumEntries} of directory page i / getNumEntries.
+ */
+public class HashHeaderPage extends HashPage {
+
+    private int m_depth;
+    private final ArrayList<Integer> m_dirPages = new ArrayList<Integer>();
+
+    HashHeaderPage(HashPageId id, DataInputStream in) throws IOException {
+        super(id, -1);
+        m_depth = in.readInt();
+        int n = in.readInt();
+        if (n < 0 || n > getMaxDirectoryPages())
+            throw new IOException("header page has " + n + " directory pages");
+        for (int i = 0; i < n; i++)
+            m_dirPages.add(in.readInt());
+    }
+
+    public int getCategory() {
+        return HEADER;
+    }
+
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(m_depth);
+        out.writeInt(m_dirPages.size());
+        for (int pgNo : m_dirPages)
+            out.writeInt(pgNo);
+    }
+
+    /** @return the most directory pages the header can hold */
+    public static int getMaxDirectoryPages() {
+        // kind, depth and page count
+        return (BufferPool.getPageSize() - 1 - 4 - 4) / 4;
+    }
+
+    /**
+     * @return the global depth, the number of bits of a hash value that
+     *   index the directory
+     */
+    public synchronized int getDepth() {
+        return m_depth;
+    }
+
+    public synchronized void setDepth(int depth) {
+        m_depth = depth;
+    }
+
+    public synchronized int getNumDirectoryPages() {
+        return m_dirPages.size();
+    }
+
+    /** @return the page number of directory page i */
+    public synchronized int getDirectoryPage(int i) {
+        return m_dirPages.get(i);
+    }
+
+    public synchronized void addDirectoryPage(int pgNo) {
+        if (m_dirPages.size() >= getMaxDirectoryPages())
+            throw new IllegalStateException("the header page is full");
+        m_dirPages.add(pgNo);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage is the base of the pages of a HashFile.  Like a BTreePage,
+ * every page starts with a byte telling which kind of page it is:
+ * <ul>
+ * <li> {@link #HEADER}: page 0, the global depth and the directory pages
+ * <li> {@link #DIRECTORY}: a part of the directory, the bucket of each
+ *   hash value
+ * <li> {@link #BUCKET}: tuples whose keys hash to the bucket, in no order
+ * </ul>
+ * Pages are decoded when they are read and encoded again by
+ * {@link #getPageData}; the rest of the page after the encoded contents
+ * is zero.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage implements Page {
+
+    public static final int HEADER = 0;
+    public static final int DIRECTORY = 1;
+    public static final int BUCKET = 2;
+
+    protected final HashPageId pid;
+    protected final int keyField;
+
+    private volatile TransactionId m_dirtier;
+
+    private byte[] m_oldData; // protected by this
+
+    protected HashPage(HashPageId id, int keyField) {
+        this.pid = id;
+        this.keyField = keyField;
+    }
+
+    /**
+     * Builds the page of the kind data's first byte names.
+     *
+     * @param keyField the field the HashFile is keyed on
+     * @throws IOException if the kind of page is unknown
+     */
+    public static HashPage createPage(HashPageId id, byte[] data, int keyField)
+        throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int category = in.readUnsignedByte();
+        HashPage p;
+        switch (category) {
+        case HEADER:
+            p = new HashHeaderPage(id, in);
+            break;
+        case DIRECTORY:
+            p = new HashDirectoryPage(id, in);
+            break;
+        case BUCKET:
+            p = new HashBucketPage(id, in, keyField);
+            break;
+        default:
+            throw new IOException("page " + id.pageNumber() + " has unknown kind " + category);
+        }
+        // the page was just decoded from these bytes
+        p.m_oldData = data;
+        return p;
+    }
+
+    /** @return the data of an empty page of the specified kind */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    /** @return the kind of this page */
+    public abstract int getCategory();
+
+    /** Writes the contents of the page after its kind byte. */
+    protected abstract void write(DataOutputStream out) throws IOException;
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(getCategory());
+            write(out);
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        if (bytes.size() > BufferPool.getPageSize())
+            throw new IllegalStateException("page " + pid.pageNumber() + " overflows");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        System.arraycopy(bytes.toByteArray(), 0, data, 0, bytes.size());
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtier;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashPage getBeforeImage() {
+        byte[] old;
+        synchronized (this) {
+            old = m_oldData;
+        }
+        try {
+            return createPage(pid, old, keyField);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (this) {
+            m_oldData = data;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+/** Unique identifier for HashPage objects. */
+public class HashPageId implements PageId {
+
+    private final int m_tableId;
+    private final int m_pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.  The kind of page is stored in the page itself, see
+     * {@link HashPage}.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        m_tableId = tableId;
+        m_pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return m_tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return m_pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * m_tableId + m_pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != HashPageId.class)
+            return false;
+        HashPageId other = (HashPageId) o;
+        return other.m_tableId == m_tableId && other.m_pgNo == m_pgNo;
+    }
+
+    public String toString() {
+        return "HashPageId(" + m_tableId + ", " + m_pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -14,13 +15,26 @@ import java.nio.*;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements PageFile {
 
 
     private File m_file;
     
     private TupleDesc m_td;
     
+    private final PageChannel m_pages;
+    
+    // non-null while pages are read from a memory mapping of the file
+    private volatile MappedSegments m_mapping;
+    
+    private volatile boolean m_readAhead;
+    
+    // non-null while the file keeps a zone map
+    private volatile ZoneMap m_zoneMap;
+    
+    // non-null while the file keeps Bloom filters
+    private volatile BloomFilters m_bloom;
+    
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -31,6 +45,7 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         m_file = f;
         m_td = td;
+        m_pages = new PageChannel(f);
     }
 
     /**
@@ -64,15 +79,124 @@ public class HeapFile implements DbFile {
         return m_td;
     }
 
+    /**
+     * Turns memory-mapped reads on or off.  While on, readPage decodes
+     * pages directly from read-only mappings of the file, so read-mostly
+     * tables are served from the OS page cache without a read system call
+     * or a byte array copy per page.  Pages are still written through the
+     * file channel.
+     *
+     * @param mapped true to read pages from a mapping of the file
+     */
+    public void setMemoryMapped(boolean mapped) {
+        setMemoryMapped(mapped, MappedSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Turns memory-mapped reads on or off, mapping the file in segments of
+     * the specified size.
+     */
+    void setMemoryMapped(boolean mapped, long segmentSize) {
+        m_mapping = mapped ? new MappedSegments(BufferPool.PAGE_SIZE, segmentSize) : null;
+    }
+
+    /** @return the mapping pages are read from, or null if there is none */
+    MappedSegments getMapping() {
+        return m_mapping;
+    }
+
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return m_mapping != null;
+    }
+
+    /**
+     * Turns read-ahead for this file's iterators on or off.  While on, an
+     * iterator that reads pages in order has the following pages loaded
+     * into the BufferPool in the background, so a scan of a cold table
+     * overlaps its disk reads with tuple processing.
+     *
+     * @param on true to read ahead of sequential scans
+     * @see ReadAhead
+     */
+    public void setReadAhead(boolean on) {
+        m_readAhead = on;
+    }
+
+    /** @return true if iterators over this file read ahead */
+    public boolean isReadAhead() {
+        return m_readAhead;
+    }
+
+    /**
+     * Turns the zone map of this file on or off.  While on, the file keeps
+     * the smallest and largest value of each INT_TYPE field on each page,
+     * and iterators with a predicate skip the pages that cannot hold a
+     * tuple satisfying it.  The zone map is saved next to the file when
+     * the file is forced; turning it off deletes it.
+     *
+     * @param on true to keep a zone map
+     * @see ZoneMap
+     */
+    public synchronized void setZoneMapped(boolean on) {
+        if (on && m_zoneMap == null) {
+            m_zoneMap = new ZoneMap(m_file, m_td);
+        } else if (!on) {
+            // it would not be kept up to date from now on
+            m_zoneMap = null;
+            ZoneMap.discard(m_file);
+        }
+    }
+
+    /** @return the zone map of this file, or null if it keeps none */
+    public ZoneMap getZoneMap() {
+        return m_zoneMap;
+    }
+
+    /**
+     * Sets the fields this file keeps Bloom filters of.  While it keeps
+     * some, iterators with an equality predicate on one of them skip the
+     * groups of pages whose filter does not hold the value.  The filters
+     * HeapFileEncoder built for the same fields are loaded from next to
+     * the file; they are saved there when the file is forced.  Setting no
+     * fields deletes them.
+     *
+     * @param fields the fields to keep Bloom filters of
+     * @see BloomFilters
+     */
+    public synchronized void setBloomFilters(int... fields) {
+        BloomFilters bloom = m_bloom;
+        if (fields.length > 0 && (bloom == null || !Arrays.equals(fields, bloom.getFields()))) {
+            m_bloom = new BloomFilters(m_file, m_td, fields);
+        } else if (fields.length == 0) {
+            // they would not be kept up to date from now on
+            m_bloom = null;
+            BloomFilters.discard(m_file);
+        }
+    }
+
+    /** @return the Bloom filters of this file, or null if it keeps none */
+    public BloomFilters getBloomFilters() {
+        return m_bloom;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
+        MappedSegments mapping = m_mapping;
+        if (mapping != null) {
+            try {
+                ByteBuffer view = mapping.page(getChannel(), pid.pageNumber());
+                if (view != null)
+                    return new HeapPage((HeapPageId)pid, view);
+            } catch (IOException ioe) {
+                // mapping failed (e.g. out of address space); read normally
+                Debug.log("mapping %s failed, reading page %d: %s", m_file,
+                        pid.pageNumber(), ioe.getMessage());
+            }
+        }
         byte[] b = new byte[BufferPool.PAGE_SIZE];
         try{
-            InputStream is = new FileInputStream(m_file);
-            is.skip(offset);
-            is.read(b, 0, BufferPool.PAGE_SIZE);
-            is.close();
+            m_pages.read(pid.pageNumber(), b);
             return new HeapPage((HeapPageId)pid, b);
         }catch(IOException ioe){
             ioe.printStackTrace();
@@ -82,8 +206,59 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        markStale();
+        m_pages.write(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * Writes the images of consecutive pages with one gathered write.
+     *
+     * @param firstPageNo the number of the page data[0] belongs to
+     * @param data the page images, one per page
+     */
+    void writePages(int firstPageNo, byte[][] data) throws IOException {
+        markStale();
+        m_pages.write(firstPageNo, data);
+    }
+
+    // marks the zone map and Bloom filters stale before pages whose
+    // changes they have not saved reach the disk
+    private void markStale() throws IOException {
+        ZoneMap zoneMap = m_zoneMap;
+        if (zoneMap != null)
+            zoneMap.markStale();
+        BloomFilters bloom = m_bloom;
+        if (bloom != null)
+            bloom.markStale();
+    }
+
+    /**
+     * Forces the pages written to this file to disk, and saves its zone
+     * map and Bloom filters.
+     */
+    public void force() throws IOException {
+        m_pages.force();
+        ZoneMap zoneMap = m_zoneMap;
+        if (zoneMap != null)
+            zoneMap.save();
+        BloomFilters bloom = m_bloom;
+        if (bloom != null)
+            bloom.save();
+    }
+
+    /**
+     * Releases the file handle held by this HeapFile.  It is reopened if
+     * the file is accessed again.
+     */
+    public synchronized void close() throws IOException {
+        MappedSegments mapping = m_mapping;
+        if (mapping != null)
+            mapping.clear();
+        m_pages.close();
+    }
+
+    FileChannel getChannel() throws IOException {
+        return m_pages.channel();
     }
 
     /**
@@ -96,23 +271,104 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean wasLocked = bp.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() == 0) {
+                // nothing was read from the page, so other writers may have it
+                if (!wasLocked)
+                    bp.releasePage(tid, pid);
+                continue;
+            }
+            page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                // widened first, so the page is never written with a tuple
+                // its summaries do not cover
+                included(i, t);
+                page.insertTuple(t);
+                dirtied.add(page);
+                return dirtied;
+            }
+        }
+
+        // every page is full: append an empty one and insert into that
+        HeapPageId pid;
+        ZoneMap zoneMap = m_zoneMap;
+        BloomFilters bloom = m_bloom;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            // an empty page cannot contradict the summaries on disk
+            m_pages.write(pid.pageNumber(), HeapPage.createEmptyPageData());
+            if (zoneMap != null)
+                zoneMap.addEmpty(pid.pageNumber());
+            if (bloom != null)
+                bloom.addEmpty(pid.pageNumber());
+        }
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        included(pid.pageNumber(), t);
+        page.insertTuple(t);
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    // widens the zone map and Bloom filters of a page a tuple was added to
+    private void included(int pgNo, Tuple t) {
+        ZoneMap zoneMap = m_zoneMap;
+        if (zoneMap != null)
+            zoneMap.include(pgNo, t);
+        BloomFilters bloom = m_bloom;
+        if (bloom != null)
+            bloom.include(pgNo, t);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid){
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile whose
+     * page reads are served from the specified scan ring.
+     *
+     * @param ring the ring to read pages through, or null to use the buffer
+     *        pool normally
+     * @see BufferRing
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring){
+        return iterator(tid, ring, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this HeapFile that
+     * satisfy a predicate.  If the file keeps a zone map or Bloom filters,
+     * the pages they show cannot hold such a tuple are not read.
+     *
+     * @param ring the ring to read pages through, or null to use the buffer
+     *        pool normally
+     * @param pred the predicate, or null to return all the tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring, Predicate pred){
         try{
-            return new HeapFileIterator(tid, this);
+            return new HeapFileIterator(tid, this, ring, pred);
         }catch(DbException dbe){
             dbe.printStackTrace();
         }catch(TransactionAbortedException transe){
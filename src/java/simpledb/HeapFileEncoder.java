@@ -90,6 +90,21 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, null);
+  }
+
+   /** Convert the specified input text file into a binary page file, and
+    * build Bloom filters of some of its fields as it is written.  The
+    * filters are saved next to the output file, where
+    * HeapFile.setBloomFilters finds them.
+    *
+    * @param bloomFields the fields to build Bloom filters of, or null for
+    *   none
+    * @see BloomFilters
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int[] bloomFields)
+      throws IOException {
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -106,6 +121,14 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the summaries of whatever the file held before are of no use
+    ZoneMap.discard(outFile);
+    BloomFilters.discard(outFile);
+    BloomFilters bloom = null;
+    if (bloomFields != null) {
+        bloom = new BloomFilters(outFile, new TupleDesc(typeAr), bloomFields);
+        bloom.addEmpty(0);
+    }
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -140,7 +163,10 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    if (bloom != null)
+                        bloom.include(npages, fieldNo, new IntField(v));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -156,6 +182,8 @@ public class HeapFileEncoder {
                 pageStream.writeBytes(s);
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
+                if (bloom != null)
+                    bloom.include(npages, fieldNo, new StringField(s, Type.STRING_LEN));
             }
             curpos = 0;
             if (c == '\n')
@@ -218,9 +246,13 @@ public class HeapFileEncoder {
             
             recordcount = 0;
             npages++;
+            if (bloom != null && !done)
+                bloom.addEmpty(npages);
         }
     }
     br.close();
     os.close();
+    if (bloom != null)
+        bloom.save();
   }
 }
@@ -2,35 +2,224 @@ package simpledb;
 
 import java.util.*;
 
-public class HeapFileIterator implements DbFileIterator{
+public class HeapFileIterator implements DbFileIterator, BatchIterator{
 	private TransactionId m_transid;
 	
 	private HeapFile m_heapf;
 	
 	private int cur_pgno;
 	
-	private Iterator<Tuple> tuple_it;
+	// the page numbered cur_pgno, or null if it has not been fetched yet
+	private HeapPage m_page;
+	
+	// the next slot of m_page to look at
+	private int m_slot;
 	
 	private boolean isopen;
 	
+	private BufferRing m_ring;
+	
+	private TupleBatch m_batch;
+	
+	// null unless the file reads ahead; mapped files have nothing to gain
+	private ReadAhead m_readAhead;
+	
+	private int m_batchSize = TupleBatch.DEFAULT_CAPACITY;
+	
+	// the tuples returned must satisfy it, or null
+	private Predicate m_pred;
+	
+	// the group of pages the Bloom filters were last asked about, or -1
+	private int m_group;
+	
+	// true while the filter of m_group held the value but no tuple did yet
+	private boolean m_probed;
+	
+	// the filters being built for the group of cur_pgno, or null
+	private long[][] m_building;
+	
+	// the page that must be read next for m_building to be complete
+	private int m_buildNext;
+	
 	
 	public HeapFileIterator(TransactionId trans_id, HeapFile heap_f) throws DbException, TransactionAbortedException{
+		this(trans_id, heap_f, null);
+	}
+	
+	/**
+	 * Creates an iterator whose page reads go through the specified scan
+	 * ring instead of competing for the whole buffer pool.
+	 * 
+	 * @param ring the ring to read pages through, or null to use the pool
+	 *        normally
+	 */
+	public HeapFileIterator(TransactionId trans_id, HeapFile heap_f, BufferRing ring) throws DbException, TransactionAbortedException{
+		this(trans_id, heap_f, ring, null);
+	}
+	
+	/**
+	 * Creates an iterator over the tuples that satisfy a predicate.  Pages
+	 * the file's zone map or Bloom filters rule out are not read, and pages
+	 * without a summary get one as they are read.
+	 * 
+	 * @param ring the ring to read pages through, or null to use the pool
+	 *        normally
+	 * @param pred the predicate, or null to return all the tuples
+	 */
+	public HeapFileIterator(TransactionId trans_id, HeapFile heap_f, BufferRing ring, Predicate pred) throws DbException, TransactionAbortedException{
 		m_heapf = heap_f;
+		m_pred = pred;
 		m_transid = trans_id;
+		m_ring = ring;
+		if(heap_f.isReadAhead() && !heap_f.isMemoryMapped()){
+			m_readAhead = new ReadAhead(heap_f, ring);
+		}
+		isopen = false;
+		reset();
+	}
+	
+	/**
+	 * Sets the maximum number of rows returned by each nextBatch() call.
+	 */
+	public void setBatchSize(int rows){
+		if(rows <= 0){
+			throw new IllegalArgumentException("batch size must be positive");
+		}
+		m_batchSize = rows;
+		m_batch = null;
+	}
+	
+	private void reset(){
 		cur_pgno = 0;
-		tuple_it = get_iter(cur_pgno);
-		boolean isopen = false;
+		release_page();
+		m_slot = 0;
+		m_group = -1;
+		m_probed = false;
+		m_building = null;
+		if(m_readAhead != null){
+			m_readAhead.reset();
+		}
 	}
 	
-    private Iterator<Tuple> get_iter(int pg_no) throws DbException, TransactionAbortedException{
-        HeapPageId pid = new HeapPageId(m_heapf.getId(), pg_no);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_transid, pid, Permissions.READ_ONLY);
-        return page.iterator();
-    }
+	// pins the page so it stays cached while the iterator is on it
+	private HeapPage get_page(int pg_no) throws DbException, TransactionAbortedException{
+		if(m_readAhead != null){
+			m_readAhead.accessed(pg_no);
+		}
+		HeapPageId pid = new HeapPageId(m_heapf.getId(), pg_no);
+		return (HeapPage) Database.getBufferPool().pinPage(m_transid, pid, Permissions.READ_ONLY, m_ring);
+	}
+	
+	private void release_page(){
+		if(m_page != null){
+			Database.getBufferPool().unpinPage(m_page);
+			m_page = null;
+		}
+	}
+	
+	// true if the tuple in the used slot satisfies the predicate
+	private boolean matches(int slot){
+		return m_pred == null || m_page.getField(slot, m_pred.getField())
+			.compare(m_pred.getOp(), m_pred.getOperand());
+	}
+	
+	/**
+	 * Moves to the next used slot, fetching pages as needed.
+	 * @return true if m_page and m_slot now refer to a tuple
+	 */
+	private boolean advance() throws DbException, TransactionAbortedException{
+		while(true){
+			if(m_page != null){
+				int num_slots = m_page.getNumSlots();
+				while(m_slot < num_slots && (!m_page.isSlotUsed(m_slot) || !matches(m_slot))){
+					m_slot++;
+				}
+				if(m_slot < num_slots){
+					m_probed = false;
+					return true;
+				}
+				release_page();
+				cur_pgno++;
+			}
+			BloomFilters bloom = m_heapf.getBloomFilters();
+			if(cur_pgno >= m_heapf.numPages()){
+				group_done(bloom);
+				return false;
+			}
+			if(bloom != null && m_pred != null && bloom.covers(m_pred)
+					&& cur_pgno / BloomFilters.PAGES_PER_GROUP != m_group){
+				group_done(bloom);
+				m_group = cur_pgno / BloomFilters.PAGES_PER_GROUP;
+				if(!bloom.mightContain(m_group, m_pred.getField(), m_pred.getOperand())){
+					bloom.skipped();
+					cur_pgno = (m_group + 1) * BloomFilters.PAGES_PER_GROUP;
+					continue;
+				}
+				m_probed = bloom.isKnown(m_group);
+			}
+			ZoneMap zones = m_heapf.getZoneMap();
+			if(zones != null && m_pred != null && !zones.mayMatch(cur_pgno, m_pred)){
+				zones.skipped();
+				cur_pgno++;
+				continue;
+			}
+			m_page = get_page(cur_pgno);
+			m_slot = 0;
+			summarize(zones);
+			collect(bloom);
+		}
+	}
+	
+	// counts the group just scanned if its filter held the value but no
+	// tuple did
+	private void group_done(BloomFilters bloom){
+		if(m_probed && bloom != null){
+			bloom.falsePositive();
+		}
+		m_probed = false;
+	}
+	
+	// builds the filters of a group that has none as its pages are read in
+	// order while no one is changing them
+	private void collect(BloomFilters bloom){
+		if(bloom == null){
+			return;
+		}
+		int group = cur_pgno / BloomFilters.PAGES_PER_GROUP;
+		if(cur_pgno % BloomFilters.PAGES_PER_GROUP == 0){
+			m_building = bloom.isKnown(group) ? null : bloom.newGroup();
+		}
+		else if(cur_pgno != m_buildNext){
+			// a page of the group was skipped
+			m_building = null;
+		}
+		if(m_building == null){
+			return;
+		}
+		if(Database.getBufferPool().holdsExclusive(m_transid, m_page.getId())){
+			m_building = null;
+			return;
+		}
+		bloom.addPage(m_building, m_page);
+		m_buildNext = cur_pgno + 1;
+		if(m_buildNext % BloomFilters.PAGES_PER_GROUP == 0){
+			bloom.install(group, m_building);
+			m_building = null;
+		}
+	}
+	
+	// gives the page a summary if it has none and no one is changing it
+	private void summarize(ZoneMap zones){
+		if(zones == null || zones.isKnown(cur_pgno)
+				|| Database.getBufferPool().holdsExclusive(m_transid, m_page.getId())){
+			return;
+		}
+		zones.update(m_page);
+	}
 	
 	public Tuple next() throws NoSuchElementException, TransactionAbortedException,DbException {
 		if(hasNext()){
-			return tuple_it.next();
+			return m_page.getTuple(m_slot++);
 		}
 		else{
 			throw new NoSuchElementException();
@@ -42,30 +231,52 @@ public class HeapFileIterator implements DbFileIterator{
 		if(!isopen){
 			return false;
 		}
-		if(tuple_it.hasNext()){
-			return true;
+		return advance();
+	}
+	
+	/**
+	 * Decodes the following tuples straight from the pages into a column
+	 * batch, without creating Tuple or Field objects for INT_TYPE columns.
+	 */
+	public TupleBatch nextBatch() throws DbException, TransactionAbortedException{
+		if(!isopen){
+			return null;
 		}
-		else if(cur_pgno < m_heapf.numPages() - 1 ){
-			cur_pgno++;
-			tuple_it = get_iter(cur_pgno);
-			return tuple_it.hasNext();
+		TupleDesc td = m_heapf.getTupleDesc();
+		if(m_batch == null){
+			m_batch = new TupleBatch(td, m_batchSize);
 		}
-		else{
-			return false;
+		m_batch.clear();
+		while(!m_batch.isFull() && advance()){
+			int row = m_batch.addRow();
+			for(int i = 0; i < td.numFields(); i++){
+				if(td.getFieldType(i) == Type.INT_TYPE){
+					m_batch.setInt(i, row, m_page.getInt(m_slot, i));
+				}
+				else{
+					m_batch.setString(i, row, m_page.getString(m_slot, i));
+				}
+			}
+			m_batch.setLocation(row, m_page.getId(), m_slot);
+			m_slot++;
 		}
-		
+		return m_batch.size() == 0 ? null : m_batch;
 	}
 	
     public void rewind() throws TransactionAbortedException, DbException {
-        cur_pgno = 0;
-        tuple_it = get_iter(0);
+        reset();
     }
 	
 	public void open() throws DbException, TransactionAbortedException{
+		reset();
 		isopen = true;
 	}
 	
 	public void close(){
 		isopen = false;
+		release_page();
+		if(m_readAhead != null){
+			m_readAhead.reset();
+		}
 	}
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,13 +16,24 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
     final Tuple tuples[];
     final int numSlots;
 
-    byte[] oldData;
+    // the serialized page is the source of truth: the header, tuples and
+    // fields are decoded from it, and inserts and deletes patch it in place
+    private volatile ByteBuffer m_data;
+    // true while m_data must be copied before it is modified, because the
+    // before image or a file mapping refers to it
+    private boolean m_shared;
+    private final int m_headerSize;
+    private final int m_tupleSize;
+    private volatile boolean m_cacheTuples;
+
+    ByteBuffer oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
+    private volatile TransactionId m_dirtier;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -39,25 +51,31 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage that decodes its header and tuples directly from
+     * the specified buffer, e.g. a region of a memory-mapped HeapFile,
+     * without copying the page into a byte array first.  The page format is
+     * the one described in {@link #HeapPage(HeapPageId, byte[])}; the
+     * buffer's position 0 is the first byte of the page.
+     * <p>
+     * Nothing is decoded up front.  Tuples are decoded from the buffer when
+     * they are asked for, see {@link #getTuple} and {@link #getField}.  The
+     * page keeps referring to the buffer until it is first modified, so the
+     * caller must not change its contents.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        this.m_data = data;
+        this.m_headerSize = getHeaderSize();
+        this.m_tupleSize = td.getSize();
         
+        // decoded tuples are only kept here when caching is turned on
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -82,7 +100,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
@@ -96,10 +114,38 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of this page its before image.  The page
+     * and its before image share the page buffer until the page is next
+     * modified, so this does not copy anything.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = m_data;
+        m_shared = true;
+        }
+    }
+
+    /**
+     * Gives this page a private copy of its buffer before it is modified,
+     * if the buffer is shared.  A before image that refers to a mapping of
+     * the file gets its own copy too, since writing this page back would
+     * change it.
+     */
+    private void ensureWritable() {
+        synchronized(oldDataLock)
+        {
+        if (!m_shared)
+            return;
+        ByteBuffer src = m_data.duplicate();
+        src.clear();
+        byte[] copy = new byte[src.remaining()];
+        src.get(copy);
+        if (oldData == m_data && m_data.isReadOnly())
+            oldData = ByteBuffer.wrap(copy.clone());
+        m_data = ByteBuffer.wrap(copy);
+        m_shared = false;
         }
     }
 
@@ -111,36 +157,91 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Turns caching of decoded tuples on or off.  While caching is off (the
+     * default), every call to {@link #getTuple} decodes the tuple again, so
+     * tuples that are only looked at once cost no memory beyond the page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public void setTupleCaching(boolean cache) {
+        m_cacheTuples = cache;
+        if (!cache) {
+            synchronized (tuples) {
+                Arrays.fill(tuples, null);
+            }
+        }
+    }
+
+    /** @return the number of tuple slots on this page, used or not */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the tuple stored in the specified slot, decoding it from the
+     * page if it is not cached.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+            return null;
+        }
+        if (!m_cacheTuples) {
+            return readTuple(slotId);
+        }
+        synchronized (tuples) {
+            if (tuples[slotId] == null) {
+                tuples[slotId] = readTuple(slotId);
             }
+            return tuples[slotId];
+        }
+    }
+
+    /**
+     * Decodes a single field of the tuple stored in the specified slot,
+     * without materializing the rest of the tuple.
+     *
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) {
+        if (!isSlotUsed(slotId)) {
             return null;
         }
+        return td.getFieldType(fieldNo).parse(m_data, fieldOffset(slotId, fieldNo));
+    }
 
-        // read fields in the tuple
+    /**
+     * Reads an INT_TYPE field of the tuple in the specified (used) slot
+     * without allocating a Field.
+     */
+    public int getInt(int slotId, int fieldNo) {
+        return m_data.getInt(fieldOffset(slotId, fieldNo));
+    }
+
+    /**
+     * Reads a STRING_TYPE field of the tuple in the specified (used) slot
+     * without allocating a Field.
+     */
+    public String getString(int slotId, int fieldNo) {
+        return Type.readString(m_data, fieldOffset(slotId, fieldNo));
+    }
+
+    private int fieldOffset(int slotId, int fieldNo) {
+        return m_headerSize + slotId * m_tupleSize + td.getFieldOffset(fieldNo);
+    }
+
+    /**
+     * Decode the tuple in the specified slot, which must be in use.
+     */
+    private Tuple readTuple(int slotId) {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                t.setInt(j, getInt(slotId, j));
+            else
+                t.setString(j, getString(slotId, j));
         }
-
         return t;
     }
 
@@ -151,69 +252,19 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page is always kept in serialized form, so this is a single copy
+     * of the page buffer.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        ByteBuffer src = m_data.duplicate();
+        src.clear();
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return data;
     }
 
     /**
@@ -237,9 +288,24 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+
+        ensureWritable();
+        markSlotUsed(slot, false);
+        // empty slots are kept zeroed, as HeapFileEncoder writes them
+        int offset = m_headerSize + slot * m_tupleSize;
+        for (int i = 0; i < m_tupleSize; i++)
+            m_data.put(offset + i, (byte) 0);
+        synchronized (tuples) {
+            tuples[slot] = null;
+        }
+        t.setRecordId(null);
     }
 
     /**
@@ -249,9 +315,39 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            throw new DbException("page is full");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(m_tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (f == null)
+                    throw new DbException("field " + j + " of the tuple is not set");
+                f.serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+
+        ensureWritable();
+        int offset = m_headerSize + slot * m_tupleSize;
+        byte[] bytes = baos.toByteArray();
+        for (int i = 0; i < bytes.length; i++)
+            m_data.put(offset + i, bytes[i]);
+        markSlotUsed(slot, true);
+        synchronized (tuples) {
+            tuples[slot] = null;
+        }
+        t.setRecordId(new RecordId(pid, slot));
     }
 
     /**
@@ -259,25 +355,22 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-    // not necessary for lab1
+        m_dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-    // Not necessary for lab1
-        return null;      
+        return m_dirtier;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int num_free_slots = getNumTuples();
-        for(int i = 0; i < header.length * 8; i++){
+        int num_free_slots = numSlots;
+        for(int i = 0; i < numSlots; i++){
             if(isSlotUsed(i)){
                 num_free_slots--;
             }
@@ -291,15 +384,21 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         int h_slot = i/8;
         int bit = i % 8;
-        return (header[h_slot] & (1<<bit)) > 0;
+        return (m_data.get(h_slot) & (1<<bit)) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        int h_slot = i/8;
+        int bit = i % 8;
+        byte b = m_data.get(h_slot);
+        if (value)
+            b |= (1<<bit);
+        else
+            b &= ~(1<<bit);
+        m_data.put(h_slot, b);
     }
     
     public int getNumOccupySlots(){
@@ -311,7 +410,23 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        return new HeapPageIterator(this);
+        return new HeapPageIterator(this, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy the
+     *   specified predicate.  The predicate is evaluated on the single
+     *   field it refers to, so rejected tuples are never materialized.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new HeapPageIterator(this, p);
+    }
+
+    /**
+     * @return true if the tuple in the specified (used) slot satisfies p
+     */
+    boolean matches(int slotId, Predicate p) {
+        return getField(slotId, p.getField()).compare(p.getOp(), p.getOperand());
     }
 
 }
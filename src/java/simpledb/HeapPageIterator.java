@@ -6,22 +6,41 @@ public class HeapPageIterator implements Iterator<Tuple>{
 	
 	private HeapPage m_heappage;
 	
-	private int m_cur_tuple;
+	private Predicate m_pred;
 	
-	private int m_size;
+	private int m_next_slot;
 	
-	public HeapPageIterator(HeapPage heap_page){
+	/**
+	 * Iterates over the used slots of heap_page.  If pred is not null, only
+	 * tuples satisfying it are returned, and the others are never decoded.
+	 */
+	public HeapPageIterator(HeapPage heap_page, Predicate pred){
 		m_heappage = heap_page;
-		m_size =heap_page.getNumOccupySlots();
-		m_cur_tuple = 0;
+		m_pred = pred;
+		m_next_slot = findSlot(0);
+	}
+	
+	private int findSlot(int from){
+		int slot = from;
+		while(slot < m_heappage.getNumSlots()
+				&& (!m_heappage.isSlotUsed(slot)
+					|| (m_pred != null && !m_heappage.matches(slot, m_pred)))){
+			slot++;
+		}
+		return slot;
 	}
 	
 	public boolean hasNext(){
-		return (m_cur_tuple < m_size);
+		return (m_next_slot < m_heappage.getNumSlots());
 	}
 	
 	public Tuple next(){
-		return m_heappage.tuples[m_cur_tuple++];
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		Tuple t = m_heappage.getTuple(m_next_slot);
+		m_next_slot = findSlot(m_next_slot + 1);
+		return t;
 	}
 	
 	public void remove() throws UnsupportedOperationException{
@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * IndexFile is a DbFile that can find the tuples whose value of one field,
+ * the key, satisfies a predicate without reading the whole file.
+ *
+ * @see SecondaryIndex
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the index of the field the tuples are found by */
+    public int keyField();
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy a predicate.
+     *
+     * @param op the comparison to apply to each key
+     * @param key the value keys are compared to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key);
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table that
+ * satisfy a predicate on an indexed field.  The record ids of the matching
+ * tuples are found in the field's {@link SecondaryIndex}, and each tuple is
+ * then read from its page through the BufferPool, so only the pages that
+ * hold matching tuples are read.  Tuples are returned in the order of the
+ * index.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_tid;
+    private final int m_tableid;
+    private final String m_tableAlias;
+    private final Predicate m_pred;
+    private final SecondaryIndex m_index;
+    private DbFileIterator m_entries;
+    private Tuple m_next;
+
+    /**
+     * Creates a scan of the tuples of a table that satisfy a predicate.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param pred
+     *            the predicate the tuples must satisfy; its field must have
+     *            a secondary index
+     * @throws NoSuchElementException if the predicate's field has no index
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate pred) {
+        m_tid = tid;
+        m_tableid = tableid;
+        m_tableAlias = tableAlias;
+        m_pred = pred;
+        m_index = Database.getCatalog().getIndex(tableid, pred.getField());
+        if (m_index == null)
+            throw new NoSuchElementException("field " + pred.getField() + " of table "
+                    + tableid + " has no index");
+    }
+
+    public IndexScan(TransactionId tid, int tableid, Predicate pred) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), pred);
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    /** @return the index the scan reads */
+    public SecondaryIndex getIndex() {
+        return m_index;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_entries = m_index.getFile().indexIterator(m_tid, m_pred.getOp(), m_pred.getOperand());
+        m_entries.open();
+        m_next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, like SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(m_tableid);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (m_entries == null)
+            return false;
+        if (m_next == null)
+            m_next = fetchNext();
+        return m_next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = m_next;
+        m_next = null;
+        return t;
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_entries.hasNext()) {
+            RecordId rid = m_index.recordId(m_entries.next());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_tid, rid.getPageId(),
+                    Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null && m_pred.filter(t))
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (m_entries != null)
+            m_entries.close();
+        m_entries = null;
+        m_next = null;
+    }
+}
@@ -0,0 +1,328 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants shared and exclusive locks on pages to transactions.
+ * <p>
+ * Every page has its own lock object, so transactions contend only when
+ * they use the same page; a request for a lock that is free is granted
+ * under that page's monitor alone.  A transaction that holds the only
+ * shared lock on a page may upgrade it to an exclusive lock.  Waiters are
+ * served in no particular order, except that a new shared request waits
+ * behind a queued exclusive request, so writers are not starved by a
+ * stream of readers.
+ * <p>
+ * Before a transaction blocks, the waits-for graph is searched for a cycle
+ * through it.  If there is one, the youngest transaction in the cycle (the
+ * one with the highest id) is aborted: if that is the requester, it gets a
+ * TransactionAbortedException straight away, otherwise the victim is woken
+ * up and gets the exception from the request it is blocked in.  The
+ * victim's locks are released when it completes.
+ * <p>
+ * A page's lock object is dropped once nobody holds or waits for it, so
+ * the table of locks only holds the pages that are in use.
+ */
+public class LockManager {
+
+    // how long a waiter sleeps before it checks for deadlocks again
+    private static final long WAIT_MILLIS = 50;
+
+    /**
+     * The lock on one page.  All fields are guarded by the object's
+     * monitor.
+     */
+    private static class PageLock {
+        final HashSet<TransactionId> m_shared = new HashSet<TransactionId>();
+        TransactionId m_exclusive;
+        final HashSet<TransactionId> m_waitingWriters = new HashSet<TransactionId>();
+        // transactions blocked on this lock, of either mode
+        int m_waiters;
+        // set when the lock is removed from the table; a request that finds
+        // a retired lock looks the page up again
+        boolean m_retired;
+
+        boolean isIdle() {
+            return m_exclusive == null && m_shared.isEmpty() && m_waiters == 0;
+        }
+
+        boolean isHeldBy(TransactionId tid) {
+            return tid.equals(m_exclusive) || m_shared.contains(tid);
+        }
+
+        /** Grants the lock if that is possible right now. */
+        boolean tryAcquire(TransactionId tid, boolean exclusive) {
+            if (tid.equals(m_exclusive))
+                return true;
+            if (m_exclusive != null)
+                return false;
+            if (!exclusive) {
+                if (m_shared.contains(tid) || m_waitingWriters.isEmpty()) {
+                    m_shared.add(tid);
+                    return true;
+                }
+                return false;
+            }
+            if (m_shared.isEmpty() || (m_shared.size() == 1 && m_shared.contains(tid))) {
+                m_shared.clear();
+                m_exclusive = tid;
+                return true;
+            }
+            return false;
+        }
+
+        /** @return the transactions a request by tid has to wait for */
+        List<TransactionId> blockers(TransactionId tid, boolean exclusive) {
+            ArrayList<TransactionId> result = new ArrayList<TransactionId>();
+            if (m_exclusive != null && !tid.equals(m_exclusive))
+                result.add(m_exclusive);
+            if (exclusive) {
+                for (TransactionId t : m_shared)
+                    if (!t.equals(tid))
+                        result.add(t);
+            } else if (!m_shared.contains(tid)) {
+                for (TransactionId t : m_waitingWriters)
+                    if (!t.equals(tid))
+                        result.add(t);
+            }
+            return result;
+        }
+    }
+
+    /** What a blocked transaction is waiting for. */
+    private static class Request {
+        final PageLock m_lock;
+        final boolean m_exclusive;
+
+        Request(PageLock lock, boolean exclusive) {
+            m_lock = lock;
+            m_exclusive = exclusive;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> m_locks =
+        new ConcurrentHashMap<PageId, PageLock>();
+
+    // the pages each transaction holds a lock on
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> m_held =
+        new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // the waits-for graph: the request each blocked transaction is waiting on
+    private final ConcurrentHashMap<TransactionId, Request> m_waiting =
+        new ConcurrentHashMap<TransactionId, Request>();
+
+    // transactions chosen as deadlock victims while they were blocked
+    private final Set<TransactionId> m_victims =
+        Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+
+    private PageLock lockFor(PageId pid) {
+        PageLock l = m_locks.get(pid);
+        if (l == null) {
+            PageLock fresh = new PageLock();
+            l = m_locks.putIfAbsent(pid, fresh);
+            if (l == null)
+                l = fresh;
+        }
+        return l;
+    }
+
+    /**
+     * Acquires a lock on the specified page, blocking until it is granted.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        PageLock l;
+        while (true) {
+            l = lockFor(pid);
+            synchronized (l) {
+                if (l.m_retired)
+                    continue;
+                if (l.tryAcquire(tid, exclusive)) {
+                    granted(tid, pid);
+                    return;
+                }
+                // keeps the lock in the table while this request waits
+                l.m_waiters++;
+                break;
+            }
+        }
+
+        m_waiting.put(tid, new Request(l, exclusive));
+        try {
+            while (true) {
+                synchronized (l) {
+                    if (exclusive)
+                        l.m_waitingWriters.add(tid);
+                }
+                checkForDeadlock(tid);
+                synchronized (l) {
+                    if (m_victims.remove(tid))
+                        throw new TransactionAbortedException();
+                    if (l.tryAcquire(tid, exclusive)) {
+                        granted(tid, pid);
+                        return;
+                    }
+                    try {
+                        l.wait(WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new TransactionAbortedException();
+                    }
+                    if (m_victims.remove(tid))
+                        throw new TransactionAbortedException();
+                }
+            }
+        } finally {
+            m_waiting.remove(tid);
+            // a victim may have been granted the lock before it noticed
+            m_victims.remove(tid);
+            synchronized (l) {
+                l.m_waitingWriters.remove(tid);
+                l.m_waiters--;
+                // shared requests may have been waiting behind this one
+                l.notifyAll();
+                retireIfIdle(pid, l);
+            }
+        }
+    }
+
+    private void granted(TransactionId tid, PageId pid) {
+        Set<PageId> pages = m_held.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = m_held.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        pages.add(pid);
+    }
+
+    /**
+     * Searches the waits-for graph for a cycle through tid and aborts the
+     * youngest transaction on it.  Only one search runs at a time; the
+     * monitors of the page locks are taken one at a time to read who holds
+     * them, never while another one is held.
+     */
+    private synchronized void checkForDeadlock(TransactionId tid)
+        throws TransactionAbortedException {
+        List<TransactionId> cycle = findCycle(tid, tid, new HashSet<TransactionId>(),
+                new ArrayList<TransactionId>());
+        if (cycle == null)
+            return;
+
+        TransactionId victim = tid;
+        for (TransactionId t : cycle)
+            if (t.getId() > victim.getId())
+                victim = t;
+        if (victim.equals(tid))
+            throw new TransactionAbortedException();
+
+        Request r = m_waiting.get(victim);
+        if (r != null) {
+            m_victims.add(victim);
+            synchronized (r.m_lock) {
+                r.m_lock.notifyAll();
+            }
+        }
+    }
+
+    private List<TransactionId> findCycle(TransactionId start, TransactionId cur,
+            Set<TransactionId> visited, List<TransactionId> path) {
+        Request r = m_waiting.get(cur);
+        if (r == null || m_victims.contains(cur))
+            return null;
+        List<TransactionId> blockers;
+        synchronized (r.m_lock) {
+            blockers = r.m_lock.blockers(cur, r.m_exclusive);
+        }
+        path.add(cur);
+        for (TransactionId next : blockers) {
+            if (next.equals(start))
+                return path;
+            if (visited.add(next)) {
+                List<TransactionId> cycle = findCycle(start, next, visited, path);
+                if (cycle != null)
+                    return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /**
+     * Releases the lock tid holds on the specified page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        PageLock l = m_locks.get(pid);
+        if (l != null) {
+            synchronized (l) {
+                if (tid.equals(l.m_exclusive))
+                    l.m_exclusive = null;
+                l.m_shared.remove(tid);
+                l.notifyAll();
+                retireIfIdle(pid, l);
+            }
+        }
+        Set<PageId> pages = m_held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+    }
+
+    // drops the lock from the table if nobody holds or waits for it; the
+    // caller holds the lock's monitor
+    private void retireIfIdle(PageId pid, PageLock l) {
+        if (!l.m_retired && l.isIdle()) {
+            l.m_retired = true;
+            m_locks.remove(pid, l);
+        }
+    }
+
+    /**
+     * Releases every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = m_held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            release(tid, pid);
+    }
+
+    /** @return true if tid holds a lock of either mode on the page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock l = m_locks.get(pid);
+        if (l == null)
+            return false;
+        synchronized (l) {
+            return l.isHeldBy(tid);
+        }
+    }
+
+    /** @return true if tid holds an exclusive lock on the page */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock l = m_locks.get(pid);
+        if (l == null)
+            return false;
+        synchronized (l) {
+            return tid.equals(l.m_exclusive);
+        }
+    }
+
+    /** @return the number of pages with a lock object */
+    int numLocks() {
+        return m_locks.size();
+    }
+
+    /** @return the pages the specified transaction holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> pages = m_held.get(tid);
+        return pages == null ? Collections.<PageId>emptySet()
+                : new HashSet<PageId>(pages);
+    }
+}
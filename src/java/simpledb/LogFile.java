@@ -3,7 +3,10 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,6 +35,13 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+BufferPool itself never takes its own monitor (it latches its partitions
+and frames instead), so holding it here only orders these LogFile
+operations among themselves; it does not stop other threads from
+fetching, evicting or flushing pages.  BufferPool logs a page's UPDATE
+record while it holds the page's frame latch, so no LogFile method may
+flush pages while it holds this object's monitor.
 */
 
 /**
@@ -39,33 +49,58 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself holds only a header: a long integer holding
+the offset of the last written checkpoint, or -1 if there are no
+checkpoints, and an integer holding the version of the format
+({@link #FORMAT_VERSION}).
+
+<li> The log records are kept in segment files next to the log file,
+named after it with the offset of their first record appended in hex
+(e.g. log.0000000000010000).  Offsets are logical: they grow across
+segments and never change, and a record never spans two segments.  A
+new segment is started when a record does not fit into the current one
+({@link #setSegmentSize}).  Truncating the log deletes the segments that
+end before the oldest record still needed.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> Log records are variable length.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer type, a long integer
+transaction id and the integer length of the record's data, followed by
+the data.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with the integer CRC32 of everything before it
+in the record, and a long integer file offset representing the position
+in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+after image.  Each image is the byte tag of the page's {@link PageCodec},
+the page id as written by the codec, and the integer length and bytes
+of the page's data; see LogFile.readPageData() and
+LogFile.writePageData().
+
+<li> DELTA records are UPDATE records that hold only the parts of the
+page that changed since the page's previous logged write: the page's
+codec tag and id, the integer length of the page's data, and the changed
+byte ranges with their contents before and after (see PageDelta).  The
+first record written for a page after a checkpoint, or after its writes
+were rolled back, is always a full UPDATE record, so the records of a
+page replay one after another from it.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed by
+the pages whose logged writes may not have reached their data files yet
+and the first record that logged such a write.  The format of the record
+is an integer count of the number of transactions, as well as a long
+integer transaction id and a long integer first record offset for each
+active transaction; then an integer count of the number of pages, and
+for each page its codec tag, its id as the codec writes it, and a long
+integer record offset.  Checkpoints are fuzzy: they write no pages, so
+recovery has to start at the oldest of these offsets.
 
 </ul>
 
@@ -74,7 +109,10 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
+    private RandomAccessFile header;
+    // the segment records are appended to, and the offset of its start
     private RandomAccessFile raf;
+    private long segmentStart;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,17 +120,60 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /** Version of the record format, stored in the log's header. */
+    static final int FORMAT_VERSION = 3;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    // the checkpoint offset and the format version
+    final static int HEADER_SIZE = LONG_SIZE + INT_SIZE;
+    // type, tid and length before the data; CRC and start offset after it
+    final static int RECORD_HEAD_SIZE = INT_SIZE + LONG_SIZE + INT_SIZE;
+    final static int RECORD_TAIL_SIZE = INT_SIZE + LONG_SIZE;
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    /** Size at which the log starts a new segment by default. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // segment files by the offset of their first record
+    private final TreeMap<Long,File> segments = new TreeMap<Long,File>(); //protected by this
+    private long segmentSize = DEFAULT_SEGMENT_SIZE; //protected by this
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // the image of each page as its last record since the checkpoint
+    // left it, which the page's next DELTA record is taken against
+    HashMap<PageId,byte[]> lastLogged = new HashMap<PageId,byte[]>(); //protected by this
+
+    // pages with logged writes that may not be on disk yet: the offsets
+    // of the first and the last record of such a write
+    HashMap<PageId,long[]> unsynced = new HashMap<PageId,long[]>(); //protected by this
+
+    // held while a checkpoint is taken, so they are taken one at a time
+    private final Object checkpointLock = new Object();
+
+    long commitsWritten = 0; // protected by this
+    // tickets handed out to commits and page writes waiting for a force
+    long forceRequests = 0; // protected by this
+
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    // state of a recover() between its passes; protected by this
+    private HashSet<Long> recoveryCommitted;
+    private HashMap<PageId,Long> recoveryDirty;
+    private HashMap<Long,Long> recoveryLosers;
+    // pages the last recover() wrote, and found current on disk
+    int pagesRedone, pagesRedoSkipped; // protected by this
+    final GroupCommit groupCommit = new GroupCommit(this);
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -106,9 +187,23 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        header = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
+        File dir = f.getAbsoluteFile().getParentFile();
+        File[] files = dir.listFiles();
+        String prefix = f.getName() + ".";
+        for (int i = 0; files != null && i < files.length; i++) {
+            String name = files[i].getName();
+            if (name.startsWith(prefix) && name.length() == prefix.length() + 16) {
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length()), 16), files[i]);
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
                 // public void run() { shutdown(); }
@@ -127,17 +222,68 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            for (File seg : segments.values())
+                seg.delete();
+            segments.clear();
+            synchronized (header) {
+                header.setLength(0);
+                header.writeLong(NO_CHECKPOINT_ID);
+                header.writeInt(FORMAT_VERSION);
+            }
+            startSegment(0);
+        }
+    }
+
+    /** Make a new, empty segment starting at the specified offset the
+        one records are appended to.
+    */
+    private void startSegment(long start) throws IOException {
+        if (raf != null) {
+            // commits in it may be waiting for a force of the log
+            raf.getChannel().force(true);
+            raf.close();
         }
+        File seg = segmentFile(start);
+        raf = new RandomAccessFile(seg, "rw");
+        raf.setLength(0);
+        segments.put(start, seg);
+        segmentStart = start;
+        currentOffset = start;
+    }
+
+    private File segmentFile(long start) {
+        return new File(logFile.getAbsoluteFile().getParentFile(),
+                logFile.getName() + "." + String.format("%016x", start));
+    }
+
+    /** @return the segment holding the record at the specified offset */
+    synchronized File segmentFor(long offset) {
+        Map.Entry<Long,File> e = segments.floorEntry(offset);
+        return e == null ? null : e.getValue();
+    }
+
+    /** @return the number of segments the log consists of */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Set the size at which the log starts a new segment.  A record
+        larger than this gets a segment of its own.
+    */
+    public synchronized void setSegmentSize(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("bad segment size " + bytes);
+        segmentSize = bytes;
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return true if tid has begun and has neither committed nor aborted */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,10 +304,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                writeRecord(ABORT_RECORD, tid.getId(), NO_DATA);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,130 +312,292 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with the
+        transactions that commit at about the same time (see
+        GroupCommit); this method returns once it has finished.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long ticket;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            writeRecord(COMMIT_RECORD, tid.getId(), NO_DATA);
+            tidToFirstLogRecord.remove(tid.getId());
+            commitsWritten++;
+            ticket = ++forceRequests;
+        }
+        groupCommit.await(ticket);
+    }
+
+    /** Force the records written so far, before the pages they log are
+        written.  The force is shared with commits and other writers (see
+        GroupCommit), and this object's monitor is not held during it.
+    */
+    void forceWrites() throws IOException {
+        long ticket;
+        synchronized (this) {
+            ticket = ++forceRequests;
+        }
+        groupCommit.await(ticket);
+    }
+
+    /** Set how long, in microseconds, the log waits after a commit for
+        more commits to share its force.  0 (the default) forces as soon
+        as the previous force has finished.
+    */
+    public void setGroupCommitDelay(long micros) {
+        groupCommit.setDelay(micros);
+    }
+
+    public long getGroupCommitDelay() {
+        return groupCommit.getDelay();
+    }
+
+    /** @return the number of forces done for commits and page writes */
+    public long getCommitForceCount() {
+        return groupCommit.getForceCount();
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** @return the number of commit records written */
+    synchronized long commitsWritten() {
+        return commitsWritten;
+    }
+
+    /** @return the number of tickets handed out for forces */
+    synchronized long forceRequests() {
+        return forceRequests;
+    }
+
+    synchronized FileChannel channel() {
+        return raf.getChannel();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  The page
+        counts as not synced until writesSynced() says otherwise.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * BufferPool.getPageSize() + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int type;
+        byte[] afterData = after.getPageData();
+        byte[] logged = lastLogged.put(after.getId(), afterData);
+        if (logged == null) {
+            /* update record data consists of
+
+               before page data (see writePageData)
+               after page data
+            */
+            type = UPDATE_RECORD;
+            writePageData(out,before);
+            writePageData(out,after);
+        } else {
+            /* delta record data consists of
+
+               codec tag and page id
+               page data length
+               changed ranges (see PageDelta)
+            */
+            type = DELTA_RECORD;
+            PageCodec codec = PageCodec.forPage(after);
+            out.writeByte(codec.getTag());
+            codec.writeId(out, after.getId());
+            out.writeInt(logged.length);
+            PageDelta.write(out, logged, afterData);
+        }
+        out.flush();
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = writeRecord(type, tid.getId(), bytes.toByteArray());
+
+        long[] e = unsynced.get(after.getId());
+        if (e == null)
+            unsynced.put(after.getId(), new long[] { lsn, lsn });
+        else
+            e[1] = lsn;
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+    /** @return the pages with logged writes that may not be on disk
+        yet, each with the offset of its last such record
+    */
+    synchronized Map<PageId,Long> unsyncedWrites() {
+        HashMap<PageId,Long> result = new HashMap<PageId,Long>();
+        for (Map.Entry<PageId,long[]> e : unsynced.entrySet())
+            result.put(e.getKey(), e.getValue()[1]);
+        return result;
+    }
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /** Note that the writes returned by unsyncedWrites() are on disk
+        for the pages of the specified tables.  Pages logged again since
+        stay unsynced.
+    */
+    synchronized void writesSynced(Map<PageId,Long> writes, Set<Integer> tables) {
+        for (Map.Entry<PageId,Long> w : writes.entrySet()) {
+            PageId pid = w.getKey();
+            long[] e = unsynced.get(pid);
+            if (e != null && e[1] == w.getValue() && tables.contains(pid.getTableId()))
+                unsynced.remove(pid);
+        }
+    }
+
+    /** Append a record at the current offset.  The caller must hold
+        this object's monitor and have called preAppend().
+        @return the offset of the record
+    */
+    long writeRecord(int type, long tid, byte[] data) throws IOException {
+        int size = RECORD_HEAD_SIZE + data.length + RECORD_TAIL_SIZE;
+        if (currentOffset > segmentStart && currentOffset - segmentStart + size > segmentSize)
+            startSegment(currentOffset);
+        long start = currentOffset;
+        raf.seek(start - segmentStart);
+        writeRecord(raf, type, tid, data, start);
+        currentOffset = segmentStart + raf.getFilePointer();
+        return start;
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /** Append a record that starts at the specified log offset at the
+        current position of the specified file.
+    */
+    static void writeRecord(RandomAccessFile out, int type, long tid, byte[] data, long start)
+        throws IOException {
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_HEAD_SIZE + data.length + RECORD_TAIL_SIZE);
+        rec.putInt(type);
+        rec.putLong(tid);
+        rec.putInt(data.length);
+        rec.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(rec.array(), 0, rec.position());
+        rec.putInt((int) crc.getValue());
+        rec.putLong(start);
+        out.write(rec.array());
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /** A record read back from the log. */
+    static class Record {
+        final int type;
+        final long tid;
+        final byte[] data;
+        final long start;
+
+        Record(int type, long tid, byte[] data, long start) {
+            this.type = type;
+            this.tid = tid;
+            this.data = data;
+            this.start = start;
+        }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+        DataInputStream in() {
+            return new DataInputStream(new ByteArrayInputStream(data));
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** Read the record that starts at the current position of the
+        specified file, leaving the position at the next record.
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        @throws EOFException if the file ends inside the record
+        @throws IOException if the record's CRC does not match
+    */
+    static Record readRecord(RandomAccessFile in) throws IOException {
+        long start = in.getFilePointer();
+        byte[] head = new byte[RECORD_HEAD_SIZE];
+        in.readFully(head);
+        ByteBuffer h = ByteBuffer.wrap(head);
+        int type = h.getInt();
+        long tid = h.getLong();
+        int length = h.getInt();
+        if (length < 0 || length > in.length() - in.getFilePointer())
+            throw new EOFException("log record at " + start + " is cut off");
+        byte[] data = new byte[length];
+        in.readFully(data);
+        byte[] tail = new byte[RECORD_TAIL_SIZE];
+        in.readFully(tail);
+
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        crc.update(data);
+        ByteBuffer t = ByteBuffer.wrap(tail);
+        if (t.getInt() != (int) crc.getValue())
+            throw new IOException("log record at " + start + " is corrupt");
+        return new Record(type, tid, data, t.getLong());
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    /** Reads the records of the log in order, from one segment to the
+        next.  The caller must hold the LogFile's monitor while it uses
+        a cursor, and close it afterwards.
+    */
+    class Cursor {
+        private long offset;
+        private long start = -1;
+        private RandomAccessFile file;
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        Cursor(long offset) {
+            this.offset = offset;
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        /** @return the next record, or null at the end of the log */
+        Record next() throws IOException {
+            if (offset >= currentOffset)
+                return null;
+            Map.Entry<Long,File> seg = segments.floorEntry(offset);
+            if (seg == null)
+                throw new IOException("log offset " + offset + " has been truncated");
+            if (seg.getKey() != start) {
+                close();
+                file = new RandomAccessFile(seg.getValue(), "r");
+                start = seg.getKey();
+            }
+            file.seek(offset - start);
+            Record r = readRecord(file);
+            offset = start + file.getFilePointer();
+            return r;
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        void close() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+                start = -1;
+            }
+        }
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    void writePageData(DataOutput out, Page p) throws IOException{
+        PageId pid = p.getId();
+        PageCodec codec = PageCodec.forPage(p);
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+        //page data is:
+        // codec tag
+        // id fields, as the codec writes them
+        // page data length
+        // page data
+        out.writeByte(codec.getTag());
+        codec.writeId(out, pid);
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
 
+    Page readPageData(DataInput in) throws IOException {
+        PageCodec codec = PageCodec.forTag(in.readUnsignedByte());
+        PageId pid = codec.readId(in);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        return codec.newPage(pid, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +612,145 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        writeRecord(BEGIN_RECORD, tid.getId(), NO_DATA);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  No pages
+        are written: the record lists the pages whose logged writes may
+        not be on disk, and the log is kept from the oldest of those
+        writes on.  The LogFile is only locked while the record is
+        appended; the forces happen outside its monitor.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            long startCpOffset;
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                lastLogged.clear();
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
+                }
+                //and the pages that may need redo
+                out.writeInt(unsynced.size());
+                for (Map.Entry<PageId,long[]> e : unsynced.entrySet()) {
+                    writePageId(out, e.getKey());
+                    out.writeLong(e.getValue()[0]);
                 }
+                out.flush();
+                //no tid , but leave space for convenience
+                startCpOffset = writeRecord(CHECKPOINT_RECORD, -1, bytes.toByteArray());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //once the CP is written, make sure the CP location in the
+            // header is updated; truncation may delete what the old
+            // one points to
+            forceLog();
+            synchronized (header) {
+                header.seek(0);
+                header.writeLong(startCpOffset);
+                header.getChannel().force(true);
             }
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
+    /** Force the log without holding this object's monitor. */
+    private void forceLog() throws IOException {
+        try {
+            channel().force(true);
+        } catch (ClosedChannelException e) {
+            // a new segment was started; the old one was forced then
+        }
+    }
+
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        PageCodec codec = PageCodec.forId(pid);
+        out.writeByte(codec.getTag());
+        codec.writeId(out, pid);
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        long cpLoc;
+        synchronized (header) {
+            header.seek(0);
+            cpLoc = header.readLong();
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return;
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+        long minLogRecord = cpLoc;
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+        HashMap<Long,Long> active = new HashMap<Long,Long>();
+        HashMap<PageId,Long> dirty = new HashMap<PageId,Long>();
+        readCheckpoint(cpLoc, active, dirty);
+        for (long firstLogRecord : active.values())
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        for (long recLSN : dirty.values())
+            minLogRecord = Math.min(minLogRecord, recLSN);
+
+        // we can drop every segment that ends before minLogRecord; a
+        // segment ends where the next one starts
+        while (segments.size() > 1) {
+            long first = segments.firstKey();
+            if (segments.higherKey(first) > minLogRecord)
+                break;
+            File seg = segments.remove(first);
+            if (!seg.delete())
+                Debug.log("could not delete log segment " + seg);
+        }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        Debug.log("TRUNCATED LOG; NEW START : " + segments.firstKey() + " SEGMENTS: " + segments.size());
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** Read the checkpoint record at the specified offset.
 
-            } catch (EOFException e) {
-                break;
-            }
+        @param active receives the transactions that were live, each
+        with the offset of its first record
+        @param dirty receives the pages whose logged writes might not
+        have been on disk, each with the offset of the first such write
+    */
+    private void readCheckpoint(long offset, Map<Long,Long> active,
+                                Map<PageId,Long> dirty) throws IOException {
+        Cursor c = new Cursor(offset);
+        Record cp;
+        try {
+            cp = c.next();
+        } finally {
+            c.close();
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        DataInputStream in = cp.in();
+        int numOutstanding = in.readInt();
+        for (int i = 0; i < numOutstanding; i++) {
+            long tid = in.readLong();
+            active.put(tid, in.readLong());
+        }
+        int numPages = in.readInt();
+        for (int i = 0; i < numPages; i++) {
+            PageId pid = PageCodec.forTag(in.readUnsignedByte()).readId(in);
+            dirty.put(pid, in.readLong());
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -466,11 +766,84 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+
+                undo(Collections.singleton(tid.getId()), first);
             }
         }
     }
 
+    /** Undo the updates of the specified transactions, from their last
+        record back to their first, and force the pages they restored.
+        The caller must hold the LogFile's monitor.
+
+        @param tids the transactions to undo; no two of them may have
+        updated the same page
+        @param first the offset of their first record
+    */
+    private void undo(Set<Long> tids, long first) throws IOException {
+        // the updates of each page, in log order
+        HashMap<PageId,List<Record>> updates = new HashMap<PageId,List<Record>>();
+        Cursor c = new Cursor(first);
+        try {
+            Record r;
+            while ((r = c.next()) != null) {
+                if ((r.type == UPDATE_RECORD || r.type == DELTA_RECORD) && tids.contains(r.tid)) {
+                    DataInputStream in = r.in();
+                    PageId pid = PageCodec.forTag(in.readUnsignedByte()).readId(in);
+                    List<Record> l = updates.get(pid);
+                    if (l == null) {
+                        l = new ArrayList<Record>();
+                        updates.put(pid, l);
+                    }
+                    l.add(r);
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        // undo each page's updates from the last back to its full
+        // UPDATE record, whose before image ends the undo, or to the
+        // first, starting from the page as it is on disk
+        HashSet<Integer> tables = new HashSet<Integer>();
+        for (Map.Entry<PageId,List<Record>> e : updates.entrySet()) {
+            PageId pid = e.getKey();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            List<Record> l = e.getValue();
+            PageCodec codec = null;
+            byte[] image = null;
+            for (int i = l.size() - 1; i >= 0; i--) {
+                DataInputStream in = l.get(i).in();
+                codec = PageCodec.forTag(in.readUnsignedByte());
+                codec.readId(in);
+                int length = in.readInt();
+                if (l.get(i).type == UPDATE_RECORD) {
+                    image = new byte[length];
+                    in.readFully(image);
+                    break;
+                } else {
+                    if (image == null)
+                        image = file.readPage(pid).getPageData();
+                    PageDelta.apply(in, image, true);
+                }
+            }
+            file.writePage(codec.newPage(pid, image));
+            Database.getBufferPool().discardPage(pid);
+            // the page's next record must not be a delta against a write
+            // that was undone
+            lastLogged.remove(pid);
+            tables.add(pid.getTableId());
+        }
+
+        // the undo has to be on disk before the ABORT record, or
+        // recovery could redo the updates it undid
+        for (int tableId : tables)
+            BufferPool.forceFile(Database.getCatalog().getDatabaseFile(tableId));
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -479,6 +852,7 @@ public class LogFile {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
+            header.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,14 +862,196 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery makes three passes over the log: analysis, from the
+        last checkpoint (see analyze()); redo of the committed writes
+        that may not be on disk, replayed on several threads (see
+        redo()); and undo of the transactions that never ended, which
+        are then logged as aborted.  The amount of log replayed
+        depends on how far back the checkpoint's oldest unsynced write
+        is, not on the length of the log.  Pages carry no LSN, so a
+        page is known to be current on disk when the checkpoint does
+        not list it, or when its replayed image equals what is on
+        disk; such pages are not written.  A checkpoint is taken once
+        recovery is done.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                synchronized (header) {
+                    if (header.length() >= HEADER_SIZE) {
+                        header.seek(LONG_SIZE);
+                        int version = header.readInt();
+                        if (version != FORMAT_VERSION)
+                            throw new IOException("log has format version " + version
+                                    + ", expected " + FORMAT_VERSION);
+                    } else {
+                        header.setLength(0);
+                        header.writeLong(NO_CHECKPOINT_ID);
+                        header.writeInt(FORMAT_VERSION);
+                    }
+                }
+                openTail();
+                analyze();
+                redo();
+                if (!recoveryLosers.isEmpty()) {
+                    undo(recoveryLosers.keySet(), Collections.min(recoveryLosers.values()));
+                    for (long tid : recoveryLosers.keySet())
+                        writeRecord(ABORT_RECORD, tid, NO_DATA);
+                    force();
+                }
+                recoveryCommitted = null;
+                recoveryDirty = null;
+                recoveryLosers = null;
+            }
+        }
+
+        // so the next recovery does not replay the same pages again
+        logCheckpoint();
+    }
+
+    /** Analysis pass of recover(): read the last checkpoint and every
+        record from the oldest one it still needs, and find out which
+        transactions committed, which never ended, and which pages may
+        have logged writes that are not on disk.  A record that was
+        torn or damaged by the crash ends the log; the tail segment is
+        cut off before it.
+    */
+    private void analyze() throws IOException {
+        long cpLoc;
+        synchronized (header) {
+            header.seek(0);
+            cpLoc = header.readLong();
+        }
+
+        // transactions that have not ended, by their first record
+        HashMap<Long,Long> active = new HashMap<Long,Long>();
+        recoveryDirty = new HashMap<PageId,Long>();
+        recoveryCommitted = new HashSet<Long>();
+        long start = segments.firstKey();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            readCheckpoint(cpLoc, active, recoveryDirty);
+            start = cpLoc;
+            for (long first : active.values())
+                start = Math.min(start, first);
+            for (long recLSN : recoveryDirty.values())
+                start = Math.min(start, recLSN);
+        }
+
+        Cursor c = new Cursor(start);
+        try {
+            while (true) {
+                long at = c.offset;
+                Record r;
+                try {
+                    r = c.next();
+                } catch (IOException e) {
+                    if (at < segmentStart)
+                        throw e;
+                    Debug.log("log ends in a damaged record at %d: %s", at, e.getMessage());
+                    raf.setLength(at - segmentStart);
+                    currentOffset = at;
+                    break;
+                }
+                if (r == null)
+                    break;
+                switch (r.type) {
+                case BEGIN_RECORD:
+                    if (!active.containsKey(r.tid))
+                        active.put(r.tid, r.start);
+                    break;
+                case COMMIT_RECORD:
+                    recoveryCommitted.add(r.tid);
+                    active.remove(r.tid);
+                    break;
+                case ABORT_RECORD:
+                    active.remove(r.tid);
+                    break;
+                case UPDATE_RECORD:
+                case DELTA_RECORD:
+                    // writes before the checkpoint are on disk unless it
+                    // says otherwise
+                    if (r.start >= cpLoc) {
+                        DataInputStream in = r.in();
+                        PageId pid = PageCodec.forTag(in.readUnsignedByte()).readId(in);
+                        if (!recoveryDirty.containsKey(pid))
+                            recoveryDirty.put(pid, r.start);
+                    }
+                    break;
+                }
             }
-         }
+        } finally {
+            c.close();
+        }
+
+        recoveryLosers = active;
+    }
+
+    /** Redo pass of recover(): replay the writes of committed
+        transactions to the pages that may not have them on disk, from
+        the first such write on.  Pages are replayed on
+        getRecoveryThreads() threads, each page in log order by one of
+        them (see ParallelRedo).  Aborted transactions are not replayed,
+        since their rollback was forced before their ABORT record;
+        transactions that never ended are undone afterwards.
+    */
+    private void redo() throws IOException {
+        pagesRedone = 0;
+        pagesRedoSkipped = 0;
+        if (recoveryDirty.isEmpty())
+            return;
+        long start = Long.MAX_VALUE;
+        for (long recLSN : recoveryDirty.values())
+            start = Math.min(start, recLSN);
+
+        ParallelRedo workers = new ParallelRedo(recoveryThreads);
+        Cursor c = new Cursor(start);
+        try {
+            Record r;
+            while ((r = c.next()) != null) {
+                if ((r.type != UPDATE_RECORD && r.type != DELTA_RECORD)
+                        || !recoveryCommitted.contains(r.tid))
+                    continue;
+                DataInputStream in = r.in();
+                PageId pid = PageCodec.forTag(in.readUnsignedByte()).readId(in);
+                Long recLSN = recoveryDirty.get(pid);
+                if (recLSN != null && r.start >= recLSN)
+                    workers.replay(pid, r);
+            }
+        } finally {
+            c.close();
+            for (PageId pid : workers.finish())
+                Database.getBufferPool().discardPage(pid);
+        }
+        pagesRedone = workers.getPagesWritten();
+        pagesRedoSkipped = workers.getPagesSkipped();
+        Debug.log("REDO: %d pages written, %d already current", pagesRedone, pagesRedoSkipped);
+    }
+
+    /** Sets the number of threads recover() replays pages on. */
+    public void setRecoveryThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("bad thread count " + threads);
+        recoveryThreads = threads;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /** Continue appending at the end of the last segment, or in a new
+        one if there is none.
+    */
+    private void openTail() throws IOException {
+        if (segments.isEmpty()) {
+            startSegment(0);
+            return;
+        }
+        Map.Entry<Long,File> last = segments.lastEntry();
+        raf = new RandomAccessFile(last.getValue(), "rw");
+        segmentStart = last.getKey();
+        currentOffset = segmentStart + raf.length();
     }
 
     /** Print out a human readable represenation of the log */
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The victim is the page
+ * whose K-th most recent reference lies furthest in the past.  Pages with
+ * fewer than K references have an infinite backward K-distance and go first,
+ * oldest last reference first, so a page touched once by a scan never
+ * displaces a page that is referenced repeatedly.
+ * <p>
+ * Reference history of evicted pages is retained for a while, so a page
+ * that comes back soon after being evicted keeps its history.  Hits and
+ * victim selection are O(log n) in the pool size.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** K used by {@link EvictionPolicy.Kind#LRU_K}. */
+    public static final int DEFAULT_K = 2;
+
+    private static class Entry {
+        final PageId pid;
+        final long[] history; // most recent reference first, 0 if unused
+        final long seq;
+
+        Entry(PageId pid, long[] history, long seq) {
+            this.pid = pid;
+            this.history = history;
+            this.seq = seq;
+        }
+
+        long kthReference() {
+            return history[history.length - 1];
+        }
+    }
+
+    private static final Comparator<Entry> BACKWARD_K_DISTANCE = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            if (a.kthReference() != b.kthReference())
+                return a.kthReference() < b.kthReference() ? -1 : 1;
+            if (a.history[0] != b.history[0])
+                return a.history[0] < b.history[0] ? -1 : 1;
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    private final int m_k;
+    private final int m_retainedCapacity;
+    private final HashMap<PageId, Entry> m_resident;
+    private final TreeSet<Entry> m_order;
+    private final LinkedHashMap<PageId, long[]> m_retained;
+    private long m_clock;
+    private long m_seq;
+
+    /**
+     * @param capacity the number of pages the BufferPool can hold
+     * @param k how many past references are tracked per page
+     */
+    public LruKEvictionPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        m_k = k;
+        m_retainedCapacity = Math.max(1, capacity);
+        m_resident = new HashMap<PageId, Entry>();
+        m_order = new TreeSet<Entry>(BACKWARD_K_DISTANCE);
+        m_retained = new LinkedHashMap<PageId, long[]>();
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (m_resident.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        long[] history = m_retained.remove(pid);
+        if (history == null)
+            history = new long[m_k];
+        reference(new Entry(pid, history, m_seq++));
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Entry e = m_resident.get(pid);
+        if (e == null)
+            return;
+        m_order.remove(e);
+        reference(new Entry(pid, e.history, e.seq));
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Entry e = m_resident.remove(pid);
+        if (e == null)
+            return;
+        m_order.remove(e);
+        m_retained.put(pid, e.history);
+        if (m_retained.size() > m_retainedCapacity) {
+            Iterator<PageId> it = m_retained.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(VictimFilter filter) {
+        for (Entry e : m_order) {
+            if (filter.canEvict(e.pid))
+                return e.pid;
+        }
+        return null;
+    }
+
+    // shifts the history of e and re-inserts it; e must not be in m_order
+    private void reference(Entry e) {
+        System.arraycopy(e.history, 0, e.history, 1, m_k - 1);
+        e.history[0] = ++m_clock;
+        m_resident.put(e.pid, e);
+        m_order.add(e);
+    }
+}
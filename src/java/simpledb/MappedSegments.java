@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedSegments maps a HeapFile into memory as a sequence of fixed-size,
+ * read-only MappedByteBuffer segments and hands out page-sized views of
+ * them.  A segment is mapped on first use and remapped when the file has
+ * grown past the end of its current mapping, so pages appended to the file
+ * become visible without remapping the rest of it.
+ *
+ * @see HeapFile#setMemoryMapped
+ */
+class MappedSegments {
+
+    /** Bytes covered by one mapping, rounded down to whole pages. */
+    static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private final int m_pageSize;
+    private final long m_segmentSize;
+    private final ArrayList<MappedByteBuffer> m_segments;
+
+    MappedSegments(int pageSize, long segmentSize) {
+        m_pageSize = pageSize;
+        m_segmentSize = Math.max(1, segmentSize / pageSize) * pageSize;
+        m_segments = new ArrayList<MappedByteBuffer>();
+    }
+
+    /**
+     * Returns a read-only view of the specified page, whose position 0 is
+     * the first byte of the page.
+     *
+     * @return the view, or null if the page lies past the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    synchronized ByteBuffer page(FileChannel ch, int pageNo) throws IOException {
+        long offset = (long)m_pageSize * pageNo;
+        int seg = (int)(offset / m_segmentSize);
+        int within = (int)(offset % m_segmentSize);
+
+        MappedByteBuffer mapping = seg < m_segments.size() ? m_segments.get(seg) : null;
+        if (mapping == null || mapping.capacity() < within + m_pageSize) {
+            long start = seg * m_segmentSize;
+            long fileLen = ch.size();
+            if (fileLen < offset + m_pageSize)
+                return null;
+            mapping = ch.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(m_segmentSize, fileLen - start));
+            while (m_segments.size() <= seg)
+                m_segments.add(null);
+            m_segments.set(seg, mapping);
+        }
+
+        ByteBuffer view = mapping.duplicate();
+        view.position(within);
+        view.limit(within + m_pageSize);
+        return view.slice();
+    }
+
+    /** Drops all mappings; they are released once no page refers to them. */
+    synchronized void clear() {
+        m_segments.clear();
+    }
+}
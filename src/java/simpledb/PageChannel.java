@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel reads and writes the fixed-size pages of a file through one
+ * FileChannel, opened on first use.  Reads and writes are positional, so
+ * threads working on different pages do not take turns for the channel.
+ * <p>
+ * A file that cannot be opened for writing is opened read-only, so that
+ * read-only tables can be scanned; it is opened again for writing when a
+ * page is first written.
+ *
+ * @see PageFile
+ */
+class PageChannel {
+
+    private final File m_file;
+
+    private FileChannel m_channel;
+    private boolean m_writable;
+    // a read-only channel replaced by a writable one; pages may still be
+    // read through it, so it is closed with the file
+    private FileChannel m_readOnly;
+
+    PageChannel(File f) {
+        m_file = f;
+    }
+
+    /** @return the channel to read through, opened if it is not open */
+    synchronized FileChannel channel() throws IOException {
+        if (m_channel == null || !m_channel.isOpen()) {
+            try {
+                m_channel = new RandomAccessFile(m_file, "rw").getChannel();
+                m_writable = true;
+            } catch (FileNotFoundException e) {
+                if (!m_file.exists())
+                    throw e;
+                m_channel = new RandomAccessFile(m_file, "r").getChannel();
+                m_writable = false;
+            }
+        }
+        return m_channel;
+    }
+
+    // the channel to write through, opened for writing if it is not
+    private synchronized FileChannel writableChannel() throws IOException {
+        FileChannel ch = channel();
+        if (!m_writable) {
+            ch = new RandomAccessFile(m_file, "rw").getChannel();
+            m_readOnly = m_channel;
+            m_channel = ch;
+            m_writable = true;
+        }
+        return ch;
+    }
+
+    /**
+     * Reads the specified page into a buffer as long as a page.
+     *
+     * @throws IllegalArgumentException if the page is past the end of the
+     *   file
+     */
+    void read(int pgNo, byte[] b) throws IOException {
+        long offset = (long) b.length * pgNo;
+        ByteBuffer buf = ByteBuffer.wrap(b);
+        FileChannel ch = channel();
+        // positional reads may return less than asked for
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0)
+                throw new IllegalArgumentException("page " + pgNo
+                        + " is past the end of " + m_file);
+        }
+    }
+
+    /** Writes the image of the specified page. */
+    void write(int pgNo, byte[] data) throws IOException {
+        long offset = (long) data.length * pgNo;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = writableChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Writes the images of consecutive pages with one gathered write.
+     *
+     * @param firstPgNo the number of the page data[0] belongs to
+     * @param data the page images, one per page
+     */
+    void write(int firstPgNo, byte[][] data) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[data.length];
+        for (int i = 0; i < data.length; i++)
+            bufs[i] = ByteBuffer.wrap(data[i]);
+        FileChannel ch = writableChannel();
+        // the channel's position is shared, so gathered writes take turns
+        synchronized (ch) {
+            ch.position((long) data[0].length * firstPgNo);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                ch.write(bufs);
+            }
+        }
+    }
+
+    /** Forces the pages written to the file to disk. */
+    void force() throws IOException {
+        FileChannel ch;
+        synchronized (this) {
+            // nothing was written through a read-only channel
+            if (!m_writable)
+                return;
+            ch = channel();
+        }
+        ch.force(true);
+    }
+
+    /** Closes the channel.  It is reopened if the file is accessed again. */
+    synchronized void close() throws IOException {
+        if (m_readOnly != null) {
+            m_readOnly.close();
+            m_readOnly = null;
+        }
+        if (m_channel != null) {
+            m_channel.close();
+            m_channel = null;
+        }
+        m_writable = false;
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodec writes the id of one kind of page to the log and builds pages
+ * of that kind from their logged data, so that the log can store a page
+ * image under a small integer tag instead of class names.
+ * <p>
+ * Each Page class that may appear in the log registers one codec with
+ * {@link #register}; HeapPage, the BTreePage and the HashPage classes are
+ * registered here.
+ */
+public abstract class PageCodec {
+
+    /** Tag of the HeapPage codec. */
+    public static final int HEAP_PAGE = 1;
+
+    /** Tags of the BTreePage codecs. */
+    public static final int BTREE_ROOT_PTR_PAGE = 2;
+    public static final int BTREE_INTERNAL_PAGE = 3;
+    public static final int BTREE_LEAF_PAGE = 4;
+    public static final int BTREE_HEADER_PAGE = 5;
+
+    /** Tags of the HashPage codecs. */
+    public static final int HASH_HEADER_PAGE = 6;
+    public static final int HASH_DIRECTORY_PAGE = 7;
+    public static final int HASH_BUCKET_PAGE = 8;
+
+    private static final ConcurrentHashMap<Integer, PageCodec> BY_TAG =
+        new ConcurrentHashMap<Integer, PageCodec>();
+    private static final ConcurrentHashMap<Class<?>, PageCodec> BY_CLASS =
+        new ConcurrentHashMap<Class<?>, PageCodec>();
+    private static final ConcurrentHashMap<Class<?>, PageCodec> BY_ID_CLASS =
+        new ConcurrentHashMap<Class<?>, PageCodec>();
+
+    static {
+        register(new PageCodec(HEAP_PAGE, HeapPage.class, HeapPageId.class) {
+            public void writeId(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.pageNumber());
+            }
+
+            public PageId readId(DataInput in) throws IOException {
+                int tableId = in.readInt();
+                return new HeapPageId(tableId, in.readInt());
+            }
+
+            public Page newPage(PageId pid, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        register(new BTreeCodec(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class));
+        register(new BTreeCodec(BTREE_INTERNAL_PAGE, BTreeInternalPage.class));
+        register(new BTreeCodec(BTREE_LEAF_PAGE, BTreeLeafPage.class));
+        register(new BTreeCodec(BTREE_HEADER_PAGE, BTreeHeaderPage.class));
+        register(new HashCodec(HASH_HEADER_PAGE, HashHeaderPage.class));
+        register(new HashCodec(HASH_DIRECTORY_PAGE, HashDirectoryPage.class));
+        register(new HashCodec(HASH_BUCKET_PAGE, HashBucketPage.class));
+    }
+
+    // a BTreePage says which kind it is itself, so the codecs of all
+    // kinds build pages the same way
+    private static class BTreeCodec extends PageCodec {
+        BTreeCodec(int tag, Class<? extends BTreePage> pageClass) {
+            super(tag, pageClass, BTreePageId.class);
+        }
+
+        public void writeId(DataOutput out, PageId pid) throws IOException {
+            out.writeInt(pid.getTableId());
+            out.writeInt(pid.pageNumber());
+        }
+
+        public PageId readId(DataInput in) throws IOException {
+            int tableId = in.readInt();
+            return new BTreePageId(tableId, in.readInt());
+        }
+
+        public Page newPage(PageId pid, byte[] data) throws IOException {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (!(file instanceof BTreeFile))
+                throw new IOException("table " + pid.getTableId() + " is not a B+ tree");
+            return BTreePage.createPage((BTreePageId) pid, data, ((BTreeFile) file).keyField());
+        }
+    }
+
+    // likewise for the kinds of HashPage
+    private static class HashCodec extends PageCodec {
+        HashCodec(int tag, Class<? extends HashPage> pageClass) {
+            super(tag, pageClass, HashPageId.class);
+        }
+
+        public void writeId(DataOutput out, PageId pid) throws IOException {
+            out.writeInt(pid.getTableId());
+            out.writeInt(pid.pageNumber());
+        }
+
+        public PageId readId(DataInput in) throws IOException {
+            int tableId = in.readInt();
+            return new HashPageId(tableId, in.readInt());
+        }
+
+        public Page newPage(PageId pid, byte[] data) throws IOException {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (!(file instanceof HashFile))
+                throw new IOException("table " + pid.getTableId() + " is not a hash file");
+            return HashPage.createPage((HashPageId) pid, data, ((HashFile) file).keyField());
+        }
+    }
+
+    private final int m_tag;
+    private final Class<? extends Page> m_pageClass;
+    private final Class<? extends PageId> m_idClass;
+
+    /**
+     * @param tag the number the log stores for pages of this kind; at
+     *   most 255
+     * @param pageClass the class of the pages this codec handles
+     * @param idClass the class of their ids
+     */
+    protected PageCodec(int tag, Class<? extends Page> pageClass,
+            Class<? extends PageId> idClass) {
+        if (tag <= 0 || tag > 255)
+            throw new IllegalArgumentException("bad page codec tag " + tag);
+        m_tag = tag;
+        m_pageClass = pageClass;
+        m_idClass = idClass;
+    }
+
+    public final int getTag() {
+        return m_tag;
+    }
+
+    public final Class<? extends Page> getPageClass() {
+        return m_pageClass;
+    }
+
+    /** Writes the fields of the specified page's id. */
+    public abstract void writeId(DataOutput out, PageId pid) throws IOException;
+
+    /** Reads a page id written by writeId. */
+    public abstract PageId readId(DataInput in) throws IOException;
+
+    /** Builds a page from the data its getPageData returned. */
+    public abstract Page newPage(PageId pid, byte[] data) throws IOException;
+
+    /**
+     * Registers a codec.
+     *
+     * @throws IllegalArgumentException if its tag or page class has a
+     *   codec already
+     */
+    public static void register(PageCodec codec) {
+        PageCodec old = BY_TAG.putIfAbsent(codec.m_tag, codec);
+        if (old != null)
+            throw new IllegalArgumentException("page codec tag " + codec.m_tag
+                    + " is taken by " + old.m_pageClass.getName());
+        old = BY_CLASS.putIfAbsent(codec.m_pageClass, codec);
+        if (old != null) {
+            BY_TAG.remove(codec.m_tag);
+            throw new IllegalArgumentException(codec.m_pageClass.getName()
+                    + " has a page codec already");
+        }
+        BY_ID_CLASS.putIfAbsent(codec.m_idClass, codec);
+    }
+
+    /**
+     * @return the codec for pages of the specified page's class
+     * @throws IOException if there is none
+     */
+    public static PageCodec forPage(Page p) throws IOException {
+        PageCodec c = BY_CLASS.get(p.getClass());
+        if (c == null)
+            throw new IOException("no page codec for " + p.getClass().getName());
+        return c;
+    }
+
+    /**
+     * @return the codec for pages with ids of the specified id's class
+     * @throws IOException if there is none
+     */
+    public static PageCodec forId(PageId pid) throws IOException {
+        PageCodec c = BY_ID_CLASS.get(pid.getClass());
+        if (c == null)
+            throw new IOException("no page codec for " + pid.getClass().getName());
+        return c;
+    }
+
+    /**
+     * @return the codec with the specified tag
+     * @throws IOException if there is none
+     */
+    public static PageCodec forTag(int tag) throws IOException {
+        PageCodec c = BY_TAG.get(tag);
+        if (c == null)
+            throw new IOException("no page codec with tag " + tag);
+        return c;
+    }
+}
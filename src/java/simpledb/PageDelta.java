@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PageDelta encodes the difference between two images of a page as the
+ * byte ranges that changed, with the old and the new contents of each.
+ * Ranges closer together than {@link #MIN_GAP} bytes are merged, since a
+ * range costs two ints of its own.
+ * <p>
+ * The encoding is an int count of ranges followed by, for each range, its
+ * int offset and length, the bytes before and the bytes after.
+ */
+class PageDelta {
+
+    static final int MIN_GAP = 8;
+
+    private PageDelta() {
+    }
+
+    /** Writes the ranges in which the two images differ. */
+    static void write(DataOutput out, byte[] before, byte[] after) throws IOException {
+        if (before.length != after.length)
+            throw new IOException("page images differ in size");
+        // first collect [start, end) pairs, then write them
+        int[] ranges = new int[16];
+        int n = 0;
+        int i = 0;
+        while (i < before.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // the range grows while the next difference is near its end
+            for (int j = end; j < before.length && j < end + MIN_GAP; j++) {
+                if (before[j] != after[j])
+                    end = j + 1;
+            }
+            if (n + 2 > ranges.length) {
+                int[] bigger = new int[ranges.length * 2];
+                System.arraycopy(ranges, 0, bigger, 0, n);
+                ranges = bigger;
+            }
+            ranges[n++] = start;
+            ranges[n++] = end;
+            i = end;
+        }
+
+        out.writeInt(n / 2);
+        for (int r = 0; r < n; r += 2) {
+            int start = ranges[r];
+            int length = ranges[r + 1] - start;
+            out.writeInt(start);
+            out.writeInt(length);
+            out.write(before, start, length);
+            out.write(after, start, length);
+        }
+    }
+
+    /**
+     * Copies the old (undo) or the new (redo) contents of every range of
+     * a delta into the specified image.
+     */
+    static void apply(DataInput in, byte[] image, boolean undo) throws IOException {
+        int count = in.readInt();
+        while (count-- > 0) {
+            int start = in.readInt();
+            int length = in.readInt();
+            if (start < 0 || length < 0 || start + length > image.length)
+                throw new IOException("page delta range out of bounds");
+            if (undo) {
+                in.readFully(image, start, length);
+                in.skipBytes(length);
+            } else {
+                in.skipBytes(length);
+                in.readFully(image, start, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A DbFile whose pages are written to a file on disk, which the BufferPool
+ * forces when it syncs the pages it wrote.
+ */
+public interface PageFile extends DbFile {
+
+    /**
+     * Forces the pages written to this file to disk.
+     */
+    public void force() throws IOException;
+}
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelRedo replays logged page writes on several threads during
+ * recovery.  Records are handed to the workers by page, so all the records
+ * of a page are replayed by one worker in the order they were logged,
+ * while the pages of different workers are replayed at the same time.
+ * <p>
+ * A worker keeps an image of each of its pages while records are replayed,
+ * starting from the page as it is on disk, and at the end writes back only
+ * the pages whose image differs from what is on disk.  The files written
+ * to are forced before {@link #finish} returns.
+ */
+class ParallelRedo {
+
+    // shared by all recoveries; threads are created as they need them
+    private static final ExecutorService WORKERS = Daemons.newPool("redo");
+
+    /** Records a worker may have queued before the log reader waits. */
+    static final int QUEUE_SIZE = 1024;
+
+    private static class Item {
+        final PageId pid;
+        final LogFile.Record record;
+
+        Item(PageId pid, LogFile.Record record) {
+            this.pid = pid;
+            this.record = record;
+        }
+    }
+
+    // marks the end of a worker's records
+    private static final Item END = new Item(null, null);
+
+    private final List<BlockingQueue<Item>> m_queues = new ArrayList<BlockingQueue<Item>>();
+    private final List<Future<Void>> m_workers = new ArrayList<Future<Void>>();
+
+    private final Set<PageId> m_replayed =
+        Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+    private final Set<Integer> m_tables =
+        Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final AtomicInteger m_written = new AtomicInteger();
+    private final AtomicInteger m_skipped = new AtomicInteger();
+
+    private boolean m_finished;
+
+    /**
+     * Starts the specified number of workers.
+     */
+    ParallelRedo(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("bad thread count " + threads);
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+            m_queues.add(queue);
+            m_workers.add(WORKERS.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    replayAll(queue);
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Queues an UPDATE or DELTA record of the specified page.  The
+     * records of a page must be queued in log order.
+     */
+    void replay(PageId pid, LogFile.Record record) throws IOException {
+        BlockingQueue<Item> queue = m_queues.get((pid.hashCode() & 0x7fffffff) % m_queues.size());
+        try {
+            queue.put(new Item(pid, record));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing redo");
+        }
+    }
+
+    /**
+     * Waits for the workers to replay every queued record, then forces
+     * the files they wrote to.
+     *
+     * @return the pages that records were replayed for
+     * @throws IOException if a worker failed to replay a record
+     */
+    Set<PageId> finish() throws IOException {
+        if (!m_finished) {
+            m_finished = true;
+            IOException failure = null;
+            try {
+                for (BlockingQueue<Item> queue : m_queues)
+                    queue.put(END);
+                for (Future<Void> f : m_workers) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null)
+                            failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("redo failed", e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for redo");
+            }
+            if (failure != null)
+                throw failure;
+            for (int tableId : m_tables)
+                BufferPool.forceFile(Database.getCatalog().getDatabaseFile(tableId));
+        }
+        return m_replayed;
+    }
+
+    /** @return the number of pages written back so far */
+    int getPagesWritten() {
+        return m_written.get();
+    }
+
+    /** @return the number of replayed pages that were current on disk */
+    int getPagesSkipped() {
+        return m_skipped.get();
+    }
+
+    private void replayAll(BlockingQueue<Item> queue) throws IOException {
+        HashMap<PageId, byte[]> images = new HashMap<PageId, byte[]>();
+        HashMap<PageId, byte[]> onDisk = new HashMap<PageId, byte[]>();
+        HashMap<PageId, PageCodec> codecs = new HashMap<PageId, PageCodec>();
+        IOException failure = null;
+        while (true) {
+            Item item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while replaying the log");
+            }
+            if (item == END)
+                break;
+            // after a failure the queue is drained, so the log reader
+            // never waits for a worker that stopped
+            if (failure != null)
+                continue;
+            try {
+                DataInputStream in = item.record.in();
+                PageCodec codec = PageCodec.forTag(in.readUnsignedByte());
+                codec.readId(in);
+                int length = in.readInt();
+                if (!onDisk.containsKey(item.pid)) {
+                    DbFile file;
+                    try {
+                        file = Database.getCatalog().getDatabaseFile(item.pid.getTableId());
+                    } catch (NoSuchElementException e) {
+                        Debug.log("redo: no table %d, skipping its pages", item.pid.getTableId());
+                        continue;
+                    }
+                    byte[] disk = readImage(file, item.pid, length);
+                    onDisk.put(item.pid, disk);
+                    images.put(item.pid, disk.clone());
+                    codecs.put(item.pid, codec);
+                }
+                byte[] image = images.get(item.pid);
+                if (image == null)
+                    continue;
+                if (item.record.type == LogFile.UPDATE_RECORD) {
+                    // skip the before image for the after image
+                    in.skipBytes(length);
+                    PageCodec.forTag(in.readUnsignedByte()).readId(in);
+                    image = new byte[in.readInt()];
+                    in.readFully(image);
+                    images.put(item.pid, image);
+                } else {
+                    PageDelta.apply(in, image, false);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+
+        for (Map.Entry<PageId, byte[]> e : images.entrySet()) {
+            PageId pid = e.getKey();
+            m_replayed.add(pid);
+            if (Arrays.equals(e.getValue(), onDisk.get(pid))) {
+                m_skipped.incrementAndGet();
+                continue;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(codecs.get(pid).newPage(pid, e.getValue()));
+            m_tables.add(pid.getTableId());
+            m_written.incrementAndGet();
+        }
+    }
+
+    // the page as it is on disk, or an empty page if it never got there
+    private static byte[] readImage(DbFile file, PageId pid, int length) {
+        try {
+            Page p = file.readPage(pid);
+            if (p != null)
+                return p.getPageData();
+        } catch (IllegalArgumentException e) {
+            // past the end of the file
+        }
+        return new byte[length];
+    }
+}
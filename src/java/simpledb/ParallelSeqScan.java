@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ParallelSeqScan is a sequential scan that reads a HeapFile with several
+ * worker threads.  The file's page range is cut into morsels of
+ * {@link #MORSEL_PAGES} consecutive pages; each worker repeatedly claims
+ * the next unclaimed morsel, fetches its pages through the BufferPool and
+ * hands the decoded tuples to the consuming thread through a bounded
+ * exchange queue.  Tuples are returned in no particular order.
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 8;
+
+    // shared by all parallel scans; threads are created as scans need them
+    private static final ExecutorService WORKERS = Daemons.newPool("scan");
+
+    // marks the end of one worker's output in the exchange queue
+    private static final List<Tuple> END = new ArrayList<Tuple>();
+
+    private final TransactionId m_tid;
+    private final int m_tableid;
+    private final String m_tableAlias;
+    private final HeapFile m_file;
+    private final int m_parallelism;
+
+    private transient BlockingQueue<List<Tuple>> m_queue;
+    private transient Iterator<Tuple> m_chunk;
+    private transient int m_finished;
+    // set when the current run is closed; each open() starts a new run
+    private transient AtomicBoolean m_cancelled;
+    private transient AtomicReference<Exception> m_failure;
+
+    /**
+     * Creates a parallel scan over the specified table.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan; it must be stored in a HeapFile
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     * @param parallelism the number of worker threads
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("parallel scans need a HeapFile");
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+        m_tid = tid;
+        m_tableid = tableid;
+        m_tableAlias = tableAlias;
+        m_file = (HeapFile) f;
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Creates a parallel scan with one worker per available processor.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @return the name of the table this scan reads */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_tableid);
+    }
+
+    /** @return the alias of the table this scan reads */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        final int numPages = m_file.numPages();
+        final AtomicInteger nextMorsel = new AtomicInteger();
+        final BufferRing ring = numPages > Database.getBufferPool().getNumPages()
+                ? new BufferRing(Math.max(BufferRing.DEFAULT_SIZE, 2 * m_parallelism)) : null;
+
+        m_queue = new ArrayBlockingQueue<List<Tuple>>(4 * m_parallelism);
+        m_chunk = null;
+        m_finished = 0;
+        m_cancelled = new AtomicBoolean();
+        m_failure = new AtomicReference<Exception>();
+
+        for (int i = 0; i < m_parallelism; i++) {
+            final BlockingQueue<List<Tuple>> queue = m_queue;
+            final AtomicBoolean cancelled = m_cancelled;
+            final AtomicReference<Exception> failure = m_failure;
+            WORKERS.execute(new Runnable() {
+                public void run() {
+                    try {
+                        int first;
+                        while (!cancelled.get()
+                                && (first = nextMorsel.getAndIncrement() * MORSEL_PAGES) < numPages) {
+                            int last = Math.min(first + MORSEL_PAGES, numPages);
+                            for (int pg = first; pg < last && !cancelled.get(); pg++)
+                                put(queue, cancelled, readPage(pg, ring));
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        put(queue, cancelled, END);
+                    }
+                }
+            });
+        }
+    }
+
+    private List<Tuple> readPage(int pgNo, BufferRing ring)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(m_file.getId(), pgNo);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_tid, pid,
+                Permissions.READ_ONLY, ring);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    // blocks until there is room, unless the scan is closed meanwhile
+    private static void put(BlockingQueue<List<Tuple>> queue, AtomicBoolean cancelled,
+            List<Tuple> chunk) {
+        try {
+            while (!cancelled.get() && !queue.offer(chunk, 10, TimeUnit.MILLISECONDS))
+                ;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (m_queue == null)
+            return false;
+        while (m_chunk == null || !m_chunk.hasNext()) {
+            if (m_finished == m_parallelism) {
+                rethrowFailure();
+                return false;
+            }
+            List<Tuple> chunk;
+            try {
+                chunk = m_queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for scan workers");
+            }
+            if (chunk == END) {
+                m_finished++;
+                m_chunk = null;
+            } else {
+                m_chunk = chunk.iterator();
+            }
+        }
+        return true;
+    }
+
+    private void rethrowFailure() throws DbException, TransactionAbortedException {
+        Exception e = m_failure.get();
+        if (e == null)
+            return;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        throw new DbException("scan worker failed: " + e);
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return m_chunk.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_file.getTupleDesc();
+    }
+
+    public void close() {
+        if (m_cancelled != null)
+            m_cancelled.set(true);
+        if (m_queue != null)
+            m_queue.clear();
+        m_queue = null;
+        m_chunk = null;
+    }
+}
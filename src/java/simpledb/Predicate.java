@@ -44,6 +44,10 @@ public class Predicate implements Serializable {
 
     }
     
+    private final int m_field;
+    private final Op m_op;
+    private final Field m_operand;
+
     /**
      * Constructor.
      * 
@@ -55,7 +59,9 @@ public class Predicate implements Serializable {
      *            field value to compare passed in tuples to
      */
     public Predicate(int field, Op op, Field operand) {
-        // some code goes here
+        m_field = field;
+        m_op = op;
+        m_operand = operand;
     }
 
     /**
@@ -63,8 +69,7 @@ public class Predicate implements Serializable {
      */
     public int getField()
     {
-        // some code goes here
-        return -1;
+        return m_field;
     }
 
     /**
@@ -72,8 +77,7 @@ public class Predicate implements Serializable {
      */
     public Op getOp()
     {
-        // some code goes here
-        return null;
+        return m_op;
     }
     
     /**
@@ -81,8 +85,7 @@ public class Predicate implements Serializable {
      */
     public Field getOperand()
     {
-        // some code goes here
-        return null;
+        return m_operand;
     }
     
     /**
@@ -96,8 +99,7 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        // some code goes here
-        return false;
+        return t.getField(m_field).compare(m_op, m_operand);
     }
 
     /**
@@ -105,7 +107,6 @@ public class Predicate implements Serializable {
      * operand_string
      */
     public String toString() {
-        // some code goes here
-        return "";
+        return "f = " + m_field + " op = " + m_op + " operand = " + m_operand;
     }
 }
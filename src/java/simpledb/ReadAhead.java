@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ReadAhead watches the page numbers one reader requests from a HeapFile
+ * and, while they are consecutive, loads the following pages into the
+ * BufferPool on a background thread so the reader finds them cached.
+ * <p>
+ * Pages are requested a window at a time.  The first window holds
+ * {@link #MIN_WINDOW} pages; when the reader reaches the first page of the
+ * most recent window, the next window is issued at twice the size, up to
+ * a limit derived from the pool (or the scan ring) size.  If the reader
+ * finds that a page read ahead for it was evicted before it got there, the
+ * window is halved.  A non-sequential request drops the window to zero
+ * until the reader is sequential again.
+ *
+ * @see HeapFile#setReadAhead
+ */
+class ReadAhead {
+
+    /** Pages in the first window of a sequential run. */
+    static final int MIN_WINDOW = 4;
+
+    /** Upper bound on the window size. */
+    static final int MAX_WINDOW = 32;
+
+    private static final ExecutorService READERS = Daemons.newPool("readahead");
+
+    private final HeapFile m_file;
+    private final BufferRing m_ring;
+
+    private int m_lastPage = -1;
+    private int m_window;
+    // the first page of the most recent window, and the page after it
+    private int m_trigger;
+    private int m_issuedEnd;
+    // one past the highest page a background read has finished
+    private final AtomicInteger m_loadedEnd = new AtomicInteger();
+    private AtomicBoolean m_cancelled = new AtomicBoolean();
+
+    ReadAhead(HeapFile file, BufferRing ring) {
+        m_file = file;
+        m_ring = ring;
+    }
+
+    /**
+     * Records that the reader is about to request the specified page, and
+     * issues background reads if it continues a sequential run.
+     */
+    void accessed(int pgNo) {
+        if (pgNo != m_lastPage + 1) {
+            m_lastPage = pgNo;
+            m_window = 0;
+            return;
+        }
+        m_lastPage = pgNo;
+
+        if (m_window == 0) {
+            m_window = Math.min(MIN_WINDOW, maxWindow());
+            issue(pgNo + 1);
+        } else if (pgNo < m_issuedEnd && pgNo < m_loadedEnd.get()
+                && !Database.getBufferPool().isCached(new HeapPageId(m_file.getId(), pgNo))) {
+            // read ahead, then evicted before it was used
+            m_window = Math.max(1, m_window / 2);
+        } else if (pgNo >= m_trigger) {
+            m_window = Math.min(m_window * 2, maxWindow());
+            issue(Math.max(m_issuedEnd, pgNo + 1));
+        }
+    }
+
+    private int maxWindow() {
+        // a window larger than this would displace pages before they are used
+        int limit = m_ring != null ? m_ring.size() / 2
+                : Database.getBufferPool().getNumPages() / 4;
+        return Math.max(1, Math.min(MAX_WINDOW, limit));
+    }
+
+    private void issue(final int first) {
+        final int end = Math.min(first + m_window, m_file.numPages());
+        m_trigger = first;
+        m_issuedEnd = Math.max(m_issuedEnd, end);
+        if (first >= end)
+            return;
+
+        final AtomicBoolean cancelled = m_cancelled;
+        READERS.execute(new Runnable() {
+            public void run() {
+                BufferPool bp = Database.getBufferPool();
+                for (int pg = first; pg < end && !cancelled.get(); pg++) {
+                    try {
+                        bp.prefetchPage(new HeapPageId(m_file.getId(), pg), m_ring);
+                    } catch (Exception e) {
+                        // read-ahead is only a hint; the reader will fetch
+                        // the page itself
+                        return;
+                    }
+                    int loaded;
+                    while ((loaded = m_loadedEnd.get()) < pg + 1
+                            && !m_loadedEnd.compareAndSet(loaded, pg + 1))
+                        ;
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the current run and stops background reads that have not
+     * started yet.
+     */
+    void reset() {
+        m_cancelled.set(true);
+        m_cancelled = new AtomicBoolean();
+        m_lastPage = -1;
+        m_window = 0;
+        m_trigger = 0;
+        m_issuedEnd = 0;
+        m_loadedEnd.set(0);
+    }
+}
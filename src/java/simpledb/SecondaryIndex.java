@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * SecondaryIndex finds the tuples of a HeapFile by the value of one of
+ * their fields.  For each tuple of the table, the index file holds an
+ * entry of the tuple's value of the field, the number of the page the
+ * tuple is on and its slot on the page.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date
+ * by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ * The index file is a table of the catalog too, so its pages are read,
+ * locked and logged through the BufferPool like those of any other table.
+ *
+ * @see IndexScan
+ */
+public class SecondaryIndex {
+
+    private final String m_name;
+    private final int m_tableid;
+    private final int m_field;
+    private final IndexFile m_file;
+
+    /**
+     * @param name the name of the index
+     * @param tableid the table the index is on, which must be a HeapFile
+     * @param field the field of the table the index is on
+     * @param file the file of the index's entries, keyed on its first
+     *   field and with the tuple descriptor {@link #entryDesc} returns
+     * @throws IllegalArgumentException if the file does not fit the table
+     */
+    public SecondaryIndex(String name, int tableid, int field, IndexFile file) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can have secondary indexes");
+        TupleDesc td = table.getTupleDesc();
+        if (field < 0 || field >= td.numFields())
+            throw new IllegalArgumentException("bad field " + field);
+        if (file.keyField() != 0 || !entryDesc(td, field).equals(file.getTupleDesc()))
+            throw new IllegalArgumentException("index file does not fit field " + field);
+        m_name = name;
+        m_tableid = tableid;
+        m_field = field;
+        m_file = file;
+    }
+
+    /**
+     * @return the tuple descriptor of the entries of an index on the
+     *   specified field: the field's value, a page number and a slot
+     */
+    public static TupleDesc entryDesc(TupleDesc td, int field) {
+        return new TupleDesc(new Type[] { td.getFieldType(field), Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { td.getFieldName(field), "page", "slot" });
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public int getTableId() {
+        return m_tableid;
+    }
+
+    /** @return the field of the table the index is on */
+    public int getField() {
+        return m_field;
+    }
+
+    public IndexFile getFile() {
+        return m_file;
+    }
+
+    /**
+     * @return the entry of the specified tuple of the table, which must
+     *   have its record id set
+     */
+    public Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new IllegalArgumentException("tuple has no record id");
+        Tuple e = new Tuple(m_file.getTupleDesc());
+        e.setField(0, t.getField(m_field));
+        e.setField(1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /** @return the record id of the tuple of the table an entry is for */
+    public RecordId recordId(Tuple entry) {
+        int pgNo = ((IntField) entry.getField(1)).getValue();
+        int slot = ((IntField) entry.getField(2)).getValue();
+        return new RecordId(new HeapPageId(m_tableid, pgNo), slot);
+    }
+
+    /**
+     * Adds an entry for each tuple of the table to the index as part of
+     * the specified transaction.  Used to fill an index created on a
+     * table that already has tuples.
+     */
+    public void build(TransactionId tid)
+        throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(m_tableid).iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext())
+                bp.insertTuple(tid, m_file.getId(), entry(it.next()));
+        } finally {
+            it.close();
+        }
+    }
+
+    public String toString() {
+        return m_name + " on " + Database.getCatalog().getTableName(m_tableid)
+            + " (" + Database.getCatalog().getTupleDesc(m_tableid).getFieldName(m_field) + ")";
+    }
+}
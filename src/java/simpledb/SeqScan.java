@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -32,6 +32,9 @@ public class SeqScan implements DbIterator {
     private String m_tableAlias;
     private DbFile m_dbfile;
     private DbFileIterator m_it;
+    private int m_ringSize = -1;
+    private Predicate m_pred;
+    private DbIteratorBatchAdapter m_adapter;
    
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -39,7 +42,52 @@ public class SeqScan implements DbIterator {
         m_tableid = tableid;
         m_tableAlias = tableAlias;
         m_dbfile = Database.getCatalog().getDatabaseFile(tableid);
-        m_it = m_dbfile.iterator(tid);
+        m_it = createIterator();
+    }
+
+    /**
+     * Sets how many buffer pool frames this scan may occupy.  A positive
+     * size makes the scan read its pages through a private
+     * {@link BufferRing} of that many frames, so it does not evict the
+     * working set of other queries; 0 lets the scan use the whole buffer
+     * pool.  By default, scans of tables larger than the buffer pool use a
+     * ring of {@link BufferRing#DEFAULT_SIZE} frames and all others use the
+     * pool.  Must be called before open().
+     *
+     * @param pages the ring size in pages, or 0 to disable the ring
+     */
+    public void setRingSize(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("ring size must not be negative");
+        m_ringSize = pages;
+        m_it = createIterator();
+    }
+
+    /**
+     * Sets a predicate the scan's tuples have to satisfy.  On a HeapFile
+     * the scan skips the pages its zone map and the groups of pages its
+     * Bloom filters rule out, and returns only the tuples that satisfy the
+     * predicate; on other files the predicate is ignored, and the caller
+     * still has to filter.  Must be called before open().
+     *
+     * @param pred the predicate on a field of the table, or null for none
+     * @see HeapFile#iterator(TransactionId, BufferRing, Predicate)
+     */
+    public void setPredicate(Predicate pred) {
+        m_pred = pred;
+        m_it = createIterator();
+    }
+
+    private DbFileIterator createIterator() {
+        if (!(m_dbfile instanceof HeapFile))
+            return m_dbfile.iterator(m_tid);
+        HeapFile hf = (HeapFile) m_dbfile;
+        int ringSize = m_ringSize;
+        if (ringSize < 0) {
+            boolean largerThanPool = hf.numPages() > Database.getBufferPool().getNumPages();
+            ringSize = largerThanPool ? BufferRing.DEFAULT_SIZE : 0;
+        }
+        return hf.iterator(m_tid, ringSize > 0 ? new BufferRing(ringSize) : null, m_pred);
     }
 
     /**
@@ -78,7 +126,7 @@ public class SeqScan implements DbIterator {
         m_tableid = tableid;
         m_tableAlias = tableAlias;
         m_dbfile = Database.getCatalog().getDatabaseFile(tableid);
-        m_it = m_dbfile.iterator(m_tid);
+        m_it = createIterator();
 
     }
 
@@ -137,6 +185,20 @@ public class SeqScan implements DbIterator {
         
     }
 
+    /**
+     * Returns the next batch of tuples.  Heap files are decoded straight
+     * into the batch; other files are read a tuple at a time.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_it instanceof BatchIterator)
+            return ((BatchIterator) m_it).nextBatch();
+        if (m_adapter == null)
+            m_adapter = new DbIteratorBatchAdapter(this);
+        return m_adapter.nextBatch();
+    }
+
     public void close() {
         // some code goes here
         m_it.close();
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * SideFile stores summaries of a HeapFile's pages, such as a ZoneMap or
+ * BloomFilters, next to the table's file as numbered records of a fixed
+ * size.  A header comes first: a magic number, a flag that says whether
+ * the records can be trusted, and a description of the record format
+ * given by the owner.  A file whose header differs is ignored.
+ * <p>
+ * The owner reports each record that changes with {@link #changed}, which
+ * does no I/O.  {@link #save} writes only those records, each in its
+ * place, and forces the file.  The table's pages must not reach the disk
+ * with changes the saved records do not cover, so the table calls
+ * {@link #markStale} before it writes pages: if some records changed
+ * since the last save, the flag is cleared and forced first.  Records
+ * loaded from a stale file are not trusted, so a crash cannot leave
+ * summaries narrower than the pages on disk.
+ */
+class SideFile {
+
+    /** Encodes the records a save writes. */
+    interface Records {
+        /**
+         * Writes the record with the specified number.  The record must
+         * be the size the SideFile was created with, and start with a
+         * nonzero byte if it is known; records never written read as
+         * zeros.
+         */
+        void write(int index, DataOutput out) throws IOException;
+    }
+
+    // offset of the flag that says the records can be trusted
+    private static final int CURRENT_OFFSET = 4;
+
+    private final File m_file;
+    private final int m_magic;
+    private final byte[] m_format;
+    private final int m_recordSize;
+    private final int m_headerSize;
+
+    // taken for every write to the file, so the flag is changed by one
+    // thread at a time and never while records are being saved
+    private final Object m_io = new Object();
+    // whether the flag on disk says the records can be trusted; only
+    // changed with m_io held
+    private volatile boolean m_current;
+    // false until the records on disk are known to be trusted; until
+    // then the next save drops them and writes the header anew
+    private boolean m_valid; // guarded by m_io
+
+    // records changed since the last save, and those the running save
+    // writes; guarded by this
+    private TreeSet<Integer> m_changed = new TreeSet<Integer>();
+    private TreeSet<Integer> m_saving = new TreeSet<Integer>();
+
+    /**
+     * @param format the description of the record format, compared with
+     *   the one in the file when it is loaded
+     * @param recordSize the size of each record in bytes
+     */
+    SideFile(File file, int magic, byte[] format, int recordSize) {
+        m_file = file;
+        m_magic = magic;
+        m_format = format.clone();
+        m_recordSize = recordSize;
+        m_headerSize = CURRENT_OFFSET + 1 + format.length;
+    }
+
+    /** Deletes the specified side file, if it exists. */
+    static void delete(File f) {
+        if (f.exists() && !f.delete())
+            Debug.log("could not delete side file %s", f);
+    }
+
+    /**
+     * Reads the records from the file.
+     *
+     * @return the records, or null if the file does not exist, has another
+     *   format or is stale
+     */
+    List<byte[]> load() throws IOException {
+        synchronized (m_io) {
+            if (!m_file.exists())
+                return null;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(m_file)));
+            try {
+                long length = m_file.length();
+                if (length < m_headerSize || in.readInt() != m_magic)
+                    return null;
+                boolean current = in.readBoolean();
+                byte[] format = new byte[m_format.length];
+                in.readFully(format);
+                if (!Arrays.equals(format, m_format) || !current)
+                    return null;
+                // a record cut short by a crash is not trusted
+                long numRecords = (length - m_headerSize) / m_recordSize;
+                List<byte[]> records = new ArrayList<byte[]>();
+                for (long i = 0; i < numRecords; i++) {
+                    byte[] record = new byte[m_recordSize];
+                    in.readFully(record);
+                    records.add(record);
+                }
+                m_valid = true;
+                m_current = true;
+                return records;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Notes that the record with the specified number has changed. */
+    synchronized void changed(int index) {
+        m_changed.add(index);
+    }
+
+    // true if the records on disk may not cover the owner's
+    private synchronized boolean unsaved() {
+        return !m_changed.isEmpty() || !m_saving.isEmpty();
+    }
+
+    /**
+     * Marks the file stale if some records have changed since it was last
+     * saved.  Called before pages of the table are written.
+     */
+    void markStale() throws IOException {
+        if (!m_current || !unsaved())
+            return;
+        synchronized (m_io) {
+            if (!m_current || !unsaved())
+                return;
+            RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+            try {
+                raf.seek(CURRENT_OFFSET);
+                raf.writeBoolean(false);
+                raf.getFD().sync();
+            } finally {
+                raf.close();
+            }
+            m_current = false;
+        }
+    }
+
+    /**
+     * Writes the records that changed since the last save, and marks the
+     * file current unless more records changed meanwhile.
+     *
+     * @param records encodes a record; it may take the owner's monitor,
+     *   so the owner must not call save or markStale with it held
+     */
+    void save(Records records) throws IOException {
+        synchronized (m_io) {
+            TreeSet<Integer> saving;
+            synchronized (this) {
+                saving = m_changed;
+                m_changed = m_saving;
+                m_saving = saving;
+            }
+            try {
+                if (saving.isEmpty() && m_valid && m_current)
+                    return;
+                write(saving, records);
+            } catch (IOException e) {
+                synchronized (this) {
+                    m_changed.addAll(saving);
+                    saving.clear();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                saving.clear();
+            }
+        }
+    }
+
+    // writes the records, then the flag if it changes; m_io is held
+    private void write(Set<Integer> indexes, Records records) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            if (!m_valid) {
+                // the records of a stale or foreign file are not trusted
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(m_headerSize);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(m_magic);
+                out.writeBoolean(false);
+                out.write(m_format);
+                out.flush();
+                raf.setLength(0);
+                raf.write(bytes.toByteArray());
+                m_current = false;
+                m_valid = true;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(m_recordSize);
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int index : indexes) {
+                bytes.reset();
+                records.write(index, out);
+                out.flush();
+                if (bytes.size() != m_recordSize)
+                    throw new IllegalStateException("record " + index + " of " + m_file
+                            + " has " + bytes.size() + " bytes, not " + m_recordSize);
+                ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                long offset = m_headerSize + (long) index * m_recordSize;
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+            }
+            if (!indexes.isEmpty())
+                ch.force(false);
+            if (!m_current && !unsavedSince()) {
+                raf.seek(CURRENT_OFFSET);
+                raf.writeBoolean(true);
+                ch.force(false);
+                m_current = true;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    // true if records changed after the running save took its set
+    private synchronized boolean unsavedSince() {
+        return !m_changed.isEmpty();
+    }
+}
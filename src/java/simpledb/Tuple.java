@@ -9,6 +9,10 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Field values are stored unboxed, in an int[] and a String[] slab, and
+ * the typed accessors getInt and getString read them directly.  getField
+ * wraps a value in a Field object the first time it is asked for.
  */
 public class Tuple implements Serializable {
 
@@ -28,7 +32,22 @@ public class Tuple implements Serializable {
     private RecordId m_recordid;
     
     /*
-     * private member which maintains Field objects
+     * values of the INT_TYPE fields, indexed by field number, followed by
+     * one bit per field recording whether it has been set; null if the
+     * schema has no int fields
+     */
+    private int m_ints[];
+    
+    /*
+     * values of the STRING_TYPE fields, indexed by field number; null if
+     * the schema has no string fields
+     */
+    private String m_strings[];
+    
+    /*
+     * Field objects handed out by getField or passed to setField, created
+     * on first use so that tuples read by typed accessors never allocate
+     * them
      */
     private Field m_fields[];
     
@@ -39,7 +58,22 @@ public class Tuple implements Serializable {
     
     public Tuple(TupleDesc td) {
         m_td = td;
-        m_fields = new Field[td.numFields()];
+        allocate();
+    }
+
+    private void allocate() {
+        int n = m_td.numFields();
+        m_ints = null;
+        m_strings = null;
+        m_fields = null;
+        for (int i = 0; i < n; i++) {
+            if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                if (m_ints == null)
+                    m_ints = new int[n + (n + 31) / 32];
+            } else if (m_strings == null) {
+                m_strings = new String[n];
+            }
+        }
     }
 
     /**
@@ -79,7 +113,22 @@ public class Tuple implements Serializable {
        if(i >= m_td.numFields()){
     	   return;
        }
-       m_fields[i] = f;
+       if(f instanceof IntField && m_td.getFieldType(i) == Type.INT_TYPE){
+    	   setInt(i, ((IntField) f).getValue());
+       }
+       else if(f instanceof StringField && m_td.getFieldType(i) == Type.STRING_TYPE){
+    	   setString(i, ((StringField) f).getValue());
+       }
+       else{
+    	   clear(i);
+       }
+       // keep the caller's object so getField returns exactly what was set
+       if(f != null){
+    	   if(m_fields == null){
+    		   m_fields = new Field[m_td.numFields()];
+    	   }
+    	   m_fields[i] = f;
+       }
     }
 
     /**
@@ -92,7 +141,95 @@ public class Tuple implements Serializable {
     	if(i >= m_td.numFields()){
     		return null;
     	}
-    	return m_fields[i];
+    	if(m_fields != null && m_fields[i] != null){
+    		return m_fields[i];
+    	}
+    	Field f;
+    	if(m_td.getFieldType(i) == Type.INT_TYPE){
+    		if(!isSet(i)){
+    			return null;
+    		}
+    		f = new IntField(m_ints[i]);
+    	}
+    	else{
+    		if(m_strings[i] == null){
+    			return null;
+    		}
+    		f = new StringField(m_strings[i], Type.STRING_LEN);
+    	}
+    	if(m_fields == null){
+    		m_fields = new Field[m_td.numFields()];
+    	}
+    	m_fields[i] = f;
+    	return f;
+    }
+
+    /**
+     * Reads the ith field, which must be an INT_TYPE field, without
+     * creating a Field object.  A field that has not been set reads as 0.
+     */
+    public int getInt(int i) {
+    	checkType(i, Type.INT_TYPE);
+    	return m_ints[i];
+    }
+
+    /**
+     * Sets the ith field, which must be an INT_TYPE field, without
+     * creating a Field object.
+     */
+    public void setInt(int i, int value) {
+    	checkType(i, Type.INT_TYPE);
+    	m_ints[i] = value;
+    	m_ints[m_td.numFields() + i / 32] |= 1 << (i % 32);
+    	if(m_fields != null){
+    		m_fields[i] = null;
+    	}
+    }
+
+    /**
+     * Reads the ith field, which must be a STRING_TYPE field, without
+     * creating a Field object.
+     * 
+     * @return the value, or null if it has not been set
+     */
+    public String getString(int i) {
+    	checkType(i, Type.STRING_TYPE);
+    	return m_strings[i];
+    }
+
+    /**
+     * Sets the ith field, which must be a STRING_TYPE field, without
+     * creating a Field object.
+     */
+    public void setString(int i, String value) {
+    	checkType(i, Type.STRING_TYPE);
+    	m_strings[i] = value;
+    	if(m_fields != null){
+    		m_fields[i] = null;
+    	}
+    }
+
+    private void checkType(int i, Type t) {
+    	if(m_td.getFieldType(i) != t){
+    		throw new IllegalArgumentException("field " + i + " is not of type " + t);
+    	}
+    }
+
+    private boolean isSet(int i) {
+    	return (m_ints[m_td.numFields() + i / 32] & (1 << (i % 32))) != 0;
+    }
+
+    private void clear(int i) {
+    	if(m_td.getFieldType(i) == Type.INT_TYPE){
+    		m_ints[i] = 0;
+    		m_ints[m_td.numFields() + i / 32] &= ~(1 << (i % 32));
+    	}
+    	else{
+    		m_strings[i] = null;
+    	}
+    	if(m_fields != null){
+    		m_fields[i] = null;
+    	}
     }
 
     /**
@@ -107,10 +244,10 @@ public class Tuple implements Serializable {
     	String result = new String();
     	for(int i = 0; i < m_td.numFields(); i++){
     		if( i == m_td.numFields() - 1){
-    			result += m_fields[i].toString() + "\n";
+    			result += getField(i).toString() + "\n";
     		}
     		else{
-    			result += m_fields[i].toString() + "\t";
+    			result += getField(i).toString() + "\t";
     		}
     	}
         return result;
@@ -122,7 +259,11 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-    	List<Field> arrAsList = Arrays.asList(m_fields);
+    	Field fields[] = new Field[m_td.numFields()];
+    	for(int i = 0; i < fields.length; i++){
+    		fields[i] = getField(i);
+    	}
+    	List<Field> arrAsList = Arrays.asList(fields);
     	Iterator<Field> it = arrAsList.iterator();
         return it;
     }
@@ -132,7 +273,17 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
-        // some code goes here
+        // carry over the fields the old and new schemas have in common
+    	Field old[] = new Field[m_td.numFields()];
+    	for(int i = 0; i < old.length; i++){
+    		old[i] = getField(i);
+    	}
     	m_td =td;
+    	allocate();
+    	for(int i = 0; i < Math.min(old.length, td.numFields()); i++){
+    		if(old[i] != null && old[i].getType() == td.getFieldType(i)){
+    			setField(i, old[i]);
+    		}
+    	}
     }
 }
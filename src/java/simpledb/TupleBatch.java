@@ -0,0 +1,245 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to capacity() rows of a relation in column-oriented
+ * form: one int[] per INT_TYPE column and one String[] per STRING_TYPE
+ * column, so operators can run tight loops over primitive arrays instead
+ * of calling through Tuple and Field for every value.
+ * <p>
+ * A selection vector lists the rows that are still live, in increasing
+ * order.  Filters narrow the selection instead of moving data; consumers
+ * iterate over getSelection()[0 .. numSelected()-1].
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** Number of rows a batch holds unless a capacity is specified. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc m_td;
+    private final int m_capacity;
+    private final int[][] m_ints;
+    private final String[][] m_strings;
+    private final PageId[] m_pids;
+    private final int[] m_slots;
+    private final int[] m_selection;
+    private int m_size;
+    private int m_selected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows; must be positive
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        m_td = td;
+        m_capacity = capacity;
+        m_ints = new int[td.numFields()][];
+        m_strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                m_ints[i] = new int[capacity];
+            else
+                m_strings[i] = new String[capacity];
+        }
+        m_pids = new PageId[capacity];
+        m_slots = new int[capacity];
+        m_selection = new int[capacity];
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the maximum number of rows this batch holds */
+    public int capacity() {
+        return m_capacity;
+    }
+
+    /** @return the number of rows in this batch, selected or not */
+    public int size() {
+        return m_size;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return m_selected;
+    }
+
+    /**
+     * @return the selection vector; its first numSelected() entries are
+     *   the indexes of the selected rows
+     */
+    public int[] getSelection() {
+        return m_selection;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        m_size = 0;
+        m_selected = 0;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return m_size == m_capacity;
+    }
+
+    /**
+     * Appends a row and selects it.  The caller fills in its values with
+     * the set methods.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        m_pids[m_size] = null;
+        m_selection[m_selected++] = m_size;
+        return m_size++;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column; only the entries of the
+     *   selected rows are meaningful
+     */
+    public int[] getIntColumn(int col) {
+        if (m_ints[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        return m_ints[col];
+    }
+
+    public int getInt(int col, int row) {
+        return getIntColumn(col)[row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        getIntColumn(col)[row] = value;
+    }
+
+    public String getString(int col, int row) {
+        if (m_strings[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not a string column");
+        return m_strings[col][row];
+    }
+
+    public void setString(int col, int row, String value) {
+        if (m_strings[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not a string column");
+        m_strings[col][row] = value;
+    }
+
+    /**
+     * Records where the specified row is stored.
+     */
+    public void setLocation(int row, PageId pid, int slot) {
+        m_pids[row] = pid;
+        m_slots[row] = slot;
+    }
+
+    /** @return the RecordId of the specified row, or null if it has none */
+    public RecordId getRecordId(int row) {
+        return m_pids[row] == null ? null : new RecordId(m_pids[row], m_slots[row]);
+    }
+
+    /** @return the value of the specified column of a row as a Field */
+    public Field getField(int col, int row) {
+        if (m_ints[col] != null)
+            return new IntField(m_ints[col][row]);
+        return new StringField(m_strings[col][row], Type.STRING_LEN);
+    }
+
+    /**
+     * Materializes the specified row as a Tuple.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(m_td);
+        for (int i = 0; i < m_td.numFields(); i++) {
+            if (m_ints[i] != null)
+                t.setInt(i, m_ints[i][row]);
+            else
+                t.setString(i, m_strings[i][row]);
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Appends the specified tuple as a new, selected row.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < m_td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (m_ints[i] != null)
+                m_ints[i][row] = ((IntField) f).getValue();
+            else
+                m_strings[i][row] = ((StringField) f).getValue();
+        }
+        RecordId rid = t.getRecordId();
+        if (rid != null)
+            setLocation(row, rid.getPageId(), rid.tupleno());
+    }
+
+    /**
+     * Narrows the selection to the rows satisfying the predicate.
+     */
+    public void filter(Predicate p) {
+        int col = p.getField();
+        if (m_ints[col] != null) {
+            filterInt(col, p.getOp(), ((IntField) p.getOperand()).getValue());
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < m_selected; i++) {
+            int row = m_selection[i];
+            if (getField(col, row).compare(p.getOp(), p.getOperand()))
+                m_selection[n++] = row;
+        }
+        m_selected = n;
+    }
+
+    /**
+     * Narrows the selection to the rows whose INT_TYPE column col compares
+     * to value as specified by op.
+     */
+    public void filterInt(int col, Predicate.Op op, int value) {
+        int[] v = getIntColumn(col);
+        int[] sel = m_selection;
+        int n = 0;
+        // one loop per operator keeps the comparison out of the loop body
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] == value) sel[n++] = sel[i];
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] != value) sel[n++] = sel[i];
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] > value) sel[n++] = sel[i];
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] >= value) sel[n++] = sel[i];
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] < value) sel[n++] = sel[i];
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < m_selected; i++)
+                if (v[sel[i]] <= value) sel[n++] = sel[i];
+            break;
+        }
+        m_selected = n;
+    }
+}
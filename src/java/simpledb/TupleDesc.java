@@ -56,6 +56,12 @@ public class TupleDesc implements Serializable {
     */
     private TDItem[] td_items;
     
+    /*
+     * private member which stores the byte offset of each field within a
+     * serialized tuple
+     */
+    private int[] field_offsets;
+    
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -73,6 +79,7 @@ public class TupleDesc implements Serializable {
         for(int i = 0; i < fields_num; i++){
         	td_items[i] = new TDItem(typeAr[i],fieldAr[i]);
         }       
+        computeOffsets();
     }
 
     /**
@@ -89,6 +96,16 @@ public class TupleDesc implements Serializable {
     	for(int i = 0; i < fields_num; i++){
     		td_items[i] = new TDItem(typeAr[i],null);
     	}
+    	computeOffsets();
+    }
+    
+    private void computeOffsets() {
+    	field_offsets = new int[fields_num];
+    	int offset = 0;
+    	for(int i = 0; i < fields_num; i++){
+    		field_offsets[i] = offset;
+    		offset += td_items[i].fieldType.getLen();
+    	}
     }
 
     /**
@@ -131,6 +148,23 @@ public class TupleDesc implements Serializable {
         return td_items[i].fieldType;
     }
 
+    /**
+     * Gets the byte offset of the ith field within a tuple serialized in the
+     * format used by HeapPage, i.e. the sum of the sizes of fields 0..i-1.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	if(i >= fields_num){
+    		throw new NoSuchElementException();
+    	}
+    	return field_offsets[i];
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha).  Newly loaded pages enter the
+ * FIFO queue A1in; if they are evicted from there, only their ids are kept
+ * in the ghost queue A1out.  A page that is loaded again while its id is in
+ * A1out has proven it is hot and goes to the LRU queue Am.  Pages referenced
+ * once, such as those of a large scan, therefore never push Am pages out.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int m_kin;
+    private final int m_kout;
+    private final LinkedHashSet<PageId> m_a1in;
+    private final LinkedHashSet<PageId> m_a1out;
+    private final LinkedHashSet<PageId> m_am;
+
+    /**
+     * @param capacity the number of pages the BufferPool can hold
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        // sizes recommended in the 2Q paper
+        m_kin = Math.max(1, capacity / 4);
+        m_kout = Math.max(1, capacity / 2);
+        m_a1in = new LinkedHashSet<PageId>();
+        m_a1out = new LinkedHashSet<PageId>();
+        m_am = new LinkedHashSet<PageId>();
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (m_a1in.contains(pid) || m_am.contains(pid)) {
+            pageAccessed(pid);
+        } else if (m_a1out.remove(pid)) {
+            m_am.add(pid);
+        } else {
+            m_a1in.add(pid);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // references while in A1in are treated as correlated and ignored
+        if (m_am.remove(pid))
+            m_am.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (m_a1in.remove(pid)) {
+            m_a1out.add(pid);
+            if (m_a1out.size() > m_kout) {
+                Iterator<PageId> it = m_a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            m_am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(VictimFilter filter) {
+        PageId victim = null;
+        if (m_a1in.size() > m_kin || m_am.isEmpty())
+            victim = firstEvictable(m_a1in, filter);
+        if (victim == null)
+            victim = firstEvictable(m_am, filter);
+        if (victim == null)
+            victim = firstEvictable(m_a1in, filter);
+        return victim;
+    }
+
+    private static PageId firstEvictable(Collection<PageId> queue, VictimFilter filter) {
+        for (PageId pid : queue) {
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
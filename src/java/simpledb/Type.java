@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,10 +48,27 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new StringField(readString(buf, offset), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /**
+     * Reads the value of a STRING_TYPE field stored at the specified offset
+     * of buf, without creating a Field.
+     */
+    static String readString(ByteBuffer buf, int offset) {
+        int strLen = Math.min(buf.getInt(offset), STRING_LEN);
+        byte bs[] = new byte[strLen];
+        for (int i = 0; i < strLen; i++)
+            bs[i] = buf.get(offset + 4 + i);
+        return new String(bs);
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -60,4 +83,12 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are stored at the specified absolute offset of buf, in the format
+   *   written by {@link Field#serialize}.  The buffer's position is not
+   *   changed.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZoneMap keeps the smallest and largest value of each INT_TYPE field of
+ * the tuples on each page of a HeapFile, so that scans with a predicate on
+ * such a field can skip the pages that cannot hold a matching tuple.
+ * <p>
+ * A page's summary may be wider than the values on the page, but never
+ * narrower, so skipping a page is always safe:
+ * <ul>
+ * <li> an insert widens the summary of its page at once, so the inserting
+ *   transaction's scans see the tuple, and an abort leaves it wider;
+ * <li> a delete leaves the summary as it is, and the summary of each page
+ *   a transaction changed is computed again from the page when the
+ *   transaction commits;
+ * <li> a page whose summary is not known yet is never skipped, and gets
+ *   one when a scan reads it while no transaction is changing it.
+ * </ul>
+ * The summaries are kept in a {@link SideFile}, the table's file name
+ * followed by ".zm", with a record per page.  The records of the pages
+ * whose summaries changed are written whenever the table's file is
+ * forced, and the side file is marked stale before the table's pages are
+ * written with changes the records on disk do not cover.
+ *
+ * @see HeapFile#setZoneMapped
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+
+    private final SideFile m_side;
+    // the INT_TYPE fields of the table
+    private final int[] m_fields;
+    // per page, min and max of each field in m_fields, or null if unknown;
+    // min > max for a page without tuples
+    private final ArrayList<int[]> m_pages = new ArrayList<int[]>();
+
+    private final AtomicLong m_skipped = new AtomicLong();
+
+    /**
+     * Loads the summaries of a table from its side file, if it has one
+     * that can be trusted; otherwise no page has a summary yet.
+     */
+    ZoneMap(File dataFile, TupleDesc td) {
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        }
+        m_fields = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                m_fields[n++] = i;
+        }
+        byte[] format = ByteBuffer.allocate(4).putInt(m_fields.length).array();
+        m_side = new SideFile(sideFile(dataFile), MAGIC, format, 1 + 8 * m_fields.length);
+        try {
+            load();
+        } catch (IOException e) {
+            Debug.log("zone map %s is unreadable, starting over: %s", sideFile(dataFile),
+                    e.getMessage());
+            m_pages.clear();
+        }
+    }
+
+    /** @return the side file of the specified table file */
+    static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    private void load() throws IOException {
+        List<byte[]> records = m_side.load();
+        if (records == null)
+            return;
+        for (byte[] record : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            int[] zone = null;
+            if (in.readBoolean()) {
+                zone = new int[2 * m_fields.length];
+                for (int i = 0; i < zone.length; i++)
+                    zone[i] = in.readInt();
+            }
+            m_pages.add(zone);
+        }
+    }
+
+    /**
+     * Writes the summaries that changed since the last save to the side
+     * file and forces it.
+     */
+    public void save() throws IOException {
+        m_side.save(new SideFile.Records() {
+            public void write(int pgNo, DataOutput out) throws IOException {
+                int[] zone;
+                synchronized (ZoneMap.this) {
+                    zone = zone(pgNo);
+                    zone = zone == null ? null : zone.clone();
+                }
+                out.writeBoolean(zone != null);
+                for (int i = 0; i < 2 * m_fields.length; i++)
+                    out.writeInt(zone == null ? 0 : zone[i]);
+            }
+        });
+    }
+
+    /**
+     * Marks the side file stale if some summaries changed since the last
+     * save.  Called before pages of the table are written.
+     */
+    void markStale() throws IOException {
+        m_side.markStale();
+    }
+
+    /** Deletes the side file of the specified table file, if it has one. */
+    static void discard(File dataFile) {
+        SideFile.delete(sideFile(dataFile));
+    }
+
+    private int[] zone(int pgNo) {
+        return pgNo < m_pages.size() ? m_pages.get(pgNo) : null;
+    }
+
+    private void setZone(int pgNo, int[] zone) {
+        while (m_pages.size() <= pgNo)
+            m_pages.add(null);
+        m_pages.set(pgNo, zone);
+        m_side.changed(pgNo);
+    }
+
+    private int[] emptyZone() {
+        int[] zone = new int[2 * m_fields.length];
+        for (int i = 0; i < m_fields.length; i++) {
+            zone[2 * i] = Integer.MAX_VALUE;
+            zone[2 * i + 1] = Integer.MIN_VALUE;
+        }
+        return zone;
+    }
+
+    /** @return true if the specified page has a summary */
+    public synchronized boolean isKnown(int pgNo) {
+        return zone(pgNo) != null;
+    }
+
+    /** Records that the specified page, just added to the table, is empty. */
+    synchronized void addEmpty(int pgNo) {
+        setZone(pgNo, emptyZone());
+    }
+
+    /** Widens the summary of a page to include a tuple added to it. */
+    synchronized void include(int pgNo, Tuple t) {
+        int[] zone = zone(pgNo);
+        if (zone == null)
+            return;
+        for (int i = 0; i < m_fields.length; i++) {
+            int v = ((IntField) t.getField(m_fields[i])).getValue();
+            if (v < zone[2 * i] || v > zone[2 * i + 1]) {
+                m_side.changed(pgNo);
+                zone[2 * i] = Math.min(zone[2 * i], v);
+                zone[2 * i + 1] = Math.max(zone[2 * i + 1], v);
+            }
+        }
+    }
+
+    /**
+     * Computes the summary of a page from its tuples.  No other
+     * transaction may be changing the page.
+     */
+    synchronized void update(HeapPage page) {
+        int[] zone = emptyZone();
+        for (int slot = 0; slot < page.getNumSlots(); slot++) {
+            if (!page.isSlotUsed(slot))
+                continue;
+            for (int i = 0; i < m_fields.length; i++) {
+                int v = page.getInt(slot, m_fields[i]);
+                zone[2 * i] = Math.min(zone[2 * i], v);
+                zone[2 * i + 1] = Math.max(zone[2 * i + 1], v);
+            }
+        }
+        int pgNo = page.getId().pageNumber();
+        if (!Arrays.equals(zone, zone(pgNo)))
+            setZone(pgNo, zone);
+    }
+
+    /**
+     * @return false if no tuple on the specified page can satisfy the
+     *   predicate
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        int[] zone = zone(pgNo);
+        if (zone == null || !(p.getOperand() instanceof IntField))
+            return true;
+        int i = 0;
+        while (i < m_fields.length && m_fields[i] != p.getField())
+            i++;
+        if (i == m_fields.length)
+            return true;
+        int min = zone[2 * i];
+        int max = zone[2 * i + 1];
+        if (min > max)
+            return false;
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /** Counts a page a scan skipped. */
+    void skipped() {
+        m_skipped.incrementAndGet();
+    }
+
+    /** @return the number of pages scans have skipped */
+    public long getPagesSkipped() {
+        return m_skipped.get();
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BTreeFileTest extends IndexFileTestBase<BTreeFile> {
+
+    protected BTreeFile newFile(File f) {
+        return new BTreeFile(f, 0, TD);
+    }
+
+    /** A scan returns every tuple inserted, in key order. */
+    @Test public void insertAndScan() throws Exception {
+        insertKeys(3000);
+        assertTrue(m_file.numPages() > 200);
+
+        TransactionId tid = new TransactionId();
+        List<Integer> keys = keys(m_file.iterator(tid));
+        m_bp.transactionComplete(tid);
+        assertEquals(6000, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 2, (int) keys.get(i));
+    }
+
+    /** Lookups read one page per level of the tree. */
+    @Test public void lookups() throws Exception {
+        insertKeys(3000);
+        m_bp.resetStats();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(Arrays.asList(1234, 1234),
+                keys(m_file.indexIterator(tid, Predicate.Op.EQUALS, new IntField(1234))));
+        assertTrue(m_bp.getHitCount() + m_bp.getMissCount() < 10);
+
+        assertEquals(2 * 10, keys(m_file.rangeIterator(tid, new IntField(100), true,
+                new IntField(110), false)).size());
+        assertEquals(2 * 5, keys(m_file.indexIterator(tid, Predicate.Op.LESS_THAN,
+                new IntField(5))).size());
+        assertEquals(2 * 5, keys(m_file.indexIterator(tid, Predicate.Op.GREATER_THAN,
+                new IntField(2994))).size());
+        assertEquals(6000 - 2, keys(m_file.indexIterator(tid, Predicate.Op.NOT_EQUALS,
+                new IntField(7))).size());
+        assertTrue(keys(m_file.indexIterator(tid, Predicate.Op.EQUALS,
+                new IntField(3000))).isEmpty());
+        m_bp.transactionComplete(tid);
+    }
+
+    /**
+     * Deletes merge pages and free them, and later inserts reuse the free
+     * pages instead of growing the file.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        insertKeys(3000);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = m_file.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 10 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            m_bp.deleteTuple(tid, t);
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Integer> keys = keys(m_file.iterator(tid));
+        m_bp.transactionComplete(tid);
+        assertEquals(600, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 2 * 10, (int) keys.get(i));
+
+        // far fewer tuples than were deleted
+        int pages = m_file.numPages();
+        tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            if (i % 10 == 1) {
+                m_bp.insertTuple(tid, m_file.getId(), tuple(i, 0));
+                m_bp.insertTuple(tid, m_file.getId(), tuple(i, 1));
+            }
+        }
+        m_bp.transactionComplete(tid);
+        assertEquals(pages, m_file.numPages());
+
+        tid = new TransactionId();
+        keys = keys(m_file.iterator(tid));
+        m_bp.transactionComplete(tid);
+        assertEquals(1200, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 4 * 10 + (i % 4 < 2 ? 0 : 1), (int) keys.get(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BloomFiltersTest extends SideFileTestBase {
+
+    private static final int ROWS = 2000;
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES);
+
+    private File m_text;
+
+    protected File sideFile(File data) {
+        return BloomFilters.sideFile(data);
+    }
+
+    /** A table of ids and names in no particular order, with filters of the names. */
+    protected void encode(File data) throws Exception {
+        List<Integer> names = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++)
+            names.add(i);
+        Collections.shuffle(names, new Random(42));
+        m_text = File.createTempFile("bloom", ".txt");
+        m_text.deleteOnExit();
+        Writer w = new FileWriter(m_text);
+        for (int i = 0; i < ROWS; i++)
+            w.write(i + ",name" + names.get(i) + "\n");
+        w.close();
+        HeapFileEncoder.convert(m_text, data, BufferPool.PAGE_SIZE, 2, TYPES, ',',
+                new int[] { 1 });
+    }
+
+    protected HeapFile open() {
+        HeapFile table = new HeapFile(m_data, TD);
+        Database.getCatalog().addTable(table, UUID.randomUUID().toString());
+        table.setBloomFilters(1);
+        return table;
+    }
+
+    private int numGroups() {
+        return (m_table.numPages() + BloomFilters.PAGES_PER_GROUP - 1) / BloomFilters.PAGES_PER_GROUP;
+    }
+
+    private static Tuple tuple(int id, String name) {
+        return tuple(new IntField(id), new StringField(name, Type.STRING_LEN));
+    }
+
+    // the ids of the tuples with the specified name
+    private List<Integer> lookup(TransactionId tid, String name) throws Exception {
+        return scan(tid, new Predicate(1, Predicate.Op.EQUALS, new StringField(name, Type.STRING_LEN)));
+    }
+
+    // the name of the tuple with the specified id
+    private String lookupName(int id) throws Exception {
+        BufferedReader r = new BufferedReader(new FileReader(m_text));
+        String line = null;
+        for (int i = 0; i <= id; i++)
+            line = r.readLine();
+        r.close();
+        return line.substring(line.indexOf(',') + 1);
+    }
+
+    /** The encoder builds the filters, and lookups read few groups. */
+    @Test public void skip() throws Exception {
+        BloomFilters bloom = m_table.getBloomFilters();
+        assertTrue(numGroups() > 5);
+        for (int g = 0; g < numGroups(); g++)
+            assertTrue(bloom.isKnown(g));
+
+        TransactionId tid = new TransactionId();
+        m_bp.resetStats();
+        int lookups = 0;
+        for (int n = 0; n < ROWS; n += 97, lookups++)
+            assertEquals(1, lookup(tid, "name" + n).size());
+        for (int n = ROWS; n < 2 * ROWS; n += 97, lookups++)
+            assertTrue(lookup(tid, "name" + n).isEmpty());
+        m_bp.transactionComplete(tid);
+
+        // a group for each hit, and now and then one for a false positive
+        assertTrue(m_bp.getHitCount() + m_bp.getMissCount()
+                <= lookups * BloomFilters.PAGES_PER_GROUP);
+        long probes = (long) lookups * numGroups();
+        assertTrue(bloom.getGroupsSkipped() + bloom.getFalsePositives() >= probes - lookups);
+        assertTrue(bloom.getObservedFalsePositiveRate() < 0.05);
+        assertTrue(bloom.getEstimatedFalsePositiveRate() > 0);
+        assertTrue(bloom.getEstimatedFalsePositiveRate() < 0.05);
+        assertTrue(bloom.getMemoryUsage() > 0);
+        assertEquals(0, bloom.getMemoryUsage() % numGroups());
+    }
+
+    /** A SeqScan with an equality predicate skips groups the same way. */
+    @Test public void seqScan() throws Exception {
+        String name = lookupName(1234);
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, m_table.getId(), "t");
+        ss.setPredicate(new Predicate(1, Predicate.Op.EQUALS, new StringField(name, Type.STRING_LEN)));
+        m_bp.resetStats();
+        ss.open();
+        assertTrue(ss.hasNext());
+        assertEquals(1234, ((IntField) ss.next().getField(0)).getValue());
+        assertFalse(ss.hasNext());
+        ss.close();
+        m_bp.transactionComplete(tid);
+        assertTrue(m_bp.getHitCount() + m_bp.getMissCount() <= 2 * BloomFilters.PAGES_PER_GROUP);
+        assertTrue(m_table.getBloomFilters().getGroupsSkipped() >= numGroups() - 2);
+    }
+
+    /** Inserts add to the filters, including those of groups they start. */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        int numPages = m_table.numPages();
+        int id = ROWS;
+        while (m_table.numPages() < numPages + BloomFilters.PAGES_PER_GROUP + 1)
+            m_bp.insertTuple(tid, m_table.getId(), tuple(id, "new" + id++));
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int n = ROWS; n < id; n += 13)
+            assertEquals(Arrays.asList(n), lookup(tid, "new" + n));
+        for (int g = 0; g < numGroups(); g++)
+            assertTrue(m_table.getBloomFilters().isKnown(g));
+
+        // deleted values stay in the filters, which only costs reads
+        DbFileIterator it = m_table.iterator(tid, null, new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("name7", Type.STRING_LEN)));
+        it.open();
+        Tuple doomed = it.next();
+        it.close();
+        m_bp.deleteTuple(tid, doomed);
+        long falsePositives = m_table.getBloomFilters().getFalsePositives();
+        assertTrue(lookup(tid, "name7").isEmpty());
+        assertTrue(m_table.getBloomFilters().getFalsePositives() > falsePositives);
+        m_bp.transactionComplete(tid);
+    }
+
+    /** A table without filters gets them as scans read its full groups. */
+    @Test public void buildOnScan() throws Exception {
+        HeapFileEncoder.convert(m_text, m_data, BufferPool.PAGE_SIZE, 2, TYPES, ',');
+        assertFalse(BloomFilters.sideFile(m_data).exists());
+        m_table = open();
+        BloomFilters bloom = m_table.getBloomFilters();
+        assertFalse(bloom.isKnown(0));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(Arrays.asList(3), lookup(tid, lookupName(3)));
+        int full = m_table.numPages() / BloomFilters.PAGES_PER_GROUP;
+        for (int g = 0; g < full; g++)
+            assertTrue(bloom.isKnown(g));
+        if (full < numGroups())
+            assertFalse(bloom.isKnown(full));
+        assertEquals(0, bloom.getGroupsSkipped());
+        assertEquals(Arrays.asList(3), lookup(tid, lookupName(3)));
+        assertTrue(bloom.getGroupsSkipped() > 0);
+        m_bp.transactionComplete(tid);
+    }
+
+    /** Filters are saved when the file is forced, and not trusted once stale. */
+    @Test public void persistence() throws Exception {
+        TransactionId tid = new TransactionId();
+        m_bp.insertTuple(tid, m_table.getId(), tuple(-1, "needle"));
+        m_bp.transactionComplete(tid);
+        m_bp.flushAllPages();
+        BufferPool.forceFile(m_table);
+
+        m_table = open();
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(-1), lookup(tid, "needle"));
+        assertTrue(m_table.getBloomFilters().getGroupsSkipped() > 0);
+        m_bp.insertTuple(tid, m_table.getId(), tuple(-2, "haystack"));
+        m_bp.transactionComplete(tid);
+        assertFalse(open().getBloomFilters().isKnown(0));
+
+        // filters of other fields are not loaded
+        m_bp.flushAllPages();
+        BufferPool.forceFile(m_table);
+        HeapFile table = new HeapFile(m_data, TD);
+        table.setBloomFilters(0);
+        assertFalse(table.getBloomFilters().isKnown(0));
+    }
+
+    /** A force after an insert writes only the record of its group. */
+    @Test public void inPlaceSave() throws Exception {
+        byte[] saved = sideFileBytes();
+        TransactionId tid = new TransactionId();
+        m_bp.insertTuple(tid, m_table.getId(), tuple(-1, "needle"));
+        assertArrayEquals(saved, sideFileBytes());
+        m_bp.transactionComplete(tid);
+        BufferPool.forceFile(m_table);
+
+        byte[] now = sideFileBytes();
+        assertEquals(saved.length, now.length);
+        // magic, flag, then group size, words, hashes and the one field
+        int header = 4 + 1 + 4 * (4 + 1);
+        int record = (saved.length - header) / numGroups();
+        assertEquals(0, (record - 1) % 8);
+        Set<Integer> changed = new HashSet<Integer>();
+        for (int i = 0; i < now.length; i++) {
+            if (now[i] != saved[i])
+                changed.add(i < header ? -1 : (i - header) / record);
+        }
+        assertEquals(1, changed.size());
+        assertFalse(changed.contains(-1));
+        assertEquals(Arrays.asList(-1), lookup(tid, "needle"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFiltersTest.class);
+    }
+}
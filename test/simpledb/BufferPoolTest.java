@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** A HeapFile whose page reads are slow and counted. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger m_reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            m_reads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /** A HeapFile that inserts into a copy of its last page read from disk. */
+    private static class CopyingHeapFile extends HeapFile {
+        CopyingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+            HeapPage p = (HeapPage) readPage(new HeapPageId(getId(), numPages() - 1));
+            p.insertTuple(t);
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            dirtied.add(p);
+            return dirtied;
+        }
+    }
+
+    /**
+     * Threads that miss on the same page at the same time share one read
+     * and get the same Page object.
+     */
+    @Test public void singleFlight() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 2, 1000, null, null);
+        final SlowHeapFile table = new SlowHeapFile(file, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        final HeapPageId pid = new HeapPageId(table.getId(), 1);
+
+        final int threads = 8;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        List<Future<Page>> pages = new ArrayList<Future<Page>>();
+        for (int i = 0; i < threads; i++) {
+            pages.add(exec.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    start.await();
+                    return Database.getBufferPool().getPage(new TransactionId(), pid,
+                            Permissions.READ_ONLY);
+                }
+            }));
+        }
+        Page first = pages.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<Page> p : pages)
+            assertSame(first, p.get(5, TimeUnit.SECONDS));
+        exec.shutdown();
+
+        assertEquals(1, table.m_reads.get());
+        assertEquals(1, Database.getBufferPool().getMissCount());
+        assertEquals(threads - 1, Database.getBufferPool().getHitCount());
+    }
+
+    /** Deletes the first tuple of every page of f on behalf of tid. */
+    private static void deleteOnePerPage(TransactionId tid, HeapFile f) throws Exception {
+        List<Tuple> victims = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        PageId last = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (!t.getRecordId().getPageId().equals(last)) {
+                last = t.getRecordId().getPageId();
+                victims.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+    }
+
+    /**
+     * The background writer writes an uncommitted transaction's pages in
+     * file order, adjacent pages together; aborting it restores them.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        final int pages = 10;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * pages, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        deleteOnePerPage(tid, f);
+        assertTrue(bp.getDirtyRatio() > 0);
+
+        BackgroundWriter writer = bp.getBackgroundWriter();
+        writer.setDirtyRatios(0, 1);
+        writer.setInterval(10);
+        writer.start();
+        try {
+            for (int i = 0; i < 500 && bp.getDirtyRatio() > 0; i++)
+                Thread.sleep(10);
+        } finally {
+            writer.stop();
+        }
+        assertEquals(0, bp.getDirtyRatio(), 0);
+        assertEquals(pages, writer.getPagesWritten());
+        assertEquals(pages, bp.getPagesWritten());
+        assertTrue(bp.getWriteCalls() < pages);
+        assertTrue(writer.getFlushRate() > 0);
+
+        bp.transactionComplete(tid, false);
+        assertEquals(992 * pages, TestUtil.countTuples(f));
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds: eviction
+     * writes them back, and an abort still undoes all of its changes.
+     */
+    @Test public void dirtyEviction() throws Exception {
+        final int pages = 10;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * pages, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        // evictions, not the writer, write the pages back
+        bp.getBackgroundWriter().stop();
+        TransactionId tid = new TransactionId();
+        deleteOnePerPage(tid, f);
+        assertTrue(bp.getVictimWriteCount() > 0);
+
+        bp.transactionComplete(tid, false);
+        assertEquals(992 * pages, TestUtil.countTuples(f));
+
+        tid = new TransactionId();
+        deleteOnePerPage(tid, f);
+        bp.transactionComplete(tid, true);
+        assertEquals(991 * pages, TestUtil.countTuples(f));
+    }
+
+    /**
+     * An insert that returns another copy of a cached page puts it in the
+     * page's frame, which keeps the pins taken on the copy it replaced.
+     */
+    @Test public void replacePinnedPage() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 1010, 1000, null, null);
+        CopyingHeapFile table = new CopyingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertEquals(3, table.numPages());
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPageId last = new HeapPageId(table.getId(), 2);
+
+        TransactionId tid = new TransactionId();
+        Page pinned = bp.pinPage(tid, last, Permissions.READ_WRITE, null);
+        bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Page cached = bp.getPage(tid, last, Permissions.READ_WRITE);
+        assertNotSame(pinned, cached);
+        assertEquals(tid, cached.isDirty());
+
+        // the frame of the last page is still pinned
+        Page first = bp.pinPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY, null);
+        try {
+            bp.pinPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY, null);
+            fail("expected every page to be pinned");
+        } catch (DbException e) {
+        }
+        bp.unpinPage(pinned);
+        Page second = bp.pinPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY, null);
+        bp.unpinPage(first);
+        bp.unpinPage(second);
+        bp.transactionComplete(tid);
+        assertEquals(1011, TestUtil.countTuples(table));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
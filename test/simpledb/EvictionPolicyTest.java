@@ -0,0 +1,98 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.VictimFilter ANY = new EvictionPolicy.VictimFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockEvictionPolicy(3);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        p.pageRemoved(pid(0));
+
+        p.pageLoaded(pid(3));
+        p.pageAccessed(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * LRU-K evicts pages referenced fewer than K times first.
+     */
+    @Test public void lruK() {
+        EvictionPolicy p = new LruKEvictionPolicy(3, 2);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+
+        EvictionPolicy.VictimFilter notTwo = new EvictionPolicy.VictimFilter() {
+            public boolean canEvict(PageId pid) {
+                return !pid.equals(pid(2));
+            }
+        };
+        assertEquals(pid(0), p.chooseVictim(notTwo));
+    }
+
+    /**
+     * 2Q keeps pages that come back after eviction out of the FIFO queue.
+     */
+    @Test public void twoQueue() {
+        EvictionPolicy p = new TwoQueueEvictionPolicy(8);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        p.pageRemoved(pid(0));
+
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(3));
+        p.pageLoaded(pid(4));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+    }
+
+    /**
+     * A scan over a table larger than the buffer pool must evict pages
+     * rather than fail.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        assertTrue(f.numPages() > 4);
+
+        BufferPool bp = Database.resetBufferPool(4);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(f.numPages(), bp.getMissCount());
+        assertEquals(f.numPages() - 4, bp.getEvictionCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class HashFileTest extends IndexFileTestBase<HashFile> {
+
+    protected HashFile newFile(File f) {
+        return new HashFile(f, 0, TD);
+    }
+
+    private HashHeaderPage header(TransactionId tid) throws Exception {
+        return (HashHeaderPage) m_bp.getPage(tid, new HashPageId(m_file.getId(), 0),
+                Permissions.READ_ONLY);
+    }
+
+    private int depth() throws Exception {
+        TransactionId tid = new TransactionId();
+        int depth = header(tid).getDepth();
+        m_bp.transactionComplete(tid);
+        return depth;
+    }
+
+    // the number of the bucket page a directory entry points to
+    private int bucket(TransactionId tid, HashHeaderPage header, int entry) throws Exception {
+        int perPage = HashDirectoryPage.getNumEntries();
+        HashDirectoryPage dir = (HashDirectoryPage) m_file.getPage(tid, null,
+                header.getDirectoryPage(entry / perPage), Permissions.READ_ONLY);
+        return dir.getBucket(entry % perPage);
+    }
+
+    private List<Integer> lookup(TransactionId tid, int key) throws Exception {
+        return keys(m_file.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key)));
+    }
+
+    /** Buckets split as they fill up, and a lookup reads one bucket. */
+    @Test public void insertAndLookup() throws Exception {
+        insertKeys(3000);
+        assertTrue(depth() >= 6);
+
+        TransactionId tid = new TransactionId();
+        List<Integer> keys = sorted(keys(m_file.iterator(tid)));
+        assertEquals(6000, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 2, (int) keys.get(i));
+
+        m_bp.resetStats();
+        for (int k = 0; k < 3000; k += 7)
+            assertEquals(Arrays.asList(k, k), lookup(tid, k));
+        // the header, a directory page and the bucket
+        assertEquals(3 * (3000 / 7 + 1), m_bp.getHitCount() + m_bp.getMissCount());
+        assertTrue(lookup(tid, 3000).isEmpty());
+        assertEquals(2 * 5, keys(m_file.indexIterator(tid, Predicate.Op.LESS_THAN,
+                new IntField(5))).size());
+        m_bp.transactionComplete(tid);
+    }
+
+    /**
+     * The directory grows over several pages, each entry points to the
+     * bucket of its low bits, and an aborted doubling is rolled back.
+     */
+    @Test public void directoryPages() throws Exception {
+        insertKeys(6000);
+        int perPage = HashDirectoryPage.getNumEntries();
+
+        TransactionId tid = new TransactionId();
+        HashHeaderPage header = header(tid);
+        int depth = header.getDepth();
+        int dirPages = header.getNumDirectoryPages();
+        assertTrue(dirPages > 4);
+        assertEquals(((1 << depth) + perPage - 1) / perPage, dirPages);
+        for (int e = 0; e < (1 << depth); e++) {
+            HashBucketPage b = (HashBucketPage) m_file.getPage(tid, null,
+                    bucket(tid, header, e), Permissions.READ_ONLY);
+            int local = b.getLocalDepth();
+            assertTrue(local <= depth);
+            assertEquals(bucket(tid, header, e & ((1 << local) - 1)), b.getId().pageNumber());
+        }
+        for (int k = 0; k < 6000; k += 11)
+            assertEquals(Arrays.asList(k, k), lookup(tid, k));
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 6000; i < 16000; i++)
+            m_bp.insertTuple(tid, m_file.getId(), tuple(i, 0));
+        assertTrue(header(tid).getDepth() > depth);
+        m_bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(depth, header(tid).getDepth());
+        assertEquals(dirPages, header(tid).getNumDirectoryPages());
+        assertEquals(Arrays.asList(5999, 5999), lookup(tid, 5999));
+        assertTrue(lookup(tid, 6000).isEmpty());
+        m_bp.transactionComplete(tid);
+    }
+
+    /** Tuples with the same key cannot be split apart, so they overflow. */
+    @Test public void overflow() throws Exception {
+        insertKeys(100);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            m_bp.insertTuple(tid, m_file.getId(), tuple(-1, i));
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(500, lookup(tid, -1).size());
+        assertEquals(Arrays.asList(42, 42), lookup(tid, 42));
+        assertEquals(700, keys(m_file.iterator(tid)).size());
+        m_bp.transactionComplete(tid);
+    }
+
+    /**
+     * A split of a bucket with an overflow chain puts the chain's pages
+     * back to use instead of appending new ones.
+     */
+    @Test public void splitReusesOverflow() throws Exception {
+        // a chain of full pages, so the next insert cannot just be added
+        TransactionId tid = new TransactionId();
+        int n = 6 * m_file.findBucket(tid, null, new IntField(-1), Permissions.READ_ONLY)
+            .getMaxTuples();
+        for (int i = 0; i < n; i++)
+            m_bp.insertTuple(tid, m_file.getId(), tuple(-1, i));
+        m_bp.transactionComplete(tid);
+        assertEquals(0, depth());
+        // the header, the directory page and the chain
+        int chain = m_file.numPages() - 2;
+        assertEquals(6, chain);
+
+        // a key that a split on the lowest bit separates from -1
+        int other = 0;
+        while (((HashFile.hash(new IntField(other)) ^ HashFile.hash(new IntField(-1))) & 1) == 0)
+            other++;
+        tid = new TransactionId();
+        m_bp.insertTuple(tid, m_file.getId(), tuple(other, 0));
+        m_bp.transactionComplete(tid);
+
+        assertEquals(1, depth());
+        // the sibling is the only new page
+        assertEquals(chain + 3, m_file.numPages());
+        tid = new TransactionId();
+        HashBucketPage p = m_file.findBucket(tid, null, new IntField(-1), Permissions.READ_ONLY);
+        int pages = 1;
+        while (p.getNext() != 0) {
+            p = (HashBucketPage) m_file.getPage(tid, null, p.getNext(), Permissions.READ_ONLY);
+            pages++;
+        }
+        assertEquals(chain, pages);
+        assertEquals(n, lookup(tid, -1).size());
+        assertEquals(Arrays.asList(other), lookup(tid, other));
+        m_bp.transactionComplete(tid);
+    }
+
+    /** Deletes find tuples in their bucket, even if their record ids are stale. */
+    @Test public void delete() throws Exception {
+        insertKeys(1000);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = m_file.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (int i = 0; i < doomed.size(); i++) {
+            Tuple t = doomed.get(i);
+            // half of them as if a split had moved them since they were read
+            if (i % 2 == 0)
+                t.setRecordId(new RecordId(new HashPageId(m_file.getId(), 2), 0));
+            m_bp.deleteTuple(tid, t);
+        }
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Integer> keys = sorted(keys(m_file.iterator(tid)));
+        assertEquals(1000, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 2 * 2, (int) keys.get(i));
+        assertTrue(lookup(tid, 7).isEmpty());
+        m_bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
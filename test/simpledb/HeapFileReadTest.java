@@ -77,6 +77,67 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile whose
+     * pages span several mapping segments, before and after pages are
+     * appended to it.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        int numPages = f.numPages();
+        assertTrue(numPages > 2);
+        f.setMemoryMapped(true, 2 * BufferPool.PAGE_SIZE);
+        assertMapped(f);
+        assertNull(f.getMapping().page(f.getChannel(), numPages));
+
+        // two pages, so the mapping of the last segment has to grow
+        for (int i = 0; i < 2; i++) {
+            HeapPage p = (HeapPage) f.readPage(new HeapPageId(f.getId(), i));
+            f.writePage(new HeapPage(new HeapPageId(f.getId(), numPages + i), p.getPageData()));
+        }
+        assertEquals(numPages + 2, f.numPages());
+        assertMapped(f);
+    }
+
+    // every page of f is read from its mapping, as it is in the file
+    private static void assertMapped(HeapFile f) throws Exception {
+        byte[] bytes = TestUtil.readFileBytes(f.getFile().getAbsolutePath());
+        for (int i = 0; i < f.numPages(); i++) {
+            assertNotNull(f.getMapping().page(f.getChannel(), i));
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            assertArrayEquals(Arrays.copyOfRange(bytes, i * BufferPool.PAGE_SIZE,
+                    (i + 1) * BufferPool.PAGE_SIZE), f.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for scanning a HeapFile whose file is read-only, and
+     * writing to it once it is writable again.
+     */
+    @Test
+    public void readOnlyFile() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        int numPages = f.numPages();
+        assertTrue(f.getFile().setWritable(false));
+        try {
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            assertEquals(2000, count);
+        } finally {
+            f.getFile().setWritable(true);
+        }
+        f.writePage(new HeapPage(new HeapPageId(f.getId(), numPages),
+                HeapPage.createEmptyPageData()));
+        assertEquals(numPages + 1, f.numPages());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -99,6 +99,27 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate) and HeapPage.getField()
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+            if (EXAMPLE_VALUES[row][0] <= 30000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(row, tup.getRecordId().tupleno());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(null, page.getField(EXAMPLE_VALUES.length, 0));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,98 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple()
+     */
+    @Test public void addTuple() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        for (int i = 0; i < free; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            page.insertTuple(t);
+            assertEquals(free - i - 1, page.getNumEmptySlots());
+            assertEquals(pid, t.getRecordId().getPageId());
+            assertTrue(TestUtil.compareTuples(t, page.getTuple(t.getRecordId().tupleno())));
+        }
+
+        // the page is full now
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 2));
+            fail("page should be full");
+        } catch (DbException e) {
+        }
+
+        // the serialized page round-trips, and the caller's buffer is untouched
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(0, copy.getNumEmptySlots());
+        assertArrayEquals(original, HeapPageReadTest.EXAMPLE_DATA);
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple()
+     */
+    @Test public void deleteTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+
+        Tuple first = tuples.get(0);
+        page.deleteTuple(first);
+        assertEquals(free + 1, page.getNumEmptySlots());
+        assertNull(first.getRecordId());
+
+        // deleting it again must fail
+        first.setRecordId(new RecordId(pid, 0));
+        try {
+            page.deleteTuple(first);
+            fail("slot is already empty");
+        } catch (DbException e) {
+        }
+
+        // the before image is not affected by the delete
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        page.setBeforeImage();
+        assertEquals(free + 1, page.getBeforeImage().getNumEmptySlots());
+
+        // an empty slot serializes as zeroes
+        byte[] data = page.getPageData();
+        int headerSize = (int) Math.ceil(page.getNumSlots() / 8.0);
+        for (int i = 0; i < 8; i++)
+            assertEquals(0, data[headerSize + i]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
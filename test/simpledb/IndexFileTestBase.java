@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * The fixture of the tests of an IndexFile: a file of two int fields keyed
+ * on the first, on small pages, so a few thousand tuples fill many of them.
+ */
+public abstract class IndexFileTestBase<F extends IndexFile> extends SimpleDbTestBase {
+
+    protected static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    protected F m_file;
+    protected BufferPool m_bp;
+
+    /** @return a new file of TD keyed on field 0, stored in f */
+    protected abstract F newFile(File f);
+
+    @Before public void createFile() throws Exception {
+        BufferPool.setPageSize(256);
+        m_bp = Database.resetBufferPool(2000);
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        m_file = newFile(f);
+        Database.getCatalog().addTable(m_file, SystemTestUtil.getUUID());
+    }
+
+    @After public void restorePageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    protected static Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    // inserts keys 0 .. n-1 in random order, each twice, and commits
+    protected void insertKeys(int n) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            keys.add(i);
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < keys.size(); i++)
+            m_bp.insertTuple(tid, m_file.getId(), tuple(keys.get(i), i));
+        m_bp.transactionComplete(tid);
+    }
+
+    // the keys of the tuples an iterator returns, in its order
+    protected List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    protected static List<Integer> sorted(List<Integer> keys) {
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** An aborted insert that split pages leaves the tuples as they were. */
+    @Test public void abortSplits() throws Exception {
+        insertKeys(100);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            m_bp.insertTuple(tid, m_file.getId(), tuple(i, -1));
+        m_bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        List<Integer> keys = sorted(keys(m_file.iterator(tid)));
+        m_bp.transactionComplete(tid);
+        assertEquals(200, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i / 2, (int) keys.get(i));
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> m_tuples;
+    private HeapFile m_table;
+    private SecondaryIndex m_index;
+
+    /** A table of 2000 tuples, with an index on its second field. */
+    @Before public void createTable() throws Exception {
+        m_tuples = new ArrayList<ArrayList<Integer>>();
+        m_table = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, m_tuples);
+        File f = File.createTempFile("index", ".idx");
+        f.deleteOnExit();
+        m_index = new SecondaryIndex("index", m_table.getId(), 1,
+                new BTreeFile(f, 0, SecondaryIndex.entryDesc(m_table.getTupleDesc(), 1)));
+        Database.getCatalog().addIndex(m_index);
+        TransactionId tid = new TransactionId();
+        m_index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<ArrayList<Integer>> matching(Predicate.Op op, int value) {
+        List<ArrayList<Integer>> matching = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : m_tuples) {
+            if (new IntField(t.get(1)).compare(op, new IntField(value)))
+                matching.add(t);
+        }
+        return matching;
+    }
+
+    private IndexScan scan(TransactionId tid, Predicate.Op op, int value) {
+        return new IndexScan(tid, m_table.getId(), new Predicate(1, op, new IntField(value)));
+    }
+
+    /** A scan returns the tuples that satisfy its predicate. */
+    @Test public void scan() throws Exception {
+        assertSame(m_index, Database.getCatalog().getIndex(m_table.getId(), 1));
+        assertNull(Database.getCatalog().getIndex(m_table.getId(), 0));
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(scan(tid, Predicate.Op.EQUALS, 42),
+                matching(Predicate.Op.EQUALS, 42));
+        SystemTestUtil.matchTuples(scan(tid, Predicate.Op.LESS_THAN, 10),
+                matching(Predicate.Op.LESS_THAN, 10));
+        SystemTestUtil.matchTuples(scan(tid, Predicate.Op.NOT_EQUALS, 3),
+                matching(Predicate.Op.NOT_EQUALS, 3));
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            new IndexScan(tid, m_table.getId(), new Predicate(0, Predicate.Op.EQUALS,
+                    new IntField(1)));
+            fail("field 0 has no index");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /** Inserts and deletes through the BufferPool update the index. */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = new Tuple(m_table.getTupleDesc());
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(42));
+            Database.getBufferPool().insertTuple(tid, m_table.getId(), t);
+            m_tuples.add(new ArrayList<Integer>(Arrays.asList(-i, 42)));
+        }
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        IndexScan scan = scan(tid, Predicate.Op.EQUALS, 7);
+        scan.open();
+        while (scan.hasNext())
+            doomed.add(scan.next());
+        scan.close();
+        assertEquals(matching(Predicate.Op.EQUALS, 7).size(), doomed.size());
+        for (Tuple t : doomed) {
+            m_tuples.remove(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(scan(tid, Predicate.Op.EQUALS, 42),
+                matching(Predicate.Op.EQUALS, 42));
+        SystemTestUtil.matchTuples(scan(tid, Predicate.Op.EQUALS, 7),
+                new ArrayList<ArrayList<Integer>>());
+        SystemTestUtil.matchTuples(m_table, tid, m_tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** loadSchema adds the indexes a catalog file defines, and builds them. */
+    @Test public void loadSchema() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        File data = new File(dir, "t.dat");
+        File catalog = new File(dir, "catalog.txt");
+        File idx = new File(dir, "t_b.idx");
+        data.deleteOnExit();
+        catalog.deleteOnExit();
+        idx.deleteOnExit();
+        new File(dir, "t.dat.zm").deleteOnExit();
+        dir.deleteOnExit();
+
+        InputStream in = new FileInputStream(m_table.getFile());
+        OutputStream out = new FileOutputStream(data);
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        for (int n; (n = in.read(buf)) > 0; )
+            out.write(buf, 0, n);
+        in.close();
+        out.close();
+        Writer w = new FileWriter(catalog);
+        w.write("t (a int, b int)\nindex t_b on t (b)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableid = Database.getCatalog().getTableId("t");
+        assertEquals("t_b", Database.getCatalog().getIndex(tableid, 1).getName());
+        assertTrue(idx.length() > 0);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, tableid, new Predicate(1,
+                Predicate.Op.EQUALS, new IntField(42))), matching(Predicate.Op.EQUALS, 42));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+
+    private HeapPageId p0;
+    private HeapPageId p1;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        assertTrue(f.numPages() >= 2);
+        p0 = new HeapPageId(f.getId(), 0);
+        p1 = new HeapPageId(f.getId(), 1);
+        bp = Database.getBufferPool();
+    }
+
+    /**
+     * Starts a thread that fetches the specified page; the returned future
+     * completes once the page (and its lock) has been granted.
+     */
+    private Future<Page> fetch(final TransactionId tid, final PageId pid, final Permissions perm) {
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws Exception {
+                return bp.getPage(tid, pid, perm);
+            }
+        });
+        new Thread(task).start();
+        return task;
+    }
+
+    private static boolean blocks(Future<?> f) throws Exception {
+        try {
+            f.get(200, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Shared locks are compatible with each other but not with an
+     * exclusive lock.
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        assertFalse(blocks(fetch(t2, p0, Permissions.READ_ONLY)));
+        assertTrue(bp.holdsLock(t1, p0));
+        assertTrue(bp.holdsLock(t2, p0));
+
+        Future<Page> writer = fetch(t3, p0, Permissions.READ_WRITE);
+        assertTrue(blocks(writer));
+        bp.transactionComplete(t1);
+        assertTrue(blocks(writer));
+        bp.releasePage(t2, p0);
+        assertNotNull(writer.get(1, TimeUnit.SECONDS));
+        assertTrue(bp.holdsLock(t3, p0));
+        assertFalse(bp.holdsLock(t1, p0));
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * The only reader of a page can upgrade its lock; once it is
+     * exclusive, readers have to wait.
+     */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        Future<Page> reader = fetch(t2, p0, Permissions.READ_ONLY);
+        assertTrue(blocks(reader));
+        bp.transactionComplete(t1);
+        assertNotNull(reader.get(1, TimeUnit.SECONDS));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Two transactions that each wait for a page the other one holds form
+     * a deadlock; the younger one is aborted and the older one proceeds
+     * once the younger one's locks are released.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+
+        bp.getPage(older, p0, Permissions.READ_WRITE);
+        bp.getPage(younger, p1, Permissions.READ_WRITE);
+
+        Future<Page> olderWaits = fetch(older, p1, Permissions.READ_WRITE);
+        assertTrue(blocks(olderWaits));
+        Future<Page> youngerWaits = fetch(younger, p0, Permissions.READ_WRITE);
+        try {
+            youngerWaits.get(5, TimeUnit.SECONDS);
+            fail("expected the younger transaction to be aborted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        assertTrue(blocks(olderWaits));
+
+        bp.transactionComplete(younger, false);
+        assertNotNull(olderWaits.get(1, TimeUnit.SECONDS));
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * Locks are dropped once nobody holds or waits for them, and a page's
+     * lock stays exclusive while its lock object comes and goes.
+     */
+    @Test public void idleLocksDropped() throws Exception {
+        final LockManager lm = new LockManager();
+        final int[] counts = new int[2];
+        final PageId[] pids = { p0, p1 };
+        Thread[] threads = new Thread[8];
+        final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            TransactionId tid = new TransactionId();
+                            int p = j % 2;
+                            lm.acquire(tid, pids[p], Permissions.READ_WRITE);
+                            // not atomic, so two holders would lose updates
+                            counts[p] = counts[p] + 1;
+                            lm.releaseAll(tid);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(threads.length * 1000, counts[0]);
+        assertEquals(threads.length * 1000, counts[1]);
+        assertEquals(0, lm.numLocks());
+
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p1, Permissions.READ_WRITE);
+        assertEquals(2, lm.numLocks());
+        lm.release(t1, p0);
+        assertEquals(1, lm.numLocks());
+        lm.releaseAll(t1);
+        assertEquals(0, lm.numLocks());
+    }
+
+    /**
+     * An aborted insert leaves no trace; a committed one is visible to
+     * later transactions.
+     */
+    @Test public void abortDiscardsChanges() throws Exception {
+        int tableId = p0.getTableId();
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setInt(0, 1);
+        t.setInt(1, 2);
+
+        TransactionId aborted = new TransactionId();
+        bp.insertTuple(aborted, tableId, t);
+        bp.transactionComplete(aborted, false);
+        assertEquals(1000, TestUtil.countTuples(f));
+
+        TransactionId committed = new TransactionId();
+        bp.insertTuple(committed, tableId, t);
+        bp.transactionComplete(committed, true);
+        assertEquals(1001, TestUtil.countTuples(f));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
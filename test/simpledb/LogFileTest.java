@@ -0,0 +1,401 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    /**
+     * The tests decide when pages reach the disk, so the background
+     * writer is stopped unless a test starts it.
+     */
+    @Before public void stopWriter() {
+        Database.getBufferPool().getBackgroundWriter().stop();
+    }
+
+    /**
+     * Transactions that commit at the same time share forces of the log,
+     * and each of them returns only once its commit is durable.
+     */
+    @Test public void groupCommit() throws Exception {
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(2000);
+        final int threads = 8;
+        final int commits = 25;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> done = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            done.add(exec.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < commits; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                        assertFalse(log.isLive(tid));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> f : done)
+            f.get(30, TimeUnit.SECONDS);
+        exec.shutdown();
+
+        assertEquals(threads * commits, log.commitsWritten());
+        assertTrue(log.getCommitForceCount() > 0);
+        assertTrue(log.getCommitForceCount() < threads * commits);
+    }
+
+    /**
+     * A transaction's UPDATE records survive the rewrite of the log by a
+     * checkpoint, so it can still be rolled back afterwards.
+     */
+    @Test public void rollbackAfterTruncation() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        bp.deleteTuple(tid, t);
+        bp.flushPages(tid);
+        assertTrue(log.isLive(tid));
+
+        log.logCheckpoint();
+        bp.transactionComplete(tid, false);
+        assertFalse(log.isLive(tid));
+        assertEquals(992 * 2, TestUtil.countTuples(f));
+    }
+
+    /**
+     * Writing back a page a second time logs only what changed, and an
+     * abort undoes full and delta records alike.
+     */
+    @Test public void deltaRecords() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; i < 3; i++)
+            tuples.add(it.next());
+        it.close();
+
+        bp.deleteTuple(tid, tuples.get(0));
+        bp.flushPages(tid);
+        long full = log.currentOffset;
+        bp.deleteTuple(tid, tuples.get(1));
+        bp.flushPages(tid);
+        long delta = log.currentOffset - full;
+        bp.deleteTuple(tid, tuples.get(2));
+        bp.flushPages(tid);
+        assertTrue(full > 2 * BufferPool.getPageSize());
+        assertTrue("delta record of " + delta + " bytes", delta < 100);
+
+        bp.transactionComplete(tid, false);
+        assertEquals(992 * 2, TestUtil.countTuples(f));
+    }
+
+    /**
+     * Truncation drops whole segments, but keeps those a live transaction
+     * still needs to roll back.
+     */
+    @Test public void segments() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 4, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+        // about one full UPDATE record per segment
+        log.setSegmentSize(3 * BufferPool.getPageSize());
+
+        List<Tuple> firsts = firstPerPage(f);
+
+        TransactionId live = new TransactionId();
+        bp.deleteTuple(live, firsts.get(0));
+        bp.flushPages(live);
+        for (int i = 1; i < firsts.size(); i++) {
+            TransactionId tid = new TransactionId();
+            bp.deleteTuple(tid, firsts.get(i));
+            bp.transactionComplete(tid);
+        }
+        int segments = log.getSegmentCount();
+        assertTrue(segments >= 4);
+
+        log.logCheckpoint();
+        assertTrue(log.getSegmentCount() >= segments);
+        bp.transactionComplete(live, false);
+        assertEquals(992 * 4 - 3, TestUtil.countTuples(f));
+
+        // checkpoints keep the log of writes that may not be on disk
+        log.logCheckpoint();
+        assertTrue(log.getSegmentCount() > 1);
+        bp.flushAllPages();
+        log.logCheckpoint();
+        assertEquals(1, log.getSegmentCount());
+    }
+
+    /**
+     * The background writer forces the files of logged writes, so
+     * checkpoints truncate the log while the pool still holds the pages.
+     */
+    @Test public void backgroundTruncation() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 4, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+        log.setSegmentSize(3 * BufferPool.getPageSize());
+
+        for (Tuple t : firstPerPage(f)) {
+            TransactionId tid = new TransactionId();
+            bp.deleteTuple(tid, t);
+            bp.transactionComplete(tid);
+        }
+        log.logCheckpoint();
+        assertTrue(log.getSegmentCount() > 1);
+
+        BackgroundWriter writer = bp.getBackgroundWriter();
+        writer.setInterval(10);
+        writer.start();
+        for (int i = 0; i < 500 && !log.unsyncedWrites().isEmpty(); i++)
+            Thread.sleep(10);
+        log.logCheckpoint();
+        assertEquals(1, log.getSegmentCount());
+        assertEquals(992 * 4 - 4, TestUtil.countTuples(f));
+    }
+
+    /**
+     * A checkpoint writes no pages; it records the pages whose logged
+     * writes have not been forced to their files.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        Tuple last = first;
+        while (it.hasNext())
+            last = it.next();
+        it.close();
+
+        bp.deleteTuple(tid, first);
+        bp.flushPages(tid);
+        bp.deleteTuple(tid, last);
+        long written = bp.getPagesWritten();
+        assertEquals(1, log.unsyncedWrites().size());
+
+        log.logCheckpoint();
+        assertEquals(written, bp.getPagesWritten());
+        assertTrue(bp.getDirtyRatio() > 0);
+        assertEquals(1, log.unsyncedWrites().size());
+
+        bp.flushAllPages();
+        assertEquals(0, log.unsyncedWrites().size());
+        bp.transactionComplete(tid, false);
+        assertEquals(992 * 2, TestUtil.countTuples(f));
+    }
+
+    /**
+     * Recovery installs committed writes that did not reach disk, leaves
+     * pages that did alone, and undoes transactions that never ended.
+     */
+    @Test public void recover() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 3, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+
+        List<Tuple> firsts = firstPerPage(f);
+        PageId lost = firsts.get(0).getRecordId().getPageId();
+        byte[] before = f.readPage(lost).getPageData();
+
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, firsts.get(0));
+        bp.transactionComplete(t1);
+        log.logCheckpoint();
+        // the commit's write of the page never made it to disk
+        f.writePage(new HeapPage((HeapPageId) lost, before));
+
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t2, firsts.get(2));
+        bp.transactionComplete(t2);
+
+        TransactionId loser = new TransactionId();
+        bp.deleteTuple(loser, firsts.get(1));
+        bp.flushPages(loser);
+
+        // crash and restart
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LogFile restarted = new LogFile(log.logFile);
+        restarted.setRecoveryThreads(4);
+        restarted.recover();
+        assertEquals(1, restarted.pagesRedone);
+        assertEquals(1, restarted.pagesRedoSkipped);
+        assertEquals(992 * 3 - 2, TestUtil.countTuples(f));
+
+        // the checkpoint taken by recovery leaves nothing to redo
+        restarted = new LogFile(log.logFile);
+        restarted.recover();
+        assertEquals(0, restarted.pagesRedone + restarted.pagesRedoSkipped);
+        assertEquals(992 * 3 - 2, TestUtil.countTuples(f));
+    }
+
+    /**
+     * A delta record is taken against the page's previous logged write,
+     * so redo keeps a change that a later write of the page reverts.
+     */
+    @Test public void redoRevertedDelta() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        PageId pid = t.getRecordId().getPageId();
+        byte[] before = f.readPage(pid).getPageData();
+
+        bp.deleteTuple(tid, t);
+        bp.flushPages(tid);
+        bp.insertTuple(tid, f.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        bp.transactionComplete(tid);
+        // the commit's write of the page never made it to disk
+        f.writePage(new HeapPage((HeapPageId) pid, before));
+
+        // crash and restart
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LogFile restarted = new LogFile(log.logFile);
+        restarted.recover();
+        assertEquals(0, restarted.pagesRedone);
+        assertEquals(992 * 2, TestUtil.countTuples(f));
+    }
+
+    /**
+     * Redo replays a page written many times by one transaction, from a
+     * DELTA record when the page was forced in between, and keeps the
+     * writes that revert earlier ones.
+     */
+    @Test public void redoRepeatedWrites() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; i < 3; i++)
+            tuples.add(it.next());
+        it.close();
+        PageId pid = tuples.get(0).getRecordId().getPageId();
+
+        bp.deleteTuple(tid, tuples.get(0));
+        bp.flushPages(tid);
+        bp.deleteTuple(tid, tuples.get(1));
+        bp.flushAllPages();
+        byte[] synced = f.readPage(pid).getPageData();
+        bp.insertTuple(tid, f.getId(), tuples.get(0));
+        bp.flushPages(tid);
+        // the page's first write after the checkpoint is a DELTA record
+        log.logCheckpoint();
+        bp.deleteTuple(tid, tuples.get(2));
+        bp.flushPages(tid);
+        bp.insertTuple(tid, f.getId(), tuples.get(1));
+        assertEquals(pid, tuples.get(0).getRecordId().getPageId());
+        assertEquals(pid, tuples.get(1).getRecordId().getPageId());
+        bp.transactionComplete(tid);
+        // the writes after the forced one never made it to disk
+        f.writePage(new HeapPage((HeapPageId) pid, synced));
+
+        // crash and restart
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LogFile restarted = new LogFile(log.logFile);
+        restarted.setRecoveryThreads(4);
+        restarted.recover();
+        assertEquals(1, restarted.pagesRedone);
+        assertEquals(992 * 2 - 1, TestUtil.countTuples(f));
+
+        TransactionId reader = new TransactionId();
+        it = f.iterator(reader);
+        it.open();
+        assertEquals(tuples.get(0).toString(), it.next().toString());
+        assertEquals(tuples.get(1).toString(), it.next().toString());
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /** A record whose bytes have changed fails its CRC check. */
+    @Test public void corruptRecord() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+
+        RandomAccessFile raf = new RandomAccessFile(log.segmentFor(0), "rw");
+        try {
+            LogFile.readRecord(raf);
+            long commit = raf.getFilePointer();
+            assertEquals(LogFile.COMMIT_RECORD, LogFile.readRecord(raf).type);
+
+            raf.seek(commit + LogFile.INT_SIZE);
+            raf.writeLong(tid.getId() + 1);
+            raf.seek(commit);
+            LogFile.readRecord(raf);
+            fail("expected the CRC check to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("corrupt"));
+        } finally {
+            raf.close();
+        }
+    }
+
+    // the first tuple of each page of the specified file
+    private static List<Tuple> firstPerPage(HeapFile f) throws Exception {
+        List<Tuple> firsts = new ArrayList<Tuple>();
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = f.iterator(reader);
+        it.open();
+        PageId last = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (!t.getRecordId().getPageId().equals(last)) {
+                last = t.getRecordId().getPageId();
+                firsts.add(t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        return firsts;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * The fixture of the tests of a HeapFile's side file: a table encoded into
+ * a temporary file, opened with its summaries, and a pool large enough to
+ * hold all of its pages.
+ */
+public abstract class SideFileTestBase extends SimpleDbTestBase {
+
+    protected File m_data;
+    protected HeapFile m_table;
+    protected BufferPool m_bp;
+
+    /** @return the side file of the table stored in data */
+    protected abstract File sideFile(File data);
+
+    /** Encodes the table into data. */
+    protected abstract void encode(File data) throws Exception;
+
+    /** @return the table stored in m_data, with its summaries */
+    protected abstract HeapFile open();
+
+    @Before public void createTable() throws Exception {
+        m_bp = Database.resetBufferPool(1000);
+        m_data = File.createTempFile("sidefile", ".dat");
+        m_data.deleteOnExit();
+        sideFile(m_data).deleteOnExit();
+        encode(m_data);
+        m_table = open();
+    }
+
+    protected static Tuple tuple(Field... fields) {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            types[i] = fields[i].getType();
+        Tuple t = new Tuple(new TupleDesc(types));
+        for (int i = 0; i < fields.length; i++)
+            t.setField(i, fields[i]);
+        return t;
+    }
+
+    // the first fields of the tuples that satisfy a predicate, in order
+    protected List<Integer> scan(TransactionId tid, Predicate p) throws Exception {
+        List<Integer> found = new ArrayList<Integer>();
+        DbFileIterator it = m_table.iterator(tid, null, p);
+        it.open();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(found);
+        return found;
+    }
+
+    protected byte[] sideFileBytes() throws Exception {
+        return TestUtil.readFileBytes(sideFile(m_data).getPath());
+    }
+}
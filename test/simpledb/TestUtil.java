@@ -190,6 +190,24 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * @return the number of tuples in the file, read by a transaction of
+     *   its own that commits afterwards
+     */
+    public static int countTuples(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
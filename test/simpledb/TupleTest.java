@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +30,27 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors Tuple.getInt() and Tuple.getString()
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+
+        tup.setInt(0, 42);
+        tup.setString(1, "forty-two");
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals(new StringField("forty-two", Type.STRING_LEN), tup.getField(1));
+
+        tup.setField(0, new IntField(7));
+        assertEquals(7, tup.getInt(0));
+        tup.setInt(0, 8);
+        assertEquals(new IntField(8), tup.getField(0));
+        assertEquals("forty-two", tup.getString(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ZoneMapTest extends SideFileTestBase {
+
+    private static final int ROWS = 3000;
+
+    protected File sideFile(File data) {
+        return ZoneMap.sideFile(data);
+    }
+
+    /** A table whose first field is the row number, so pages have narrow zones. */
+    protected void encode(File data) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(42);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, r.nextInt(100))));
+        HeapFileEncoder.convert(tuples, data, BufferPool.PAGE_SIZE, 2);
+    }
+
+    protected HeapFile open() {
+        HeapFile table = Utility.openHeapFile(2, m_data);
+        table.setZoneMapped(true);
+        return table;
+    }
+
+    private static Tuple tuple(int a, int b) {
+        return tuple(new IntField(a), new IntField(b));
+    }
+
+    // the first fields of the tuples that satisfy a predicate on field 0
+    private List<Integer> scan(TransactionId tid, Predicate.Op op, int value) throws Exception {
+        return scan(tid, new Predicate(0, op, new IntField(value)));
+    }
+
+    /** Pages get summaries as they are read, and later scans skip them. */
+    @Test public void skip() throws Exception {
+        ZoneMap zones = m_table.getZoneMap();
+        TransactionId tid = new TransactionId();
+        assertEquals(Arrays.asList(1500), scan(tid, Predicate.Op.EQUALS, 1500));
+        assertEquals(0, zones.getPagesSkipped());
+        assertTrue(zones.isKnown(m_table.numPages() - 1));
+
+        m_bp.resetStats();
+        assertEquals(Arrays.asList(1500), scan(tid, Predicate.Op.EQUALS, 1500));
+        assertEquals(1, m_bp.getHitCount() + m_bp.getMissCount());
+        assertEquals(m_table.numPages() - 1, zones.getPagesSkipped());
+        assertEquals(10, scan(tid, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10).size());
+        assertEquals(ROWS - 1, scan(tid, Predicate.Op.NOT_EQUALS, 7).size());
+        m_bp.transactionComplete(tid);
+    }
+
+    /** A SeqScan with a predicate skips pages the same way. */
+    @Test public void seqScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, Predicate.Op.EQUALS, 0);
+        SeqScan ss = new SeqScan(tid, m_table.getId(), "t");
+        ss.setPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)));
+        m_bp.resetStats();
+        List<Integer> found = new ArrayList<Integer>();
+        ss.open();
+        while (ss.hasNext())
+            found.add(((IntField) ss.next().getField(0)).getValue());
+        ss.close();
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), found);
+        assertEquals(1, m_bp.getHitCount() + m_bp.getMissCount());
+        m_bp.transactionComplete(tid);
+    }
+
+    /** Inserts widen zones at once, deletes narrow them when they commit. */
+    @Test public void maintenance() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, Predicate.Op.EQUALS, 0);
+        // lands on the last page, whose zone is far from 5
+        m_bp.insertTuple(tid, m_table.getId(), tuple(5, 0));
+        assertEquals(Arrays.asList(5, 5), scan(tid, Predicate.Op.EQUALS, 5));
+
+        DbFileIterator it = m_table.iterator(tid, null, new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(600)));
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (Tuple t : doomed)
+            m_bp.deleteTuple(tid, t);
+        m_bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        long skipped = m_table.getZoneMap().getPagesSkipped();
+        assertTrue(scan(tid, Predicate.Op.LESS_THAN, 600).isEmpty());
+        // the tuple with 5 was deleted too, so the last page is skipped as well
+        assertEquals(m_table.numPages(), m_table.getZoneMap().getPagesSkipped() - skipped);
+
+        // an aborted insert leaves a zone wider, which is safe
+        TransactionId aborted = new TransactionId();
+        m_bp.insertTuple(aborted, m_table.getId(), tuple(-5, 0));
+        m_bp.transactionComplete(aborted, false);
+        assertTrue(scan(tid, Predicate.Op.EQUALS, -5).isEmpty());
+        m_bp.transactionComplete(tid);
+    }
+
+    /** Zones are saved when the file is forced, and not trusted once stale. */
+    @Test public void persistence() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, Predicate.Op.EQUALS, 0);
+        m_bp.transactionComplete(tid);
+        m_bp.flushAllPages();
+        BufferPool.forceFile(m_table);
+
+        m_table = open();
+        assertTrue(m_table.getZoneMap().isKnown(0));
+        tid = new TransactionId();
+        assertEquals(Arrays.asList(42), scan(tid, Predicate.Op.EQUALS, 42));
+        assertEquals(m_table.numPages() - 1, m_table.getZoneMap().getPagesSkipped());
+
+        m_bp.insertTuple(tid, m_table.getId(), tuple(7, 7));
+        m_bp.transactionComplete(tid);
+        assertFalse(open().getZoneMap().isKnown(0));
+    }
+
+    /**
+     * An insert does no I/O on the side file; the flag is cleared when the
+     * page is written, and a force writes only the changed record.
+     */
+    @Test public void inPlaceSave() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid, Predicate.Op.EQUALS, 0);
+        m_bp.transactionComplete(tid);
+        BufferPool.forceFile(m_table);
+        byte[] saved = sideFileBytes();
+        // magic, flag, number of fields, then a record per page
+        int header = 9, record = 1 + 8 * 2;
+        assertEquals(header + m_table.numPages() * record, saved.length);
+        assertEquals(1, saved[4]);
+
+        tid = new TransactionId();
+        m_bp.insertTuple(tid, m_table.getId(), tuple(-7, 0));
+        assertArrayEquals(saved, sideFileBytes());
+        m_bp.transactionComplete(tid);
+        byte[] stale = sideFileBytes();
+        assertEquals(0, stale[4]);
+        stale[4] = 1;
+        assertArrayEquals(saved, stale);
+
+        BufferPool.forceFile(m_table);
+        byte[] now = sideFileBytes();
+        assertEquals(saved.length, now.length);
+        int changed = -1;
+        for (int i = 0; i < now.length; i++) {
+            if (now[i] != saved[i]) {
+                int page = (i - header) / record;
+                assertTrue(changed == -1 || changed == page);
+                changed = page;
+            }
+        }
+        assertEquals(m_table.numPages() - 1, changed);
+        assertTrue(open().getZoneMap().isKnown(changed));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
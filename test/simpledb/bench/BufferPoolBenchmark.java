@@ -0,0 +1,89 @@
+package simpledb.bench;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures getPage throughput of the BufferPool with 1 to 32 threads, once
+ * with a single partition (the old one-monitor pool) and once with
+ * {@link BufferPool#MAX_PARTITIONS} partitions.
+ * <p>
+ * Each thread runs short read-only transactions that fetch random pages of
+ * a table twice the size of the pool, so the run mixes hits with misses and
+ * evictions.  Run with
+ * <pre>
+ *   java -cp bin/src:bin/test:lib/* simpledb.bench.BufferPoolBenchmark [seconds]
+ * </pre>
+ * Threads beyond the number of processors only take turns, so the run
+ * says nothing about scaling past that count.  So far it has only been
+ * run on a single processor, where 16 partitions are no faster than one;
+ * whether partitioning scales with threads is not yet measured.
+ */
+public class BufferPoolBenchmark {
+
+    private static final int POOL_PAGES = 512;
+    private static final int TABLE_PAGES = 2 * POOL_PAGES;
+    private static final int PAGES_PER_TRANSACTION = 16;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        // 992 single-int tuples fill a page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 992 * TABLE_PAGES, null, null);
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        System.out.printf("available processors: %d%n", cpus);
+        if (cpus == 1)
+            System.out.println("warning: one processor, so the threads do not run in parallel");
+
+        System.out.printf("%8s %14s %14s%n", "threads", "1 partition", BufferPool.MAX_PARTITIONS + " partitions");
+        for (int threads : THREADS) {
+            double single = run(table, 1, threads, seconds);
+            double striped = run(table, BufferPool.MAX_PARTITIONS, threads, seconds);
+            System.out.printf("%8d %11.2f M/s %11.2f M/s%n", threads, single / 1e6, striped / 1e6);
+        }
+    }
+
+    /** @return getPage calls per second */
+    private static double run(final HeapFile table, int partitions, int threads, double seconds)
+            throws Exception {
+        Database.resetBufferPool(new BufferPool(POOL_PAGES, EvictionPolicy.Kind.CLOCK, partitions));
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        final AtomicLong calls = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    BufferPool bp = Database.getBufferPool();
+                    long n = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < PAGES_PER_TRANSACTION; j++) {
+                                HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(TABLE_PAGES));
+                                bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            }
+                            bp.transactionComplete(tid);
+                            n += PAGES_PER_TRANSACTION;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        calls.addAndGet(n);
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        return calls.get() / ((System.nanoTime() - start) / 1e9);
+    }
+}
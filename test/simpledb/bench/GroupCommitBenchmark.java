@@ -0,0 +1,92 @@
+package simpledb.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures commit throughput of the LogFile with 1 to 32 threads, once with
+ * the flusher forcing as soon as it can and once with it waiting
+ * {@link #DELAY_MICROS} for more commits to join a batch.
+ * <p>
+ * Each thread runs empty transactions: a BEGIN record and a COMMIT record,
+ * which waits for the log to be forced.  The second pair of columns has
+ * each thread insert a tuple into a table of its own per transaction, so
+ * a commit also forces the log before it writes the page back.  Run with
+ * <pre>
+ *   java -cp bin/src:bin/test:lib/* simpledb.bench.GroupCommitBenchmark [seconds]
+ * </pre>
+ */
+public class GroupCommitBenchmark {
+
+    private static final long DELAY_MICROS = 500;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        System.out.printf("%8s %22s %22s %22s %22s%n", "threads", "no delay",
+                DELAY_MICROS + "us delay", "updates, no delay", "updates, " + DELAY_MICROS + "us delay");
+        for (int threads : THREADS) {
+            String none = run(0, threads, seconds, false);
+            String delayed = run(DELAY_MICROS, threads, seconds, false);
+            String updates = run(0, threads, seconds, true);
+            String updatesDelayed = run(DELAY_MICROS, threads, seconds, true);
+            System.out.printf("%8d %22s %22s %22s %22s%n", threads, none, delayed,
+                    updates, updatesDelayed);
+        }
+    }
+
+    /**
+     * @param update whether each transaction inserts a tuple
+     * @return commits per second and commits per force
+     */
+    private static String run(long delay, int threads, double seconds, final boolean update)
+            throws Exception {
+        Database.reset();
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(delay);
+        // a table per thread, so the transactions do not wait for locks
+        HeapFile[] tables = new HeapFile[threads];
+        for (int i = 0; update && i < threads; i++)
+            tables[i] = SystemTestUtil.createRandomHeapFile(1, 1, null, null);
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        final AtomicLong commits = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        long forces = log.getCommitForceCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final HeapFile table = tables[i];
+            new Thread() {
+                public void run() {
+                    BufferPool bp = Database.getBufferPool();
+                    long n = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            if (update) {
+                                bp.insertTuple(tid, table.getId(), Utility.getHeapTuple((int) n));
+                                bp.transactionComplete(tid);
+                            } else {
+                                log.logXactionBegin(tid);
+                                log.logCommit(tid);
+                            }
+                            n++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        commits.addAndGet(n);
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        double rate = commits.get() / ((System.nanoTime() - start) / 1e9);
+        forces = log.getCommitForceCount() - forces;
+        return String.format("%8.0f/s %5.1f/force", rate, (double) commits.get() / Math.max(1, forces));
+    }
+}
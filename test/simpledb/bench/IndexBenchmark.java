@@ -0,0 +1,115 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares equality lookups on a table through a SeqScan, a B+ tree
+ * secondary index and an extendible hash secondary index.
+ * <p>
+ * The table has three int fields: a sequence number and, in fields 1 and
+ * 2, the same random key, so that field 1 gets a BTreeFile index and field
+ * 2 a HashFile index.  The buffer pool holds all the pages, so the times
+ * are of warm lookups; the pages each lookup reads are counted too.  Run
+ * with
+ * <pre>
+ *   java -cp bin/src:bin/test:lib/* simpledb.bench.IndexBenchmark [rows] [lookups]
+ * </pre>
+ */
+public class IndexBenchmark {
+
+    // a SeqScan reads the whole table, so it does fewer lookups
+    private static final int SCAN_LOOKUPS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        Database.reset();
+        BufferPool bp = Database.resetBufferPool(10000);
+        Random r = new Random(42);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            int key = r.nextInt(rows);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, key, key)));
+        }
+        File data = File.createTempFile("index-bench", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.PAGE_SIZE, 3);
+        HeapFile table = Utility.openHeapFile(3, data);
+
+        long start = System.nanoTime();
+        addIndex(table, 1, new BTreeFile(tempFile(), 0,
+                SecondaryIndex.entryDesc(table.getTupleDesc(), 1)));
+        System.out.printf("built the B+ tree index in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        addIndex(table, 2, new HashFile(tempFile(), 0,
+                SecondaryIndex.entryDesc(table.getTupleDesc(), 2)));
+        System.out.printf("built the hash index in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+
+        System.out.printf("%10s %14s %14s %10s%n", "access", "us/lookup", "pages/lookup", "tuples");
+        run("seqscan", table, -1, SCAN_LOOKUPS, rows, bp);
+        run("btree", table, 1, lookups, rows, bp);
+        run("hash", table, 2, lookups, rows, bp);
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("index-bench", ".idx");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static void addIndex(HeapFile table, int field, IndexFile file) throws Exception {
+        SecondaryIndex index = new SecondaryIndex(UUID.randomUUID().toString(), table.getId(),
+                field, file);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Looks up random keys, with a SeqScan if field is -1 or else with an
+     * IndexScan on the field, once to warm the pool and once timed.
+     */
+    private static void run(String name, HeapFile table, int field, int lookups, int rows,
+            BufferPool bp) throws Exception {
+        lookup(table, field, lookups, rows);
+        bp.resetStats();
+        long start = System.nanoTime();
+        long found = lookup(table, field, lookups, rows);
+        double micros = (System.nanoTime() - start) / 1e3 / lookups;
+        double pages = (double) (bp.getHitCount() + bp.getMissCount()) / lookups;
+        System.out.printf("%10s %14.1f %14.1f %10d%n", name, micros, pages, found);
+    }
+
+    // the number of tuples found
+    private static long lookup(HeapFile table, int field, int lookups, int rows)
+        throws Exception {
+        Random r = new Random(7);
+        TransactionId tid = new TransactionId();
+        long found = 0;
+        for (int i = 0; i < lookups; i++) {
+            IntField key = new IntField(r.nextInt(rows));
+            DbIterator it;
+            Predicate p;
+            if (field < 0) {
+                p = new Predicate(1, Predicate.Op.EQUALS, key);
+                it = new SeqScan(tid, table.getId());
+            } else {
+                p = new Predicate(field, Predicate.Op.EQUALS, key);
+                it = new IndexScan(tid, table.getId(), p);
+            }
+            it.open();
+            while (it.hasNext()) {
+                if (p.filter(it.next()))
+                    found++;
+            }
+            it.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return found;
+    }
+}
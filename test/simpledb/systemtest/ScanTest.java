@@ -104,6 +104,95 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a scan through a ring leaves the rest of the pool alone. */
+    @Test public void testScanRing() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> hotTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(1, 992*3, null, hotTuples);
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992*30, null, bigTuples);
+        BufferPool bp = Database.resetBufferPool(10);
+
+        SystemTestUtil.matchTuples(hot, hotTuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.setRingSize(2);
+        SystemTestUtil.matchTuples(scan, bigTuples);
+
+        // the hot table must still be cached
+        long misses = bp.getMissCount();
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(misses, bp.getMissCount());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Verifies that read-ahead loads every page once, and only once. */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992*30, null, tuples);
+        f.setReadAhead(true);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(f.numPages(), bp.getMissCount() + bp.getPrefetchCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /** Verifies that batches hold the same tuples as tuple-at-a-time scans. */
+    @Test public void testBatchScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        int threshold = tuples.get(0).get(0);
+        int expectedSelected = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) > threshold)
+                expectedSelected++;
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.open();
+        ArrayList<ArrayList<Integer>> scanned = new ArrayList<ArrayList<Integer>>();
+        int selected = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int row = 0; row < batch.size(); row++)
+                scanned.add(SystemTestUtil.tupleToList(batch.getTuple(row)));
+            batch.filterInt(0, Predicate.Op.GREATER_THAN, threshold);
+            selected += batch.numSelected();
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+
+        assertEquals(tuples, scanned);
+        assertEquals(expectedSelected, selected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Verifies that a parallel scan returns every tuple exactly once. */
+    @Test public void testParallelScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        Database.resetBufferPool(8);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "table", 4);
+        SystemTestUtil.matchTuples(scan, tuples);
+
+        // stop half way through, then read everything again
+        scan.open();
+        for (int i = 0; i < tuples.size() / 2; i++)
+            scan.next();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(tuples.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);